@@ -0,0 +1,206 @@
+package de.hbt.entity.versioning;
+
+import java.lang.invoke.*;
+import java.lang.reflect.*;
+import java.util.function.*;
+
+import de.hbt.entity.versioning.exception.*;
+import lombok.experimental.*;
+
+/**
+ * Creates typed, reflection-free accessors for getter and setter methods of entity classes.
+ *
+ * <p>
+ * Whenever possible, the accessors are generated via the {@link LambdaMetafactory}, which spins a small class per
+ * accessor that directly invokes the getter/setter and does primitive (un)boxing only where the getter/setter itself
+ * uses a wrapper type. Such accessors are as fast as a hand-written call site once the JIT compiler inlined them.
+ *
+ * <p>
+ * The generated classes are defined in the class loader of this library. If the entity class or any of the types in
+ * the method signature are not visible from that class loader (e.g. when the entities are loaded by a child class
+ * loader) or if the method is not public, then we fall back to a {@link MethodHandle} which does not perform an access
+ * check on every invocation.
+ *
+ * <p>
+ * <em>This class is only to be used by the classes inside the {@link de.hbt.entity.versioning} package and
+ * sub-packages!</em>
+ */
+@UtilityClass
+class Accessors {
+
+  private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+  /**
+   * Create an accessor invoking the given getter method.
+   *
+   * @param getter the getter {@link Method}
+   * @return the accessor
+   */
+  @SuppressWarnings("unchecked")
+  static Function<Object, Object> getter(Method getter) {
+    if (canGenerate(getter)) {
+      return (Function<Object, Object>) generate(getter, Function.class, "apply",
+          MethodType.methodType(Object.class, Object.class),
+          MethodType.methodType(wrap(getter.getReturnType()), getter.getDeclaringClass()));
+    }
+    MethodHandle mh = unreflect(getter).asType(MethodType.methodType(Object.class, Object.class));
+    return e -> {
+      try {
+        return (Object) mh.invokeExact(e);
+      } catch (Throwable t) {
+        throw rethrow(getter, t);
+      }
+    };
+  }
+
+  /**
+   * Create an accessor invoking the given getter method, which must return a <code>long</code> or {@link Long}.
+   *
+   * @param getter the getter {@link Method}
+   * @return the accessor
+   */
+  @SuppressWarnings("unchecked")
+  static ToLongFunction<Object> longGetter(Method getter) {
+    if (canGenerate(getter)) {
+      return (ToLongFunction<Object>) generate(getter, ToLongFunction.class, "applyAsLong",
+          MethodType.methodType(long.class, Object.class),
+          MethodType.methodType(long.class, getter.getDeclaringClass()));
+    }
+    MethodHandle mh = unreflect(getter).asType(MethodType.methodType(long.class, Object.class));
+    return e -> {
+      try {
+        return (long) mh.invokeExact(e);
+      } catch (Throwable t) {
+        throw rethrow(getter, t);
+      }
+    };
+  }
+
+  /**
+   * Create an accessor invoking the given getter method, which must return a <code>boolean</code> or {@link Boolean}.
+   *
+   * @param getter the getter {@link Method}
+   * @return the accessor
+   */
+  @SuppressWarnings("unchecked")
+  static Predicate<Object> booleanGetter(Method getter) {
+    if (canGenerate(getter)) {
+      return (Predicate<Object>) generate(getter, Predicate.class, "test",
+          MethodType.methodType(boolean.class, Object.class),
+          MethodType.methodType(boolean.class, getter.getDeclaringClass()));
+    }
+    MethodHandle mh = unreflect(getter).asType(MethodType.methodType(boolean.class, Object.class));
+    return e -> {
+      try {
+        return (boolean) mh.invokeExact(e);
+      } catch (Throwable t) {
+        throw rethrow(getter, t);
+      }
+    };
+  }
+
+  /**
+   * Create an accessor invoking the given setter method.
+   *
+   * @param setter the setter {@link Method}
+   * @return the accessor
+   */
+  @SuppressWarnings("unchecked")
+  static BiConsumer<Object, Object> setter(Method setter) {
+    if (canGenerate(setter)) {
+      return (BiConsumer<Object, Object>) generate(setter, BiConsumer.class, "accept",
+          MethodType.methodType(void.class, Object.class, Object.class),
+          MethodType.methodType(void.class, setter.getDeclaringClass(), wrap(setter.getParameterTypes()[0])));
+    }
+    MethodHandle mh = unreflect(setter).asType(MethodType.methodType(void.class, Object.class, Object.class));
+    return (e, v) -> {
+      try {
+        mh.invokeExact(e, v);
+      } catch (Throwable t) {
+        throw rethrow(setter, t);
+      }
+    };
+  }
+
+  /**
+   * Create an accessor invoking the given setter method, which must accept a <code>long</code> or {@link Long}.
+   *
+   * @param setter the setter {@link Method}
+   * @return the accessor
+   */
+  @SuppressWarnings("unchecked")
+  static ObjLongConsumer<Object> longSetter(Method setter) {
+    if (canGenerate(setter)) {
+      return (ObjLongConsumer<Object>) generate(setter, ObjLongConsumer.class, "accept",
+          MethodType.methodType(void.class, Object.class, long.class),
+          MethodType.methodType(void.class, setter.getDeclaringClass(), long.class));
+    }
+    MethodHandle mh = unreflect(setter).asType(MethodType.methodType(void.class, Object.class, long.class));
+    return (e, v) -> {
+      try {
+        mh.invokeExact(e, v);
+      } catch (Throwable t) {
+        throw rethrow(setter, t);
+      }
+    };
+  }
+
+  /**
+   * Determine whether we can let the {@link LambdaMetafactory} generate an accessor class for the given method.
+   *
+   * @param method the getter/setter method
+   * @return <code>true</code> if the method is public and all types in its signature are visible from our class loader
+   */
+  private static boolean canGenerate(Method method) {
+    if (!Modifier.isPublic(method.getModifiers()) || !Modifier.isPublic(method.getDeclaringClass().getModifiers()))
+      return false;
+    if (!isVisible(method.getDeclaringClass()) || !isVisible(method.getReturnType()))
+      return false;
+    for (Class<?> parameterType : method.getParameterTypes())
+      if (!isVisible(parameterType))
+        return false;
+    return true;
+  }
+
+  private static boolean isVisible(Class<?> clazz) {
+    if (clazz.isPrimitive())
+      return true;
+    try {
+      return Class.forName(clazz.getName(), false, Accessors.class.getClassLoader()) == clazz;
+    } catch (ClassNotFoundException e) {
+      return false;
+    }
+  }
+
+  private static Object generate(Method method, Class<?> functionalInterface, String samName,
+      MethodType samMethodType, MethodType instantiatedMethodType) {
+    try {
+      CallSite callSite = LambdaMetafactory.metafactory(LOOKUP, samName, MethodType.methodType(functionalInterface),
+          samMethodType, LOOKUP.unreflect(method), instantiatedMethodType);
+      return callSite.getTarget().invoke();
+    } catch (Throwable t) {
+      throw new InternalVersioningException("Could not generate accessor for [" + method + "]", t);
+    }
+  }
+
+  private static MethodHandle unreflect(Method method) {
+    try {
+      method.setAccessible(true);
+      return LOOKUP.unreflect(method);
+    } catch (IllegalAccessException | SecurityException e) {
+      throw new InternalVersioningException("Could not access [" + method + "]", e);
+    }
+  }
+
+  private static RuntimeException rethrow(Method method, Throwable t) {
+    if (t instanceof RuntimeException)
+      return (RuntimeException) t;
+    if (t instanceof Error)
+      throw (Error) t;
+    return new InternalVersioningException("Could not invoke [" + method + "]", t);
+  }
+
+  private static Class<?> wrap(Class<?> clazz) {
+    return MethodType.methodType(clazz).wrap().returnType();
+  }
+}
@@ -0,0 +1,37 @@
+package de.hbt.entity.versioning;
+
+import org.hibernate.event.spi.*;
+import org.springframework.beans.factory.annotation.*;
+import org.springframework.stereotype.*;
+
+/**
+ * Hibernate {@link PostLoadEventListener} which marks each loaded archived entity version as read-only in the
+ * persistence context. Hibernate then neither keeps a loaded state for such a version nor checks it for dirty
+ * properties when flushing, and the {@link VersioningInterceptor} skips it as well.
+ *
+ * <p>
+ * The listener is only registered when {@code entity-versioning.read-only-archived-versions} is enabled at startup.
+ *
+ * <p>
+ * <em>This class is only to be used by the classes inside the {@link de.hbt.entity.versioning} package and
+ * sub-packages!</em>
+ */
+@Component
+@SuppressWarnings("serial")
+class ArchivedReadOnlyListener implements PostLoadEventListener {
+
+  @Autowired
+  private transient MetaModel metamodel;
+
+  @Autowired
+  private transient VersioningProperties properties;
+
+  @Override
+  public void onPostLoad(PostLoadEvent event) {
+    if (!properties.isReadOnlyArchivedVersions())
+      return;
+    Object entity = event.getEntity();
+    if (metamodel.isVersioned(entity) && metamodel.isArchived(entity))
+      event.getSession().getPersistenceContext().setReadOnly(entity, true);
+  }
+}
@@ -1,8 +1,7 @@
 package de.hbt.entity.versioning;
 
-import java.lang.reflect.*;
+import java.util.function.*;
 
-import de.hbt.entity.versioning.exception.*;
 import lombok.*;
 
 /**
@@ -22,58 +21,43 @@ class Association {
 
   private boolean shouldCascadeNewVersion;
   private boolean shouldCascadeDelete;
+  /** Whether new versions are cascaded over this association later by the {@link DeferredCascadeWorker}. */
+  private boolean cascadeDeferred;
   private Kind kind;
   private Class<?> owner;
   private String name;
-  private @Getter(value = AccessLevel.PRIVATE) Member getter;
-  private @Getter(value = AccessLevel.PRIVATE) Member setter;
+  /**
+   * Accessor reading the association value from an owner. This is specialized when the meta-model is built, so reading
+   * does not need any type dispatch or reflection.
+   */
+  private @Getter(value = AccessLevel.PRIVATE) Function<Object, Object> reader;
+  /** Accessor writing the association value on an owner. */
+  private @Getter(value = AccessLevel.PRIVATE) BiConsumer<Object, Object> writer;
 
-  /** Set the association value on the given owner via the setter member. */
+  /**
+   * The HQL query selecting all live owners which reference any of a set of entities via this association, together
+   * with the id of the referenced entity. It is built once together with the meta-model and takes the parameter
+   * <code>ids</code> (the ids of the referenced entities), so that the owners of all entities which got a new version
+   * can be looked up with a single query.
+   */
+  private String ownerQuery;
+
+  /**
+   * The entity names of the referenced and the owning entity type, under which the reverse references of this
+   * association are kept in the {@link ReferenceIndex}, or <code>null</code> if they cannot be indexed.
+   */
+  private String referenceIndexTargetType;
+  private String referenceIndexOwnerType;
+  /** The HQL query selecting the ids of all live owners and referenced entities, to rebuild the reference index. */
+  private String referenceIndexRebuildQuery;
+
+  /** Set the association value on the given owner via the writer. */
   void write(Object owner, Object value) {
-    if (setter instanceof Field) {
-      /*
-       * The Field has already been made accessible by Hibernate!
-       */
-      try {
-        ((Field) setter).set(owner, value);
-      } catch (IllegalArgumentException | IllegalAccessException e) {
-        throw new InternalVersioningException("Could not access setter", e);
-      }
-    } else if (setter instanceof Method) {
-      try {
-        ((Method) setter).invoke(owner, value);
-      } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
-        throw new InternalVersioningException("Could not access setter", e);
-      }
-    } else {
-      throw new IllegalArgumentException("Unexpected Java member [" + setter + "] for assocation setter ["
-          + owner.getClass().getSimpleName() + "." + name + "]");
-    }
+    writer.accept(owner, value);
   }
 
-  /** Get the association value from the given owner via the getter member. */
+  /** Get the association value from the given owner via the reader. */
   Object read(Object owner) {
-    if (getter instanceof Field) {
-      /*
-       * The Field has already been made accessible by Hibernate!
-       */
-      try {
-        return ((Field) getter).get(owner);
-      } catch (IllegalArgumentException | IllegalAccessException e) {
-        throw new InternalVersioningException("Could not access getter", e);
-      }
-    } else if (getter instanceof Method) {
-      try {
-        return ((Method) getter).invoke(owner);
-      } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
-        throw new InternalVersioningException("Could not access getter", e);
-      }
-    } else {
-      /*
-       * We currently do not support methods since there is no standard way in
-       */
-      throw new IllegalArgumentException("Unexpected Java member [" + getter + "] for assocation getter ["
-          + owner.getClass().getSimpleName() + "." + name + "]");
-    }
+    return reader.apply(owner);
   }
 }
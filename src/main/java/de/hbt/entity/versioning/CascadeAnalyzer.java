@@ -0,0 +1,236 @@
+package de.hbt.entity.versioning;
+
+import java.util.*;
+
+import javax.persistence.*;
+
+import org.springframework.beans.factory.annotation.*;
+import org.springframework.context.annotation.*;
+import org.springframework.stereotype.*;
+
+import de.hbt.entity.versioning.Association.*;
+import de.hbt.entity.versioning.CascadeReport.*;
+
+/**
+ * Analyzes the graph of associations for which new versions are cascaded, in order to find entity types where a single
+ * modification causes many new versions (write amplification).
+ *
+ * <p>
+ * The graph has an edge from each referenced entity type to each owner of an incoming association, which is exactly
+ * the direction in which {@link VersioningInterceptor} cascades new versions.
+ *
+ * <p>
+ * <em>This class is only to be used by the classes inside the {@link de.hbt.entity.versioning} package and
+ * sub-packages!</em>
+ */
+@Component
+class CascadeAnalyzer {
+
+  private static final Comparator<Class<?>> BY_NAME = Comparator.comparing(Class::getName);
+
+  @Autowired
+  private MetaModel metaModel;
+
+  /**
+   * Inject the EntityManager lazily, because it is being built BEFORE the {@link MetaModel}.
+   */
+  @Autowired
+  @Lazy
+  private EntityManager entityManager;
+
+  /**
+   * Analyze the cascade graph.
+   *
+   * @param withRowCounts whether to query the live row counts of all involved entity types and associations in order
+   *                      to estimate the worst-case fan-out
+   * @return the report
+   */
+  CascadeReport analyze(boolean withRowCounts) {
+    Map<Class<?>, List<Association>> graph = new TreeMap<>(BY_NAME);
+    for (Class<?> clazz : metaModel.getClasses()) {
+      List<Association> associations = metaModel.getIncomingAssociations(clazz);
+      if (!associations.isEmpty())
+        graph.put(clazz, associations);
+    }
+    Map<Class<?>, Long> liveRows = new HashMap<>();
+    Map<Association, Long> maxOwnersPerTarget = new IdentityHashMap<>();
+    if (withRowCounts)
+      countRows(graph, liveRows, maxOwnersPerTarget);
+    /* Tarjan emits the strongly connected components in reverse topological order, i.e. owners first */
+    List<Set<Class<?>>> components = new StronglyConnectedComponents(graph).components;
+    Set<Class<?>> cyclicClasses = new HashSet<>();
+    List<Set<Class<?>>> cycles = new ArrayList<>();
+    for (Set<Class<?>> component : components) {
+      Class<?> first = component.iterator().next();
+      if (component.size() > 1 || hasSelfReference(graph, first)) {
+        cyclicClasses.addAll(component);
+        Set<Class<?>> cycle = new TreeSet<>(BY_NAME);
+        cycle.addAll(component);
+        cycles.add(Collections.unmodifiableSet(cycle));
+      }
+    }
+    Map<Class<?>, Long> worstCaseFanOut = new HashMap<>();
+    List<EntityCascade> entities = new ArrayList<>();
+    for (Set<Class<?>> component : components) {
+      for (Class<?> clazz : component) {
+        if (!graph.containsKey(clazz))
+          continue;
+        Set<Class<?>> closure = closureOf(graph, clazz);
+        long fanOut = -1L;
+        if (withRowCounts) {
+          long closureRows = 0L;
+          for (Class<?> affected : closure)
+            closureRows = saturatedAdd(closureRows, Math.max(0L, liveRows.getOrDefault(affected, 0L)));
+          fanOut = closureRows;
+          if (!cyclicClasses.contains(clazz)) {
+            /* Owners have been handled before, because the component graph is acyclic */
+            long sum = 0L;
+            for (Association association : graph.get(clazz)) {
+              long ownerFanOut = Math.max(0L, worstCaseFanOut.getOrDefault(association.getOwner(), 0L));
+              sum = saturatedAdd(sum,
+                  saturatedMultiply(maxOwnersPerTarget.get(association), saturatedAdd(1L, ownerFanOut)));
+            }
+            /* A row gets at most one new version per transaction, so the closure's row count bounds the fan-out */
+            fanOut = Math.min(sum, closureRows);
+          }
+          worstCaseFanOut.put(clazz, fanOut);
+        }
+        List<AssociationFanOut> associations = new ArrayList<>();
+        for (Association association : graph.get(clazz))
+          associations.add(new AssociationFanOut(association.getOwner(), association.getName(),
+              association.getKind() == Kind.PLURAL, maxOwnersPerTarget.getOrDefault(association, -1L)));
+        entities.add(new EntityCascade(clazz, liveRows.getOrDefault(clazz, -1L), closure,
+            cyclicClasses.contains(clazz), fanOut, Collections.unmodifiableList(associations)));
+      }
+    }
+    entities.sort(Comparator.comparingLong(EntityCascade::getWorstCaseFanOut).reversed()
+        .thenComparing(Comparator.comparingInt((EntityCascade e) -> e.getClosure().size()).reversed())
+        .thenComparing(e -> e.getEntityType().getName()));
+    cycles.sort(Comparator.comparing(c -> c.iterator().next().getName()));
+    return new CascadeReport(Collections.unmodifiableList(entities), Collections.unmodifiableList(cycles),
+        withRowCounts);
+  }
+
+  private static boolean hasSelfReference(Map<Class<?>, List<Association>> graph, Class<?> clazz) {
+    for (Association association : graph.getOrDefault(clazz, Collections.emptyList()))
+      if (association.getOwner() == clazz)
+        return true;
+    return false;
+  }
+
+  /**
+   * Compute all entity types which are reachable from the given entity type in the cascade graph.
+   */
+  private static Set<Class<?>> closureOf(Map<Class<?>, List<Association>> graph, Class<?> clazz) {
+    Set<Class<?>> closure = new TreeSet<>(BY_NAME);
+    Deque<Class<?>> work = new ArrayDeque<>();
+    work.push(clazz);
+    while (!work.isEmpty()) {
+      for (Association association : graph.getOrDefault(work.pop(), Collections.emptyList()))
+        if (closure.add(association.getOwner()))
+          work.push(association.getOwner());
+    }
+    return Collections.unmodifiableSet(closure);
+  }
+
+  /**
+   * Query the number of live rows of all involved entity types and the maximum number of live owners referencing the
+   * same row for each association.
+   */
+  private void countRows(Map<Class<?>, List<Association>> graph, Map<Class<?>, Long> liveRows,
+      Map<Association, Long> maxOwnersPerTarget) {
+    Set<Class<?>> classes = new HashSet<>(graph.keySet());
+    for (List<Association> associations : graph.values())
+      for (Association association : associations)
+        classes.add(association.getOwner());
+    for (Class<?> clazz : classes) {
+      String entityName = entityNameOf(clazz);
+      if (entityName == null)
+        continue;
+      liveRows.put(clazz, entityManager
+          .createQuery("SELECT COUNT(e) FROM " + entityName + " e" + liveCondition(clazz, "e", " WHERE "), Long.class)
+          .getSingleResult());
+    }
+    for (List<Association> associations : graph.values()) {
+      for (Association association : associations) {
+        Class<?> owner = association.getOwner();
+        /* Joining works for both singular and plural associations and skips owners without a reference */
+        List<Long> counts = entityManager
+            .createQuery("SELECT COUNT(o) FROM " + entityNameOf(owner) + " o JOIN o." + association.getName() + " t"
+                + liveCondition(owner, "o", " WHERE ") + " GROUP BY t.id ORDER BY COUNT(o) DESC", Long.class)
+            .setMaxResults(1).getResultList();
+        maxOwnersPerTarget.put(association, counts.isEmpty() ? 0L : counts.get(0));
+      }
+    }
+  }
+
+  private String liveCondition(Class<?> clazz, String alias, String prefix) {
+    if (!metaModel.isVersioned(clazz))
+      return "";
+    return prefix + alias + "." + metaModel.getArchivedFieldName(clazz) + " = FALSE";
+  }
+
+  private String entityNameOf(Class<?> clazz) {
+    try {
+      return entityManager.getMetamodel().entity(clazz).getName();
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  private static long saturatedAdd(long a, long b) {
+    long r = a + b;
+    return r < 0L ? Long.MAX_VALUE : r;
+  }
+
+  private static long saturatedMultiply(long a, long b) {
+    if (a != 0L && b > Long.MAX_VALUE / a)
+      return Long.MAX_VALUE;
+    return a * b;
+  }
+
+  /**
+   * Tarjan's algorithm computing the strongly connected components of the cascade graph.
+   */
+  private static class StronglyConnectedComponents {
+    private final Map<Class<?>, List<Association>> graph;
+    private final Map<Class<?>, Integer> index = new HashMap<>();
+    private final Map<Class<?>, Integer> lowLink = new HashMap<>();
+    private final Deque<Class<?>> stack = new ArrayDeque<>();
+    private final Set<Class<?>> onStack = new HashSet<>();
+    private final List<Set<Class<?>>> components = new ArrayList<>();
+
+    StronglyConnectedComponents(Map<Class<?>, List<Association>> graph) {
+      this.graph = graph;
+      for (Class<?> clazz : graph.keySet())
+        if (!index.containsKey(clazz))
+          visit(clazz);
+    }
+
+    private void visit(Class<?> clazz) {
+      index.put(clazz, index.size());
+      lowLink.put(clazz, index.get(clazz));
+      stack.push(clazz);
+      onStack.add(clazz);
+      for (Association association : graph.getOrDefault(clazz, Collections.emptyList())) {
+        Class<?> owner = association.getOwner();
+        if (!index.containsKey(owner)) {
+          visit(owner);
+          lowLink.put(clazz, Math.min(lowLink.get(clazz), lowLink.get(owner)));
+        } else if (onStack.contains(owner)) {
+          lowLink.put(clazz, Math.min(lowLink.get(clazz), index.get(owner)));
+        }
+      }
+      if (lowLink.get(clazz).equals(index.get(clazz))) {
+        Set<Class<?>> component = new LinkedHashSet<>();
+        Class<?> member;
+        do {
+          member = stack.pop();
+          onStack.remove(member);
+          component.add(member);
+        } while (member != clazz);
+        components.add(component);
+      }
+    }
+  }
+}
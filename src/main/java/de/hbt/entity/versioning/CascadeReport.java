@@ -0,0 +1,115 @@
+package de.hbt.entity.versioning;
+
+import java.util.*;
+
+import lombok.*;
+
+/**
+ * Report about how far a new version of an entity can ripple through the associations for which new versions are
+ * cascaded, as computed by {@link VersioningComponent#analyzeCascades(boolean)}.
+ *
+ * <p>
+ * The entities are sorted by their (estimated) worst-case fan-out in descending order, so the write-amplification
+ * hotspots come first.
+ */
+@Value
+public class CascadeReport {
+
+  /** The cascade information of all entity types which have at least one incoming cascading association. */
+  List<EntityCascade> entities;
+
+  /**
+   * All cycles in the cascade graph, i.e. the sets of entity types which (transitively) cascade new versions to each
+   * other, including entity types with a self-reference.
+   */
+  List<Set<Class<?>>> cycles;
+
+  /** Whether the fan-out was estimated from live row counts. */
+  boolean withRowCounts;
+
+  /**
+   * Find the cascade information for the given entity type.
+   *
+   * @param entityType the entity type
+   * @return the cascade information or <code>null</code> if no new version is cascaded from the given entity type
+   */
+  public EntityCascade of(Class<?> entityType) {
+    for (EntityCascade entity : entities)
+      if (entity.getEntityType() == entityType)
+        return entity;
+    return null;
+  }
+
+  /**
+   * Render this report in a human-readable form, e.g. for logging.
+   *
+   * @return the report as text
+   */
+  public String format() {
+    StringBuilder sb = new StringBuilder();
+    for (EntityCascade entity : entities) {
+      sb.append(entity.getEntityType().getName());
+      if (withRowCounts)
+        sb.append(": ").append(entity.getLiveRows()).append(" live rows, worst-case fan-out ")
+            .append(entity.getWorstCaseFanOut());
+      if (entity.isCyclic())
+        sb.append(" (cyclic)");
+      sb.append("\n  cascades to:");
+      for (Class<?> clazz : entity.getClosure())
+        sb.append(' ').append(clazz.getSimpleName());
+      sb.append('\n');
+      for (AssociationFanOut association : entity.getAssociations()) {
+        sb.append("  <- ").append(association.getOwner().getSimpleName()).append('.')
+            .append(association.getName()).append(association.isPlural() ? " (plural)" : " (singular)");
+        if (withRowCounts)
+          sb.append(": at most ").append(association.getMaxOwnersPerTarget()).append(" owners per row");
+        sb.append('\n');
+      }
+    }
+    for (Set<Class<?>> cycle : cycles) {
+      sb.append("cycle:");
+      for (Class<?> clazz : cycle)
+        sb.append(' ').append(clazz.getSimpleName());
+      sb.append('\n');
+    }
+    return sb.toString();
+  }
+
+  /** The cascade information of a single entity type. */
+  @Value
+  public static class EntityCascade {
+    /** The entity type of which a new version is created. */
+    Class<?> entityType;
+    /** The number of live (i.e. not archived) rows of the entity type or -1 if rows were not counted. */
+    long liveRows;
+    /**
+     * All entity types which (transitively) get a new version when the entity type gets a new version. This contains
+     * the entity type itself only if it is part of a cycle.
+     */
+    Set<Class<?>> closure;
+    /** Whether the entity type is part of a cycle. */
+    boolean cyclic;
+    /**
+     * Estimated upper bound of the number of rows which get a new version when a single row of the entity type gets a
+     * new version or -1 if rows were not counted.
+     */
+    long worstCaseFanOut;
+    /** The incoming associations over which new versions are directly cascaded from the entity type. */
+    List<AssociationFanOut> associations;
+  }
+
+  /** The fan-out of a single association for which new versions are cascaded. */
+  @Value
+  public static class AssociationFanOut {
+    /** The entity type owning the association (i.e. which gets a new version). */
+    Class<?> owner;
+    /** The name of the association in the owner. */
+    String name;
+    /** Whether the association is a collection. */
+    boolean plural;
+    /**
+     * The maximum number of live owners referencing the same row via this association or -1 if rows were not counted.
+     */
+    long maxOwnersPerTarget;
+  }
+}
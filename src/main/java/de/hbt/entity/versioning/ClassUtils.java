@@ -75,19 +75,51 @@ class ClassUtils {
     }
   }
 
+  /**
+   * Caches the resolved non-proxy class for every runtime class we have seen, so that the class name checks and the
+   * walk up the type hierarchy happen only once per class.
+   */
+  private static final ClassValue<Class<?>> NON_PROXY_CLASSES = new ClassValue<Class<?>>() {
+    @Override
+    protected Class<?> computeValue(Class<?> type) {
+      Class<?> clazz = type;
+      while (isProxyClass(clazz))
+        clazz = clazz.getSuperclass();
+      return clazz;
+    }
+  };
+
+  /**
+   * Determine whether the given class was generated by Hibernate as a lazy-loading proxy of an entity class.
+   *
+   * <p>
+   * Classes enhanced by the Hibernate bytecode enhancement are the entity classes themselves and are therefore not
+   * considered to be proxies.
+   *
+   * @param clazz the class to check
+   * @return <code>true</code> if the class is a Hibernate-generated proxy class; <code>false</code> otherwise
+   */
+  private static boolean isProxyClass(Class<?> clazz) {
+    if (org.hibernate.proxy.HibernateProxy.class.isAssignableFrom(clazz) && !clazz.isInterface())
+      return true;
+    // Obviously, checking only for the class name is not very good, but there are
+    // generated classes which do not implement HibernateProxy.
+    String name = clazz.getName();
+    return name.contains("_$$_") || name.contains("$HibernateProxy$");
+  }
+
   /**
    * Hibernate generates proxy classes and we have to traverse the type hierarchy to their actual/real parent class.
    *
+   * <p>
+   * The result is cached per runtime class, so this is effectively a single lookup.
+   *
    * @param clazz the class which might be a Hibernate-generated proxy class
    * @return the actual class, which may either be the given <code>clazz</code> already (if it is not a Hibernate proxy
    *         class) or the first non-proxy super class in its type hierarchy
    */
   @SuppressWarnings("unchecked")
   static <T> Class<T> findNonProxyClass(Class<? extends T> clazz) {
-    // Obviously, checking only for the class name is not very good, but I don't see
-    // any other way.
-    if (clazz.getName().contains("_$$_") || clazz.getName().contains("$HibernateProxy$"))
-      return (Class<T>) findNonProxyClass(clazz.getSuperclass());
-    return (Class<T>) clazz;
+    return (Class<T>) NON_PROXY_CLASSES.get(clazz);
   }
 }
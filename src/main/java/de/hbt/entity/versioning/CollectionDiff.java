@@ -0,0 +1,95 @@
+package de.hbt.entity.versioning;
+
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * The difference between the stored and the current elements of a collection, treating both as multisets of element
+ * keys (so that the order is irrelevant, but duplicates count). It is computed in a single linear pass over both
+ * collections, instead of looking up each element of one collection in the other.
+ *
+ * <p>
+ * <em>This class is only to be used by the classes inside the {@link de.hbt.entity.versioning} package and
+ * sub-packages!</em>
+ */
+class CollectionDiff {
+
+  /** Stands in for <code>null</code> elements in the index of the current elements. */
+  private static final Object NULL = new Object();
+
+  /** The stored elements without a current element of the same key. */
+  final List<Object> removed = new ArrayList<>();
+  /** The current elements without a stored element of the same key. */
+  final List<Object> added = new ArrayList<>();
+
+  /**
+   * Compute the difference of the given collections.
+   *
+   * @param stored     the stored elements
+   * @param current    the current elements
+   * @param storedKey  computes the key of a stored element
+   * @param currentKey computes the key of a current element
+   * @return the difference
+   */
+  static CollectionDiff of(Collection<?> stored, Collection<?> current, Function<Object, Object> storedKey,
+      Function<Object, Object> currentKey) {
+    CollectionDiff diff = new CollectionDiff();
+    /* Index the current elements by their key, keeping duplicates */
+    Map<Object, Object> unmatched = new HashMap<>(Math.max(16, current.size() * 4 / 3 + 1));
+    for (Object element : current) {
+      Object key = currentKey.apply(element);
+      Object value = element == null ? NULL : element;
+      Object previous = unmatched.putIfAbsent(key, value);
+      if (previous != null) {
+        Deque<Object> duplicates;
+        if (previous instanceof Duplicates) {
+          duplicates = ((Duplicates) previous).elements;
+        } else {
+          Duplicates d = new Duplicates();
+          d.elements.add(previous);
+          unmatched.put(key, d);
+          duplicates = d.elements;
+        }
+        duplicates.add(value);
+      }
+    }
+    /* Match each stored element with one current element of the same key */
+    for (Object element : stored) {
+      Object key = storedKey.apply(element);
+      Object match = unmatched.get(key);
+      if (match == null) {
+        diff.removed.add(element);
+      } else if (match instanceof Duplicates) {
+        Deque<Object> duplicates = ((Duplicates) match).elements;
+        duplicates.poll();
+        if (duplicates.isEmpty())
+          unmatched.remove(key);
+      } else {
+        unmatched.remove(key);
+      }
+    }
+    for (Object match : unmatched.values()) {
+      if (match instanceof Duplicates) {
+        for (Object value : ((Duplicates) match).elements)
+          diff.added.add(value == NULL ? null : value);
+      } else {
+        diff.added.add(match == NULL ? null : match);
+      }
+    }
+    return diff;
+  }
+
+  /**
+   * Whether both collections contain the same elements.
+   *
+   * @return <code>true</code> if nothing was added or removed
+   */
+  boolean isEmpty() {
+    return removed.isEmpty() && added.isEmpty();
+  }
+
+  /** More than one current element with the same key. */
+  private static class Duplicates {
+    final Deque<Object> elements = new ArrayDeque<>();
+  }
+}
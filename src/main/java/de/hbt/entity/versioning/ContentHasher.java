@@ -0,0 +1,175 @@
+package de.hbt.entity.versioning;
+
+import java.io.*;
+import java.math.*;
+import java.nio.charset.*;
+import java.security.*;
+import java.util.*;
+import java.util.function.*;
+
+import org.hibernate.*;
+
+import de.hbt.entity.versioning.annotations.ContentHash;
+import de.hbt.entity.versioning.exception.*;
+
+/**
+ * Computes the {@link ContentHash} of an entity from its Hibernate property values, following the
+ * {@link DirtyCheckPlan} of the entity. The hash is a hex-encoded SHA-256 digest of an unambiguous encoding of all
+ * hashed values, so two equal hashes mean equal content.
+ *
+ * <p>
+ * Only values with an exact encoding are supported: strings, numbers, booleans, characters, enums, dates,
+ * <code>java.time</code> values, UUIDs and byte arrays. Any other value makes the content not hashable.
+ *
+ * <p>
+ * <em>This class is only to be used by the classes inside the {@link de.hbt.entity.versioning} package and
+ * sub-packages!</em>
+ */
+class ContentHasher {
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private static final OutputStream NO_OUTPUT = new OutputStream() {
+    @Override
+    public void write(int b) {
+    }
+  };
+
+  private final DirtyCheckPlan plan;
+  /** Whether each property is part of the hash. */
+  private final boolean[] hashed;
+  /**
+   * The indexes of all compared properties which are not part of the hash, because they are not part of the content
+   * (e.g. the modification date), and which therefore have to be compared separately.
+   */
+  final int[] unhashedIndexes;
+
+  private ContentHasher(DirtyCheckPlan plan, boolean[] hashed, int[] unhashedIndexes) {
+    this.plan = plan;
+    this.hashed = hashed;
+    this.unhashedIndexes = unhashedIndexes;
+  }
+
+  /**
+   * Build the hasher for the given entity.
+   *
+   * @param plan            the dirty check plan of the entity
+   * @param excludedIndexes the indexes of the properties which are not part of the content or -1
+   * @return the hasher
+   */
+  static ContentHasher of(DirtyCheckPlan plan, int... excludedIndexes) {
+    boolean[] hashed = new boolean[plan.kinds.length];
+    List<Integer> unhashed = new ArrayList<>();
+    for (int i = 0; i < hashed.length; i++) {
+      if (plan.kinds[i] == DirtyCheckPlan.Kind.SKIP)
+        continue;
+      hashed[i] = plan.kinds[i] != DirtyCheckPlan.Kind.ARCHIVED;
+      for (int excluded : excludedIndexes)
+        if (excluded == i)
+          hashed[i] = false;
+      if (!hashed[i])
+        unhashed.add(i);
+    }
+    return new ContentHasher(plan, hashed, unhashed.stream().mapToInt(Integer::intValue).toArray());
+  }
+
+  /**
+   * Compute the hash of the given property values.
+   *
+   * @param values the property values of the entity
+   * @param idOf   obtains the id of a referenced entity
+   * @return the hash or <code>null</code> if the values cannot be hashed, because a value is not supported or a
+   *         referenced entity has no id yet
+   */
+  String hash(Object[] values, Function<Object, Serializable> idOf) {
+    MessageDigest md;
+    try {
+      md = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new InternalVersioningException("SHA-256 is not available", e);
+    }
+    try (DataOutputStream out = new DataOutputStream(new DigestOutputStream(NO_OUTPUT, md))) {
+      if (!write(out, plan, hashed, values, idOf))
+        return null;
+    } catch (IOException e) {
+      throw new InternalVersioningException("Could not compute the content hash", e);
+    }
+    byte[] digest = md.digest();
+    char[] hex = new char[digest.length * 2];
+    for (int i = 0; i < digest.length; i++) {
+      hex[2 * i] = HEX[(digest[i] >> 4) & 0xF];
+      hex[2 * i + 1] = HEX[digest[i] & 0xF];
+    }
+    return new String(hex);
+  }
+
+  private static boolean write(DataOutputStream out, DirtyCheckPlan plan, boolean[] hashed, Object[] values,
+      Function<Object, Serializable> idOf) throws IOException {
+    for (int i = 0; i < values.length; i++) {
+      if (hashed != null ? !hashed[i] : plan.kinds[i] == DirtyCheckPlan.Kind.SKIP)
+        continue;
+      Object value = values[i];
+      if (value == null) {
+        out.writeByte(0);
+        continue;
+      }
+      out.writeByte(1);
+      switch (plan.kinds[i]) {
+      case IDENTITY:
+        if (plan.identityType == Long.class) {
+          if (!writeValue(out, value))
+            return false;
+          break;
+        }
+        /* An identity entity is hashed like any other to-one association */
+      case ENTITY_FK:
+        Serializable id = idOf.apply(value);
+        if (id == null || !writeValue(out, id))
+          return false;
+        break;
+      case EMBEDDABLE:
+        if (!write(out, plan.componentPlans[i], null,
+            plan.componentTypes[i].getPropertyValues(value, EntityMode.POJO), idOf))
+          return false;
+        break;
+      default:
+        if (!writeValue(out, value))
+          return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean writeValue(DataOutputStream out, Object value) throws IOException {
+    Class<?> clazz = value.getClass();
+    if (value instanceof BigDecimal) {
+      /* Equal regardless of the scale, just like the dirty check compares them */
+      writeString(out, "BigDecimal:" + ((BigDecimal) value).stripTrailingZeros().toPlainString());
+    } else if (value instanceof String || value instanceof Boolean || value instanceof Character
+        || value instanceof Byte || value instanceof Short || value instanceof Integer || value instanceof Long
+        || value instanceof Float || value instanceof Double || value instanceof BigInteger
+        || value instanceof UUID || clazz.getName().startsWith("java.time.")) {
+      writeString(out, clazz.getName() + ":" + value);
+    } else if (value instanceof Enum) {
+      writeString(out, ((Enum<?>) value).getDeclaringClass().getName() + ":" + ((Enum<?>) value).name());
+    } else if (value instanceof java.sql.Timestamp) {
+      java.sql.Timestamp timestamp = (java.sql.Timestamp) value;
+      writeString(out, clazz.getName() + ":" + timestamp.getTime() + "." + timestamp.getNanos());
+    } else if (value instanceof Date) {
+      writeString(out, clazz.getName() + ":" + ((Date) value).getTime());
+    } else if (value instanceof byte[]) {
+      writeString(out, "byte[]");
+      out.writeInt(((byte[]) value).length);
+      out.write((byte[]) value);
+    } else {
+      return false;
+    }
+    return true;
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+}
@@ -0,0 +1,23 @@
+package de.hbt.entity.versioning;
+
+import lombok.*;
+
+/**
+ * An entity which got a new version that still has to be cascaded to its owners, as queued in the
+ * <code>entity_versioning_deferred_cascade</code> table (see {@link DeferredCascadeQueue} for its DDL).
+ */
+@Value
+public class DeferredCascade {
+
+  /** The Hibernate entity name of the entity. */
+  String entityType;
+
+  /** The id of the old version, whose owners still have to be moved to the new version. */
+  long oldId;
+
+  /** The id of the newest version. */
+  long newId;
+
+  /** The number of failed attempts to apply the cascade. */
+  int attempts;
+}
@@ -0,0 +1,223 @@
+package de.hbt.entity.versioning;
+
+import java.sql.*;
+import java.util.*;
+
+import org.hibernate.engine.spi.*;
+
+/**
+ * Reads and writes the durable queue of deferred cascades, a table holding one row per entity which got a new version
+ * that still has to be cascaded to the owners referencing it, either via a deferred association (see
+ * {@link de.hbt.entity.versioning.annotations.CascadeNewVersion.Mode#DEFERRED}) or because the cascade budget of the
+ * owners' entity type was exceeded (see {@link VersioningProperties.CascadeBudgetAction#DEFER}). The table has to be
+ * created by the application:
+ *
+ * <pre>
+ * CREATE TABLE entity_versioning_deferred_cascade (
+ *   entity_type VARCHAR(255) NOT NULL,
+ *   old_id BIGINT NOT NULL,
+ *   new_id BIGINT NOT NULL,
+ *   attempts INT DEFAULT 0 NOT NULL,
+ *   PRIMARY KEY (entity_type, old_id)
+ * );
+ * </pre>
+ *
+ * <p>
+ * The type is the Hibernate entity name. Since an old version gets archived only once, it identifies a row together
+ * with the old id. The new id always refers to the newest version, so that the owners are moved to it directly even if
+ * it got another new version before the cascade was applied.
+ *
+ * <p>
+ * <em>This class is only to be used by the classes inside the {@link de.hbt.entity.versioning} package and
+ * sub-packages!</em>
+ */
+class DeferredCascadeQueue {
+
+  static final String TABLE = "entity_versioning_deferred_cascade";
+
+  private static final String INSERT = "insert into " + TABLE + " (entity_type, old_id, new_id) values (?, ?, ?)";
+  private static final String UPDATE_NEW_ID = "update " + TABLE
+      + " set new_id = ? where entity_type = ? and new_id = ?";
+  private static final String SELECT_NEXT = "select entity_type, old_id, new_id, attempts from " + TABLE
+      + " where attempts < ? order by entity_type, old_id";
+  private static final String SELECT_ABANDONED = "select entity_type, old_id, new_id, attempts from " + TABLE
+      + " where attempts >= ? order by entity_type, old_id";
+  private static final String DELETE_ABANDONED = "delete from " + TABLE + " where attempts >= ?";
+  private static final String DELETE = "delete from " + TABLE
+      + " where entity_type = ? and old_id = ? and new_id = ?";
+  private static final String INCREMENT_ATTEMPTS = "update " + TABLE
+      + " set attempts = attempts + 1 where entity_type = ? and old_id = ?";
+
+  private DeferredCascadeQueue() {
+  }
+
+  /**
+   * Add the given entries, and let all entries whose new version got another new version refer to that one.
+   *
+   * @param entries the entries
+   * @param session the session
+   */
+  static void add(List<Entry> entries, SharedSessionContractImplementor session) {
+    executeBatch(UPDATE_NEW_ID, entries, (ps, entry) -> {
+      ps.setLong(1, entry.newId);
+      ps.setString(2, entry.entityType);
+      ps.setLong(3, entry.oldId);
+    }, session);
+    executeBatch(INSERT, entries, (ps, entry) -> {
+      ps.setString(1, entry.entityType);
+      ps.setLong(2, entry.oldId);
+      ps.setLong(3, entry.newId);
+    }, session);
+  }
+
+  /**
+   * Get the next entries to apply.
+   *
+   * @param maxEntries  the maximum number of entries
+   * @param maxAttempts the number of failed attempts after which an entry is no longer applied
+   * @param session     the session
+   * @return the entries
+   */
+  static List<Entry> next(int maxEntries, int maxAttempts, SharedSessionContractImplementor session) {
+    return select(SELECT_NEXT, maxEntries, maxAttempts, session);
+  }
+
+  /**
+   * Get the entries which are no longer applied, because they failed too often.
+   *
+   * @param maxAttempts the number of failed attempts after which an entry is no longer applied
+   * @param session     the session
+   * @return the entries
+   */
+  static List<Entry> abandoned(int maxAttempts, SharedSessionContractImplementor session) {
+    return select(SELECT_ABANDONED, 0, maxAttempts, session);
+  }
+
+  /**
+   * Remove the entries which are no longer applied, because they failed too often.
+   *
+   * @param maxAttempts the number of failed attempts after which an entry is no longer applied
+   * @param session     the session
+   * @return the number of removed entries
+   */
+  static int removeAbandoned(int maxAttempts, SharedSessionContractImplementor session) {
+    try {
+      PreparedStatement ps = session.getJdbcCoordinator().getStatementPreparer().prepareStatement(DELETE_ABANDONED);
+      try {
+        ps.setInt(1, maxAttempts);
+        return session.getJdbcCoordinator().getResultSetReturn().executeUpdate(ps);
+      } finally {
+        release(ps, session);
+      }
+    } catch (SQLException e) {
+      throw session.getJdbcServices().getSqlExceptionHelper().convert(e, "could not update the deferred cascades",
+          DELETE_ABANDONED);
+    }
+  }
+
+  private static List<Entry> select(String sql, int maxEntries, int maxAttempts,
+      SharedSessionContractImplementor session) {
+    List<Entry> entries = new ArrayList<>();
+    try {
+      PreparedStatement ps = session.getJdbcCoordinator().getStatementPreparer().prepareStatement(sql);
+      try {
+        ps.setInt(1, maxAttempts);
+        ps.setMaxRows(maxEntries);
+        ResultSet rs = session.getJdbcCoordinator().getResultSetReturn().extract(ps);
+        try {
+          while (rs.next())
+            entries.add(new Entry(rs.getString(1), rs.getLong(2), rs.getLong(3), rs.getInt(4)));
+        } finally {
+          session.getJdbcCoordinator().getLogicalConnection().getResourceRegistry().release(rs, ps);
+        }
+      } finally {
+        release(ps, session);
+      }
+    } catch (SQLException e) {
+      throw session.getJdbcServices().getSqlExceptionHelper().convert(e, "could not read the deferred cascades", sql);
+    }
+    return entries;
+  }
+
+  /**
+   * Remove the given applied entries, unless their new version got another new version in the meantime.
+   *
+   * @param entries the entries
+   * @param session the session
+   */
+  static void remove(List<Entry> entries, SharedSessionContractImplementor session) {
+    executeBatch(DELETE, entries, (ps, entry) -> {
+      ps.setString(1, entry.entityType);
+      ps.setLong(2, entry.oldId);
+      ps.setLong(3, entry.newId);
+    }, session);
+  }
+
+  /**
+   * Count a failed attempt to apply the given entries.
+   *
+   * @param entries the entries
+   * @param session the session
+   */
+  static void failed(List<Entry> entries, SharedSessionContractImplementor session) {
+    executeBatch(INCREMENT_ATTEMPTS, entries, (ps, entry) -> {
+      ps.setString(1, entry.entityType);
+      ps.setLong(2, entry.oldId);
+    }, session);
+  }
+
+  private static void executeBatch(String sql, List<Entry> entries, Binder binder,
+      SharedSessionContractImplementor session) {
+    if (entries.isEmpty())
+      return;
+    try {
+      PreparedStatement ps = session.getJdbcCoordinator().getStatementPreparer().prepareStatement(sql);
+      try {
+        for (Entry entry : entries) {
+          binder.bind(ps, entry);
+          ps.addBatch();
+        }
+        ps.executeBatch();
+      } finally {
+        release(ps, session);
+      }
+    } catch (SQLException e) {
+      throw session.getJdbcServices().getSqlExceptionHelper().convert(e, "could not update the deferred cascades",
+          sql);
+    }
+  }
+
+  private static void release(PreparedStatement ps, SharedSessionContractImplementor session) {
+    session.getJdbcCoordinator().getLogicalConnection().getResourceRegistry().release(ps);
+    session.getJdbcCoordinator().afterStatementExecution();
+  }
+
+  /** Binds the parameters of a statement for a single entry. */
+  private interface Binder {
+    void bind(PreparedStatement ps, Entry entry) throws SQLException;
+  }
+
+  /** An entity which got a new version that still has to be cascaded. */
+  static class Entry {
+    final String entityType;
+    final Long oldId;
+    final Long newId;
+    /** The number of failed attempts to apply this entry, when it was read. */
+    final int attempts;
+
+    Entry(String entityType, Long oldId, Long newId) {
+      this(entityType, oldId, newId, 0);
+    }
+
+    Entry(String entityType, Long oldId, Long newId, int attempts) {
+      this.entityType = entityType;
+      this.oldId = oldId;
+      this.newId = newId;
+      this.attempts = attempts;
+    }
+
+    DeferredCascade toDeferredCascade() {
+      return new DeferredCascade(entityType, oldId, newId, attempts);
+    }
+  }
+}
@@ -0,0 +1,188 @@
+package de.hbt.entity.versioning;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import javax.annotation.*;
+import javax.persistence.*;
+
+import org.springframework.beans.factory.annotation.*;
+import org.springframework.context.annotation.*;
+import org.springframework.context.event.*;
+import org.springframework.stereotype.*;
+import org.springframework.transaction.*;
+import org.springframework.transaction.support.*;
+
+import lombok.extern.slf4j.*;
+
+/**
+ * Applies the cascades of new versions over deferred associations (see
+ * {@link de.hbt.entity.versioning.annotations.CascadeNewVersion.Mode#DEFERRED}) or to owners over their cascade budget
+ * (see {@link VersioningProperties.CascadeBudgetAction#DEFER}) which were queued in the {@link DeferredCascadeQueue}.
+ * Each batch of queued entities is cascaded in its own short transaction via the {@link VersioningInterceptor}, exactly
+ * like a new version created in that transaction. When a batch fails, its entities are retried one by one, and the
+ * entities which still fail are retried in the next run, until they failed
+ * {@code entity-versioning.deferred-cascade-max-attempts} times. Such abandoned entities are logged and reported to the
+ * {@link VersioningListener}s, and stay in the queue until they are purged via
+ * {@link VersioningComponent#purgeAbandonedDeferredCascades()}.
+ *
+ * <p>
+ * <em>This class is only to be used by the classes inside the {@link de.hbt.entity.versioning} package and
+ * sub-packages!</em>
+ */
+@Component
+@Slf4j
+class DeferredCascadeWorker {
+
+  @Lazy
+  @Autowired
+  private EntityManager entityManager;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @Autowired
+  private MetaModel metamodel;
+
+  @Autowired
+  private VersioningInterceptor versioningInterceptor;
+
+  @Autowired
+  private VersioningProperties properties;
+
+  @Autowired(required = false)
+  @Lazy
+  private List<VersioningListener> versioningListeners;
+
+  private ScheduledExecutorService executor;
+
+  /**
+   * Start the background worker once the application context is ready, if there are any deferred associations or
+   * deferring cascade budgets.
+   */
+  @org.springframework.context.event.EventListener(ContextRefreshedEvent.class)
+  public synchronized void start() {
+    long interval = properties.getDeferredCascadeInterval().toMillis();
+    if (executor != null || interval <= 0
+        || !metamodel.hasDeferredCascades() && !properties.hasDeferringCascadeBudget())
+      return;
+    executor = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "entity-versioning-deferred-cascades");
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.scheduleWithFixedDelay(() -> {
+      try {
+        applyDeferredCascades();
+      } catch (RuntimeException e) {
+        log.error("Could not apply deferred cascades", e);
+      }
+    }, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  public synchronized void stop() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  /**
+   * Apply all queued deferred cascades, each batch in its own transaction.
+   *
+   * @return the number of applied entities
+   */
+  int applyDeferredCascades() {
+    TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+    transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    int batchSize = Math.max(1, properties.getCascadeBatchSize());
+    int applied = 0;
+    while (true) {
+      List<DeferredCascadeQueue.Entry> entries = transactionTemplate.execute(status -> DeferredCascadeQueue
+          .next(batchSize, properties.getDeferredCascadeMaxAttempts(), session()));
+      if (entries.isEmpty())
+        return applied;
+      try {
+        transactionTemplate.execute(status -> apply(entries));
+        applied += entries.size();
+        continue;
+      } catch (RuntimeException e) {
+        log.debug("Could not apply the deferred cascades of {} entities at once", entries.size(), e);
+      }
+      /* Retry the entities one by one, so that only the failing ones count as failed */
+      boolean failed = false;
+      for (DeferredCascadeQueue.Entry entry : entries) {
+        List<DeferredCascadeQueue.Entry> single = Collections.singletonList(entry);
+        try {
+          transactionTemplate.execute(status -> apply(single));
+          applied++;
+        } catch (RuntimeException e) {
+          transactionTemplate.execute(status -> {
+            DeferredCascadeQueue.failed(single, session());
+            return null;
+          });
+          failed = true;
+          if (entry.attempts + 1 >= properties.getDeferredCascadeMaxAttempts())
+            abandoned(entry, e);
+          else
+            log.warn("Could not apply the deferred cascade of [{}#{}]", entry.entityType, entry.oldId, e);
+        }
+      }
+      /* Retry the failed entities in the next run */
+      if (failed)
+        return applied;
+    }
+  }
+
+  /**
+   * Cascade the new versions of the given entities over all their associations within the current transaction, and
+   * remove them from the queue.
+   */
+  private Object apply(List<DeferredCascadeQueue.Entry> entries) {
+    org.hibernate.engine.spi.SessionImplementor si = session();
+    VersioningContext vctx = versioningInterceptor.versioningContextFor(si.getTransaction());
+    vctx.applyingDeferredCascades = true;
+    for (DeferredCascadeQueue.Entry entry : entries) {
+      Class<?> entityClass = si.getFactory().getMetamodel().entityPersister(entry.entityType).getMappedClass();
+      Object oldVersion = entityManager.find(entityClass, entry.oldId);
+      Object newVersion = entityManager.find(entityClass, entry.newId);
+      /* Either version might have been removed in the meantime */
+      if (oldVersion == null || newVersion == null)
+        continue;
+      vctx.pendingCascades.add(new NewVersion(oldVersion, newVersion));
+      /*
+       * Let the old version resolve to its new version, so that replacing it in a collection is not taken for removing
+       * it from the collection
+       */
+      vctx.newVersionMapping.put(new EntityKey(entityClass, entry.oldId), new EntityKey(entityClass, entry.newId));
+    }
+    /* The VersioningInterceptor cascades the pending new versions when flushing */
+    entityManager.flush();
+    DeferredCascadeQueue.remove(entries, si);
+    return null;
+  }
+
+  /**
+   * Log and report an entity whose deferred cascade failed for the last time.
+   */
+  private void abandoned(DeferredCascadeQueue.Entry entry, Exception cause) {
+    DeferredCascade cascade = new DeferredCascade(entry.entityType, entry.oldId, entry.newId, entry.attempts + 1);
+    log.error("Giving up the deferred cascade of [{}#{}] after {} failed attempts", entry.entityType, entry.oldId,
+        cascade.getAttempts(), cause);
+    if (versioningListeners == null)
+      return;
+    for (VersioningListener listener : versioningListeners) {
+      try {
+        listener.onDeferredCascadeAbandoned(cascade, cause);
+      } catch (Exception ex) {
+        log.error("Exception while notifying [" + listener + "] about abandoned deferred cascade of ["
+            + entry.entityType + "#" + entry.oldId + "]", ex);
+      }
+    }
+  }
+
+  private org.hibernate.engine.spi.SessionImplementor session() {
+    return entityManager.unwrap(org.hibernate.engine.spi.SessionImplementor.class);
+  }
+}
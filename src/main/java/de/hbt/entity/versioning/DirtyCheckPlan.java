@@ -0,0 +1,93 @@
+package de.hbt.entity.versioning;
+
+import java.math.*;
+
+import org.hibernate.persister.entity.*;
+import org.hibernate.type.*;
+
+/**
+ * Precompiled plan of how to compare each property of an entity (or embeddable) with its database snapshot value when
+ * checking it for dirty properties. It is built once per entity class, so that the dirty check itself does not need to
+ * inspect any Hibernate types, updatability flags or property names.
+ *
+ * <p>
+ * <em>This class is only to be used by the classes inside the {@link de.hbt.entity.versioning} package and
+ * sub-packages!</em>
+ */
+class DirtyCheckPlan {
+
+  /** How to compare a property. */
+  enum Kind {
+    /**
+     * Not compared, because the property is a collection, is not updatable or is the
+     * {@link de.hbt.entity.versioning.annotations.ContentHash}.
+     */
+    SKIP,
+    /** The {@link de.hbt.entity.versioning.annotations.Identity} property, which is reset to the snapshot value. */
+    IDENTITY,
+    /** The {@link de.hbt.entity.versioning.annotations.Archived} property, which must not be modified at all. */
+    ARCHIVED,
+    /** A to-one association, where the snapshot holds the id of the referenced entity. */
+    ENTITY_FK,
+    /** A {@link BigDecimal}, compared regardless of its scale. */
+    BIG_DECIMAL,
+    /** An embeddable, where the snapshot holds the array of its property values, compared via a nested plan. */
+    EMBEDDABLE,
+    /** Any other value, compared via {@link Object#equals(Object)}. */
+    EQUALS;
+  }
+
+  final Kind[] kinds;
+  final String[] propertyNames;
+  /** The types of all {@link Kind#EMBEDDABLE} properties, to get the property values of the embeddable. */
+  final ComponentType[] componentTypes;
+  /** The plans of all {@link Kind#EMBEDDABLE} properties. */
+  final DirtyCheckPlan[] componentPlans;
+  /** The type of the {@link Kind#IDENTITY} property: either {@link Long} or the identity entity class. */
+  final Class<?> identityType;
+
+  private DirtyCheckPlan(Type[] types, boolean[] updatable, String[] propertyNames, int identityIndex,
+      int archivedIndex, int contentHashIndex) {
+    this.kinds = new Kind[types.length];
+    this.propertyNames = propertyNames;
+    this.componentTypes = new ComponentType[types.length];
+    this.componentPlans = new DirtyCheckPlan[types.length];
+    Class<?> identityType = null;
+    for (int i = 0; i < types.length; i++) {
+      if (types[i].isCollectionType() || updatable != null && !updatable[i] || i == contentHashIndex) {
+        kinds[i] = Kind.SKIP;
+      } else if (i == identityIndex) {
+        kinds[i] = Kind.IDENTITY;
+        identityType = types[i].getReturnedClass();
+      } else if (i == archivedIndex) {
+        kinds[i] = Kind.ARCHIVED;
+      } else if (types[i].isEntityType()) {
+        kinds[i] = Kind.ENTITY_FK;
+      } else if (types[i].isComponentType()) {
+        kinds[i] = Kind.EMBEDDABLE;
+        componentTypes[i] = (ComponentType) types[i];
+        componentPlans[i] = new DirtyCheckPlan(componentTypes[i].getSubtypes(), null,
+            componentTypes[i].getPropertyNames(), -1, -1, -1);
+      } else if (types[i].getReturnedClass() == BigDecimal.class) {
+        kinds[i] = Kind.BIG_DECIMAL;
+      } else {
+        kinds[i] = Kind.EQUALS;
+      }
+    }
+    this.identityType = identityType;
+  }
+
+  /**
+   * Build the plan for the given entity.
+   *
+   * @param ep               the entity persister
+   * @param identityIndex    the index of the identity property or -1
+   * @param archivedIndex    the index of the archived property or -1
+   * @param contentHashIndex the index of the content hash property or -1
+   * @return the plan
+   */
+  static DirtyCheckPlan of(EntityPersister ep, int identityIndex, int archivedIndex, int contentHashIndex) {
+    return new DirtyCheckPlan(ep.getPropertyTypes(), ep.getPropertyUpdateability(), ep.getPropertyNames(),
+        identityIndex, archivedIndex, contentHashIndex);
+  }
+}
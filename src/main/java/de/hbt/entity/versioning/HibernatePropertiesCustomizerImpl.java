@@ -2,7 +2,15 @@ package de.hbt.entity.versioning;
 
 import java.util.*;
 
+import org.hibernate.boot.*;
 import org.hibernate.cfg.*;
+import org.hibernate.engine.spi.*;
+import org.hibernate.event.service.spi.*;
+import org.hibernate.event.spi.*;
+import org.hibernate.integrator.spi.*;
+import org.hibernate.jpa.boot.internal.*;
+import org.hibernate.jpa.boot.spi.*;
+import org.hibernate.service.spi.*;
 import org.springframework.beans.factory.annotation.*;
 import org.springframework.boot.autoconfigure.orm.jpa.*;
 import org.springframework.stereotype.*;
@@ -21,9 +29,40 @@ class HibernatePropertiesCustomizerImpl implements HibernatePropertiesCustomizer
   @Autowired
   private VersioningInterceptor versioningInterceptor;
 
+  @Autowired
+  private ArchivedReadOnlyListener archivedReadOnlyListener;
+
+  @Autowired
+  private VersioningProperties properties;
+
   @Override
   public void customize(Map<String, Object> hibernateProperties) {
     /* As the interceptor as Spring bean */
     hibernateProperties.put(AvailableSettings.INTERCEPTOR, versioningInterceptor);
+    if (!properties.isReadOnlyArchivedVersions())
+      return;
+    /*
+     * Register the post-load listener (also a Spring bean) via an integrator, keeping the integrators of an already
+     * configured provider
+     */
+    List<Integrator> integrators = new ArrayList<>();
+    Object existingProvider = hibernateProperties.get(EntityManagerFactoryBuilderImpl.INTEGRATOR_PROVIDER);
+    if (existingProvider instanceof IntegratorProvider)
+      integrators.addAll(((IntegratorProvider) existingProvider).getIntegrators());
+    integrators.add(new Integrator() {
+      @Override
+      public void integrate(Metadata metadata, SessionFactoryImplementor sessionFactory,
+          SessionFactoryServiceRegistry serviceRegistry) {
+        serviceRegistry.getService(EventListenerRegistry.class).appendListeners(EventType.POST_LOAD,
+            archivedReadOnlyListener);
+      }
+
+      @Override
+      public void disintegrate(SessionFactoryImplementor sessionFactory,
+          SessionFactoryServiceRegistry serviceRegistry) {
+      }
+    });
+    hibernateProperties.put(EntityManagerFactoryBuilderImpl.INTEGRATOR_PROVIDER,
+        (IntegratorProvider) () -> integrators);
   }
 }
@@ -1,17 +1,19 @@
 package de.hbt.entity.versioning;
 
+import static de.hbt.entity.versioning.Accessors.*;
 import static de.hbt.entity.versioning.ClassUtils.*;
-import static de.hbt.entity.versioning.VersioningContext.*;
 
 import java.io.*;
 import java.lang.annotation.*;
 import java.lang.reflect.*;
 import java.math.*;
 import java.util.*;
+import java.util.function.*;
 
 import javax.persistence.*;
 import javax.persistence.metamodel.*;
 
+import org.springframework.beans.factory.*;
 import org.springframework.beans.factory.annotation.*;
 import org.springframework.context.annotation.*;
 import org.springframework.stereotype.*;
@@ -20,7 +22,7 @@ import de.hbt.entity.versioning.Association.*;
 import de.hbt.entity.versioning.annotations.*;
 import de.hbt.entity.versioning.annotations.Version;
 import de.hbt.entity.versioning.exception.*;
-import lombok.*;
+import lombok.extern.slf4j.*;
 
 /**
  * Computes and holds information about the entity metamodel used for the versioning system.
@@ -30,8 +32,8 @@ import lombok.*;
  * sub-packages!</em>
  */
 @Component
-@Data
-class MetaModel {
+@Slf4j
+class MetaModel implements SmartInitializingSingleton, BeanClassLoaderAware {
 
   static class ClassMetaModel {
     /**
@@ -42,62 +44,117 @@ class MetaModel {
      * All outgoing associations from this class (i.e. where this class is the start of the directed association).
      */
     Map<String, Association> outgoingAssociations = new HashMap<>();
+    /** All outgoing associations from this class whose reverse references can be kept in the reference index. */
+    List<Association> referenceIndexedAssociations = new ArrayList<>();
     /** The field that holds the initially creating user. */
     String creatingUserField;
 
-    Method creatingUserSetter;
-    Method creatingUserGetter;
+    BiConsumer<Object, Object> creatingUserSetter;
+    Function<Object, Object> creatingUserGetter;
     /** The field that holds the updating user. */
     String modifyingUserField;
 
-    Method modifyingUserSetter;
-    Method modifyingUserGetter;
+    BiConsumer<Object, Object> modifyingUserSetter;
+    Function<Object, Object> modifyingUserGetter;
     /** The field that holds the date/time of the initial version. */
     String creationDateField;
 
-    Method creationDateSetter;
-    Method creationDateGetter;
+    BiConsumer<Object, Object> creationDateSetter;
+    Function<Object, Object> creationDateGetter;
     /** The field that holds the modification date. */
     String modificationDateField;
 
-    Method modificationDateSetter;
-    Method modificationDateGetter;
+    BiConsumer<Object, Object> modificationDateSetter;
+    Function<Object, Object> modificationDateGetter;
     /** The field that holds whether the entity was softly deleted. */
     String softDeletedField;
 
-    Method softDeletedSetter;
-    Method softDeletedGetter;
+    BiConsumer<Object, Object> softDeletedSetter;
+    Predicate<Object> softDeletedGetter;
     /**
      * The field that holds whether the entity is archived (i.e. whether a newer version of that entity exists).
      */
     String archivedField;
 
-    Method archivedSetter;
-    Method archivedGetter;
+    BiConsumer<Object, Object> archivedSetter;
+    Predicate<Object> archivedGetter;
     /** The field/setter/getter of the identity of a versioned entity. */
     String identityField;
 
-    Method identitySetter;
-    Method identityGetter;
+    BiConsumer<Object, Object> identitySetter;
+    Function<Object, Object> identityGetter;
+    Class<?> identityType;
     Identity identityAnnotation;
     /** The field/setter/getter of the id of an entity. */
     String idField;
 
-    Method idSetter;
-    Method idGetter;
+    BiConsumer<Object, Object> idSetter;
+    Function<Object, Object> idGetter;
     /** The field/setter/getter of the version of a versioned entity. */
     String versionField;
 
-    Method versionSetter;
-    Method versionGetter;
+    ObjLongConsumer<Object> versionSetter;
+    ToLongFunction<Object> versionGetter;
+    /** The field/setter of the content hash of a versioned entity. */
+    String contentHashField;
+
+    BiConsumer<Object, Object> contentHashSetter;
+    /*
+     * The indexes of the above fields in the Hibernate property values / state array of the entity's EntityPersister or
+     * -1 if the entity has no such field.
+     */
+    int creatingUserIndex = -1;
+    int modifyingUserIndex = -1;
+    int creationDateIndex = -1;
+    int modificationDateIndex = -1;
+    int softDeletedIndex = -1;
+    int archivedIndex = -1;
+    int identityIndex = -1;
+    int versionIndex = -1;
+    int contentHashIndex = -1;
+    /**
+     * The HQL statement setting the archived flag of all live versions with the ids given as parameter
+     * <code>ids</code> or <code>null</code> if the entity has no archived field.
+     */
+    String archiveStatement;
+    /**
+     * The query loading the database snapshots of many entities at once or <code>null</code> if they have to be loaded
+     * one by one.
+     */
+    SnapshotQuery snapshotQuery;
+    /** How to compare each property with its database snapshot value when checking the entity for modifications. */
+    DirtyCheckPlan dirtyCheckPlan;
+    /** Computes the content hash or <code>null</code> if the entity has no content hash field. */
+    ContentHasher contentHasher;
+    /** The indexes of all collection-valued properties of the entity. */
+    int[] collectionIndexes = new int[0];
     /** Whether the entity type is versioned. */
     boolean versioned;
   }
 
   /**
-   * Keeps the meta-models of all associations indexed by referenced class (the end of the directed association).
+   * The annotations marking versioning-relevant fields. When a field has more than one of them, the first one wins.
+   */
+  private static final List<Class<? extends Annotation>> FIELD_ANNOTATIONS = Collections
+      .unmodifiableList(Arrays.asList(CreatingUser.class, ModifyingUser.class, Id.class, CreationDate.class,
+          ModificationDate.class, SoftDeleted.class, Archived.class, Version.class, Identity.class,
+          ContentHash.class));
+
+  /**
+   * The meta-model of all entities.
+   *
+   * <p>
+   * This is an immutable snapshot which is built once (preferably eagerly at application startup via
+   * {@link #afterSingletonsInstantiated()}) and then safely published via this volatile field, so that lookups need not
+   * take any locks.
+   */
+  private volatile Snapshot snapshot;
+
+  /**
+   * The invalid mapping found by the first attempt to build the meta-model, which is rethrown on every subsequent
+   * request instead of repeating the build. This is only accessed while holding the lock of this {@link MetaModel}.
    */
-  private Map<Class<?>, ClassMetaModel> classMetaModels;
+  private InvalidMappingException invalidMapping;
 
   /**
    * Inject the EntityManager lazily, because it is being built BEFORE this {@link MetaModel} class, which is a
@@ -107,15 +164,67 @@ class MetaModel {
   @Lazy
   private EntityManager entityManager;
 
-  private ClassMetaModel classMetaModelOf(Class<?> clazz) {
-    if (classMetaModels == null) {
-      try {
-        buildMetaModel();
-      } catch (Exception e) {
-        throw new AssertionError("Could not build JPA meta model", e);
+  /** The class loader to find the descriptors of the {@link MetaModelDescriptor} with. */
+  private ClassLoader beanClassLoader = MetaModel.class.getClassLoader();
+
+  @Override
+  public void setBeanClassLoader(ClassLoader classLoader) {
+    beanClassLoader = classLoader;
+  }
+
+  /**
+   * Eagerly build the meta-model once all singletons (including the JPA EntityManagerFactory) have been created, so
+   * that the first flush does not have to pay for scanning all entities and so that invalid mappings fail the
+   * application startup.
+   */
+  @Override
+  public void afterSingletonsInstantiated() {
+    snapshot();
+  }
+
+  /**
+   * Get the snapshot of the meta-model, building it if that did not happen yet.
+   *
+   * <p>
+   * The meta-model can still be requested before {@link #afterSingletonsInstantiated()} was called (e.g. when entities
+   * are persisted in some bean initialization method), so guard the build to only happen once. An invalid mapping is
+   * rethrown on every request, whereas any other failure is not remembered, so that the build is attempted again.
+   */
+  private Snapshot snapshot() {
+    Snapshot result = snapshot;
+    if (result != null)
+      return result;
+    synchronized (this) {
+      if (snapshot == null) {
+        if (invalidMapping != null)
+          throw invalidMapping;
+        try {
+          snapshot = buildSnapshot();
+        } catch (InvalidMappingException e) {
+          invalidMapping = e;
+          throw e;
+        }
       }
+      return snapshot;
     }
-    return classMetaModels.get(clazz);
+  }
+
+  private Map<Class<?>, ClassMetaModel> classMetaModels() {
+    return snapshot().classMetaModels;
+  }
+
+  private ClassMetaModel classMetaModelOf(Class<?> clazz) {
+    return classMetaModels().get(clazz);
+  }
+
+  /**
+   * Get all classes known to the meta-model, i.e. all entity classes and all classes referenced by associations for
+   * which new versions are cascaded.
+   *
+   * @return the classes
+   */
+  public Set<Class<?>> getClasses() {
+    return classMetaModels().keySet();
   }
 
   /**
@@ -134,6 +243,33 @@ class MetaModel {
     return associations;
   }
 
+  /**
+   * Get the outgoing associations of the given class whose reverse references can be kept in the reference index.
+   *
+   * @param clazz the referencing entity type
+   * @return the associations
+   */
+  public List<Association> getReferenceIndexedAssociations(Class<?> clazz) {
+    ClassMetaModel classMetaModel = classMetaModelOf(findNonProxyClass(clazz));
+    if (classMetaModel == null)
+      return Collections.emptyList();
+    return classMetaModel.referenceIndexedAssociations;
+  }
+
+  /**
+   * Whether new versions are cascaded over any association later by the {@link DeferredCascadeWorker}.
+   *
+   * @return <code>true</code> if any association is deferred
+   */
+  public boolean hasDeferredCascades() {
+    for (ClassMetaModel classMetaModel : classMetaModels().values()) {
+      for (Association association : classMetaModel.incomingAssociations)
+        if (association.isCascadeDeferred())
+          return true;
+    }
+    return false;
+  }
+
   /**
    * Find the outgoing association with the given name in the given class.
    *
@@ -189,76 +325,397 @@ class MetaModel {
   /**
    * Build a meta-model of the entities with their important associations and fields for all JPA entities.
    *
-   * @param entityManager the {@link EntityManager}
+   * @return the meta-model
    */
-  public void buildMetaModel() {
-    classMetaModels = new IdentityHashMap<>();
+  private Snapshot buildSnapshot() {
+    Map<Class<?>, ClassMetaModel> models = new IdentityHashMap<>();
+    org.hibernate.metamodel.spi.MetamodelImplementor hibernateMetamodel = entityManager.getEntityManagerFactory()
+        .unwrap(org.hibernate.engine.spi.SessionFactoryImplementor.class).getMetamodel();
+    /* Use the descriptor precomputed at compile time, if there is one */
+    MetaModelDescriptor descriptor = MetaModelDescriptor.load(beanClassLoader);
     Set<EntityType<?>> entities = entityManager.getMetamodel().getEntities();
+    List<String> problems = new ArrayList<>();
+    Throwable firstCause = null;
     for (EntityType<?> entity : entities) {
       Class<?> clazz = findNonProxyClass(entity.getJavaType());
-      ClassMetaModel classMetaModel = classMetaModels.computeIfAbsent(clazz, c -> new ClassMetaModel());
-      /* Identify associations using JPA Attributes on the EntityType */
-      for (Attribute<?, ?> a : entity.getAttributes()) {
-        if (a.isAssociation()) {
-          /* It is an entity association (either to-one or to-many) */
-          handleAssociation(clazz, classMetaModel, a);
-        } else if (!a.isCollection()) {
-          /* It is a primitive attribute */
-          handlePrimitive(clazz, classMetaModel);
+      ClassMetaModel classMetaModel = models.computeIfAbsent(clazz, c -> new ClassMetaModel());
+      MetaModelDescriptor entityDescriptor = descriptor != null && descriptor.describes(clazz) ? descriptor : null;
+      if (entityDescriptor != null && !entityDescriptor.matches(clazz, entity)) {
+        log.warn("Entity versioning descriptor of [{}] is stale, so its fields are scanned instead", clazz.getName());
+        entityDescriptor = null;
+      }
+      org.hibernate.persister.entity.EntityPersister ep = hibernateMetamodel.entityPersister(clazz);
+      try {
+        boolean hasPrimitives = false;
+        /* Identify associations using JPA Attributes on the EntityType */
+        for (Attribute<?, ?> a : entity.getAttributes()) {
+          if (a.isAssociation()) {
+            /* It is an entity association (either to-one or to-many) */
+            handleAssociation(models, clazz, classMetaModel, a, entityDescriptor);
+          } else if (!a.isCollection()) {
+            /* It is a primitive attribute */
+            hasPrimitives = true;
+          }
+        }
+        if (hasPrimitives) {
+          if (entityDescriptor != null)
+            handlePrimitive(clazz, classMetaModel, entityDescriptor);
+          else
+            handlePrimitive(clazz, classMetaModel);
+        }
+        resolvePropertyIndexes(classMetaModel, entity, ep);
+        classMetaModel.snapshotQuery = SnapshotQuery.of(ep);
+        classMetaModel.dirtyCheckPlan = DirtyCheckPlan.of(ep, classMetaModel.identityIndex,
+            classMetaModel.archivedIndex, classMetaModel.contentHashIndex);
+        if (classMetaModel.contentHashIndex != -1)
+          classMetaModel.contentHasher = ContentHasher.of(classMetaModel.dirtyCheckPlan,
+              classMetaModel.modifyingUserIndex, classMetaModel.modificationDateIndex);
+      } catch (VersioningException e) {
+        problems.add("[" + clazz.getName() + "]: " + e.getMessage());
+        if (firstCause == null)
+          firstCause = e;
+      }
+    }
+    /* Validate all entities, now that all associations (and thus identity entities) are known */
+    for (EntityType<?> entity : entities) {
+      Class<?> clazz = findNonProxyClass(entity.getJavaType());
+      validate(clazz, models.get(clazz), hibernateMetamodel.entityPersister(clazz), models, problems);
+    }
+    if (!problems.isEmpty())
+      throw new InvalidMappingException(
+          "Invalid versioning mapping of entities:\n  " + String.join("\n  ", problems), firstCause);
+    prepareQueries(models, hibernateMetamodel);
+    Map<String, Association> associationsByRole = indexAssociationsByRole(models, hibernateMetamodel);
+    Set<String> versionedCollectionRoles = versionedCollectionRoles(models, hibernateMetamodel);
+    if (log.isDebugEnabled()) {
+      for (EntityType<?> entity : entities) {
+        Class<?> clazz = findNonProxyClass(entity.getJavaType());
+        log.debug(summaryOf(clazz, models.get(clazz)));
+      }
+    }
+    log.info("Built versioning meta-model of {} entities", entities.size());
+    for (ClassMetaModel classMetaModel : models.values()) {
+      classMetaModel.incomingAssociations = Collections.unmodifiableList(classMetaModel.incomingAssociations);
+      classMetaModel.outgoingAssociations = Collections.unmodifiableMap(classMetaModel.outgoingAssociations);
+      classMetaModel.referenceIndexedAssociations = Collections
+          .unmodifiableList(classMetaModel.referenceIndexedAssociations);
+    }
+    return new Snapshot(models, associationsByRole, versionedCollectionRoles);
+  }
+
+  /**
+   * Check the versioning-relevant fields of the given entity against its Hibernate mapping, so that mistakes surface at
+   * startup instead of in the middle of a flush.
+   */
+  private static void validate(Class<?> clazz, ClassMetaModel classMetaModel,
+      org.hibernate.persister.entity.EntityPersister ep, Map<Class<?>, ClassMetaModel> models,
+      List<String> problems) {
+    String prefix = "[" + clazz.getName() + "]: ";
+    String[][] fieldsAndIndexes = { { classMetaModel.creatingUserField, "@CreatingUser" },
+        { classMetaModel.modifyingUserField, "@ModifyingUser" },
+        { classMetaModel.creationDateField, "@CreationDate" },
+        { classMetaModel.modificationDateField, "@ModificationDate" },
+        { classMetaModel.softDeletedField, "@SoftDeleted" }, { classMetaModel.archivedField, "@Archived" },
+        { classMetaModel.identityField, "@Identity" }, { classMetaModel.versionField, "@Version" },
+        { classMetaModel.contentHashField, "@ContentHash" } };
+    int[] indexes = { classMetaModel.creatingUserIndex, classMetaModel.modifyingUserIndex,
+        classMetaModel.creationDateIndex, classMetaModel.modificationDateIndex, classMetaModel.softDeletedIndex,
+        classMetaModel.archivedIndex, classMetaModel.identityIndex, classMetaModel.versionIndex,
+        classMetaModel.contentHashIndex };
+    for (int i = 0; i < indexes.length; i++) {
+      if (fieldsAndIndexes[i][0] != null && indexes[i] == -1)
+        problems.add(prefix + fieldsAndIndexes[i][1] + " field [" + fieldsAndIndexes[i][0]
+            + "] is not a persistent property");
+    }
+    if (classMetaModel.versioned && classMetaModel.archivedField == null)
+      problems.add(prefix + "versioned entity has no @Archived field");
+    if (!classMetaModel.versioned && classMetaModel.contentHashField != null)
+      problems.add(
+          prefix + "@ContentHash field [" + classMetaModel.contentHashField + "] on an entity without @Version");
+    if (classMetaModel.archivedIndex != -1 && ep.getPropertyUpdateability()[classMetaModel.archivedIndex])
+      problems.add(prefix + "@Archived field [" + classMetaModel.archivedField
+          + "] must not be updatable (use @Column(updatable = false))");
+    if (classMetaModel.identityField != null) {
+      if (classMetaModel.identityType == Long.class) {
+        if (classMetaModel.identityAnnotation.sequence().isEmpty())
+          problems.add(prefix + "@Identity field [" + classMetaModel.identityField + "] has no sequence");
+      } else if (!models.containsKey(classMetaModel.identityType)) {
+        problems.add(prefix + "@Identity field [" + classMetaModel.identityField
+            + "] must be of type Long or an entity, but is [" + classMetaModel.identityType.getName() + "]");
+      } else {
+        try {
+          classMetaModel.identityType.getDeclaredConstructor();
+        } catch (NoSuchMethodException e) {
+          problems.add(prefix + "@Identity entity [" + classMetaModel.identityType.getName()
+              + "] has no no-arg constructor");
         }
       }
     }
   }
 
-  private void handlePrimitive(Class<?> clazz, ClassMetaModel classMetaModel) {
+  /**
+   * Render the precomputed versioning plan of the given entity in a single line.
+   */
+  private static String summaryOf(Class<?> clazz, ClassMetaModel classMetaModel) {
+    StringBuilder sb = new StringBuilder(clazz.getName()).append(": ");
+    sb.append(classMetaModel.versioned ? "versioned" : "not versioned");
+    appendField(sb, "version", classMetaModel.versionField, classMetaModel.versionIndex);
+    appendField(sb, "archived", classMetaModel.archivedField, classMetaModel.archivedIndex);
+    appendField(sb, "identity", classMetaModel.identityField, classMetaModel.identityIndex);
+    appendField(sb, "softDeleted", classMetaModel.softDeletedField, classMetaModel.softDeletedIndex);
+    appendField(sb, "creatingUser", classMetaModel.creatingUserField, classMetaModel.creatingUserIndex);
+    appendField(sb, "modifyingUser", classMetaModel.modifyingUserField, classMetaModel.modifyingUserIndex);
+    appendField(sb, "creationDate", classMetaModel.creationDateField, classMetaModel.creationDateIndex);
+    appendField(sb, "modificationDate", classMetaModel.modificationDateField, classMetaModel.modificationDateIndex);
+    appendField(sb, "contentHash", classMetaModel.contentHashField, classMetaModel.contentHashIndex);
+    sb.append(", collections=").append(classMetaModel.collectionIndexes.length);
+    sb.append(", cascading from ").append(classMetaModel.incomingAssociations.size()).append(" associations");
+    return sb.toString();
+  }
+
+  private static void appendField(StringBuilder sb, String kind, String field, int index) {
+    if (field != null)
+      sb.append(", ").append(kind).append('=').append(field).append('#').append(index);
+  }
+
+  /**
+   * Build the queries used when archiving an entity and when looking up the owners of an entity (with or without the
+   * reference index) once, so that the versioning does not have to concatenate them for every new version. The queries
+   * use the Hibernate entity names, which are unique (unlike the simple class names).
+   */
+  private static void prepareQueries(Map<Class<?>, ClassMetaModel> models,
+      org.hibernate.metamodel.spi.MetamodelImplementor hibernateMetamodel) {
+    for (Map.Entry<Class<?>, ClassMetaModel> e : models.entrySet()) {
+      ClassMetaModel classMetaModel = e.getValue();
+      if (classMetaModel.archivedField == null)
+        continue;
+      String entityName = hibernateMetamodel.entityPersister(e.getKey()).getEntityName();
+      classMetaModel.archiveStatement = "UPDATE " + entityName + " SET " + classMetaModel.archivedField
+          + " = TRUE WHERE id IN (:ids) AND " + classMetaModel.archivedField + " = FALSE";
+    }
+    for (Map.Entry<Class<?>, ClassMetaModel> e : models.entrySet()) {
+      String targetEntityName = longIdEntityName(e.getKey(), hibernateMetamodel);
+      for (Association association : e.getValue().incomingAssociations) {
+        /* The deferred cascades are queued by the numeric id of the referenced entity (see DeferredCascadeQueue) */
+        if (association.isCascadeDeferred() && targetEntityName == null) {
+          log.warn("Cascading new versions of [{}] immediately to [{}.{}], because it has no Long id",
+              e.getKey().getName(), association.getOwner().getName(), association.getName());
+          association.setCascadeDeferred(false);
+        }
+        ClassMetaModel ownerMetaModel = models.get(association.getOwner());
+        org.hibernate.persister.entity.EntityPersister ownerPersister = hibernateMetamodel
+            .entityPersister(association.getOwner());
+        String entityName = ownerPersister.getEntityName();
+        String liveCondition = ownerMetaModel.versioned ? " AND o." + ownerMetaModel.archivedField + " = FALSE" : "";
+        if (association.getKind() == Kind.SINGULAR)
+          association.setOwnerQuery("SELECT o, o." + association.getName() + ".id FROM " + entityName + " o WHERE o."
+              + association.getName() + ".id IN (:ids)" + liveCondition);
+        else
+          association.setOwnerQuery("SELECT o, r.id FROM " + entityName + " o JOIN o." + association.getName()
+              + " r WHERE r.id IN (:ids)" + liveCondition);
+        /*
+         * The reverse references of versioned owners can be indexed (see ReferenceIndex), as long as both ends have
+         * numeric ids
+         */
+        if (targetEntityName != null && ownerMetaModel.versioned
+            && longIdEntityName(association.getOwner(), hibernateMetamodel) != null) {
+          association.setReferenceIndexTargetType(targetEntityName);
+          association.setReferenceIndexOwnerType(entityName);
+          String typeCondition = ownerPersister.getEntityMetamodel().hasSubclasses()
+              ? " AND TYPE(o) = " + entityName
+              : "";
+          association.setReferenceIndexRebuildQuery("SELECT o.id, r.id FROM " + entityName + " o JOIN o."
+              + association.getName() + " r WHERE o." + ownerMetaModel.archivedField + " = FALSE" + typeCondition);
+          ownerMetaModel.referenceIndexedAssociations.add(association);
+        }
+      }
+    }
+  }
+
+  /**
+   * Get the entity name of the given class for the reference index and the deferred cascades.
+   *
+   * @return the entity name or <code>null</code> if the class is no entity with a {@link Long} id
+   */
+  private static String longIdEntityName(Class<?> clazz,
+      org.hibernate.metamodel.spi.MetamodelImplementor hibernateMetamodel) {
+    org.hibernate.persister.entity.EntityPersister ep;
+    try {
+      ep = hibernateMetamodel.entityPersister(clazz);
+    } catch (org.hibernate.MappingException e) {
+      return null;
+    }
+    return ep.getIdentifierType().getReturnedClass() == Long.class ? ep.getEntityName() : null;
+  }
+
+  /**
+   * Index all collection associations for which new versions are cascaded by the role of their Hibernate
+   * CollectionPersister, so that a PersistentCollection can be classified with a single lookup.
+   */
+  private static Map<String, Association> indexAssociationsByRole(Map<Class<?>, ClassMetaModel> models,
+      org.hibernate.metamodel.spi.MetamodelImplementor hibernateMetamodel) {
+    Map<String, Association> associations = new HashMap<>();
+    for (org.hibernate.persister.collection.CollectionPersister cp : hibernateMetamodel.collectionPersisters()
+        .values()) {
+      org.hibernate.persister.entity.EntityPersister owner = cp.getOwnerEntityPersister();
+      ClassMetaModel ownerMetaModel = models.get(findNonProxyClass(owner.getMappedClass()));
+      if (ownerMetaModel == null)
+        continue;
+      /* The role name is the entity name of the owner + "." + the property name */
+      String role = cp.getRole();
+      if (!role.startsWith(owner.getEntityName() + "."))
+        continue;
+      String propertyName = role.substring(owner.getEntityName().length() + 1);
+      Association association = ownerMetaModel.outgoingAssociations.get(propertyName);
+      if (association != null)
+        associations.put(role, association);
+    }
+    return associations;
+  }
+
+  /**
+   * Collect the roles of all collections owned by a versioned entity.
+   */
+  private static Set<String> versionedCollectionRoles(Map<Class<?>, ClassMetaModel> models,
+      org.hibernate.metamodel.spi.MetamodelImplementor hibernateMetamodel) {
+    Set<String> roles = new HashSet<>();
+    for (org.hibernate.persister.collection.CollectionPersister cp : hibernateMetamodel.collectionPersisters()
+        .values()) {
+      ClassMetaModel ownerMetaModel = models.get(findNonProxyClass(cp.getOwnerEntityPersister().getMappedClass()));
+      if (ownerMetaModel != null && ownerMetaModel.versioned)
+        roles.add(cp.getRole());
+    }
+    return roles;
+  }
+
+  /**
+   * Resolve the indexes of all versioning-relevant fields in the property values / state arrays of the given
+   * {@link org.hibernate.persister.entity.EntityPersister} once, so that writing into the state array does not need any
+   * lookups.
+   */
+  private static void resolvePropertyIndexes(ClassMetaModel classMetaModel, EntityType<?> entity,
+      org.hibernate.persister.entity.EntityPersister ep) {
+    String[] propertyNames = ep.getPropertyNames();
+    classMetaModel.creatingUserIndex = propertyIndex(propertyNames, classMetaModel.creatingUserField);
+    classMetaModel.modifyingUserIndex = propertyIndex(propertyNames, classMetaModel.modifyingUserField);
+    classMetaModel.creationDateIndex = propertyIndex(propertyNames, classMetaModel.creationDateField);
+    classMetaModel.modificationDateIndex = propertyIndex(propertyNames, classMetaModel.modificationDateField);
+    classMetaModel.softDeletedIndex = propertyIndex(propertyNames, classMetaModel.softDeletedField);
+    classMetaModel.archivedIndex = propertyIndex(propertyNames, classMetaModel.archivedField);
+    classMetaModel.identityIndex = propertyIndex(propertyNames, classMetaModel.identityField);
+    classMetaModel.versionIndex = propertyIndex(propertyNames, classMetaModel.versionField);
+    classMetaModel.contentHashIndex = propertyIndex(propertyNames, classMetaModel.contentHashField);
+    classMetaModel.collectionIndexes = entity.getPluralAttributes().stream()
+        .mapToInt(pa -> propertyIndex(propertyNames, pa.getName())).toArray();
+  }
+
+  /**
+   * Find the index of the property with the given name inside of the given properties array.
+   *
+   * @param names the entity's property names
+   * @param name  the name of the searched property (may be <code>null</code>)
+   * @return the index of the name or -1 if not found
+   */
+  private static int propertyIndex(String[] names, String name) {
+    if (name == null)
+      return -1;
+    for (int i = 0; i < names.length; i++)
+      if (name.equals(names[i]))
+        return i;
+    return -1;
+  }
+
+  /**
+   * Scan all fields of the given entity class and its super classes for the versioning annotations.
+   */
+  private static void handlePrimitive(Class<?> clazz, ClassMetaModel classMetaModel) {
     Class<?> currentClass = clazz;
     while (currentClass != null) {
       Field[] fields = currentClass.getDeclaredFields();
       for (Field f : fields) {
-        if (f.isAnnotationPresent(CreatingUser.class)) {
-          classMetaModel.creatingUserField = f.getName();
-          classMetaModel.creatingUserSetter = findSetter(f);
-          classMetaModel.creatingUserGetter = findGetter(f);
-        } else if (f.isAnnotationPresent(ModifyingUser.class)) {
-          classMetaModel.modifyingUserField = f.getName();
-          classMetaModel.modifyingUserSetter = findSetter(f);
-          classMetaModel.modifyingUserGetter = findGetter(f);
-        } else if (f.isAnnotationPresent(Id.class)) {
-          classMetaModel.idField = f.getName();
-          classMetaModel.idSetter = findSetter(f);
-          classMetaModel.idGetter = findGetter(f);
-        } else if (f.isAnnotationPresent(CreationDate.class)) {
-          classMetaModel.creationDateField = f.getName();
-          classMetaModel.creationDateSetter = findSetter(f);
-          classMetaModel.creationDateGetter = findGetter(f);
-        } else if (f.isAnnotationPresent(ModificationDate.class)) {
-          classMetaModel.modificationDateField = f.getName();
-          classMetaModel.modificationDateSetter = findSetter(f);
-          classMetaModel.modificationDateGetter = findGetter(f);
-        } else if (f.isAnnotationPresent(SoftDeleted.class)) {
-          classMetaModel.softDeletedField = f.getName();
-          classMetaModel.softDeletedSetter = findSetter(f);
-          classMetaModel.softDeletedGetter = findGetter(f);
-        } else if (f.isAnnotationPresent(Archived.class)) {
-          classMetaModel.archivedField = f.getName();
-          classMetaModel.archivedSetter = findSetter(f);
-          classMetaModel.archivedGetter = findGetter(f);
-        } else if (f.isAnnotationPresent(Version.class)) {
-          classMetaModel.versionField = f.getName();
-          classMetaModel.versionSetter = findSetter(f);
-          classMetaModel.versionGetter = findGetter(f);
-          classMetaModel.versioned = true;
-        } else if (f.isAnnotationPresent(Identity.class)) {
-          classMetaModel.identityField = f.getName();
-          classMetaModel.identitySetter = findSetter(f);
-          classMetaModel.identityGetter = findGetter(f);
-          classMetaModel.identityAnnotation = f.getAnnotation(Identity.class);
+        for (Class<? extends Annotation> annotationType : FIELD_ANNOTATIONS) {
+          if (f.isAnnotationPresent(annotationType)) {
+            handleAnnotatedField(classMetaModel, f, annotationType);
+            break;
+          }
         }
       }
       currentClass = currentClass.getSuperclass();
     }
   }
 
+  /**
+   * Use the fields of the given entity class precomputed at compile time instead of scanning all fields.
+   */
+  private static void handlePrimitive(Class<?> clazz, ClassMetaModel classMetaModel, MetaModelDescriptor descriptor) {
+    for (Class<? extends Annotation> annotationType : FIELD_ANNOTATIONS) {
+      Field f = descriptor.annotatedField(clazz, annotationType);
+      if (f != null)
+        handleAnnotatedField(classMetaModel, f, annotationType);
+    }
+  }
+
+  private static void handleAnnotatedField(ClassMetaModel classMetaModel, Field f,
+      Class<? extends Annotation> annotationType) {
+    if (annotationType == CreatingUser.class) {
+      classMetaModel.creatingUserField = f.getName();
+      classMetaModel.creatingUserSetter = setter(findSetter(f));
+      classMetaModel.creatingUserGetter = getter(findGetter(f));
+    } else if (annotationType == ModifyingUser.class) {
+      classMetaModel.modifyingUserField = f.getName();
+      classMetaModel.modifyingUserSetter = setter(findSetter(f));
+      classMetaModel.modifyingUserGetter = getter(findGetter(f));
+    } else if (annotationType == Id.class) {
+      classMetaModel.idField = f.getName();
+      classMetaModel.idSetter = setter(findSetter(f));
+      classMetaModel.idGetter = getter(findGetter(f));
+    } else if (annotationType == CreationDate.class) {
+      classMetaModel.creationDateField = f.getName();
+      classMetaModel.creationDateSetter = setter(findSetter(f));
+      classMetaModel.creationDateGetter = getter(findGetter(f));
+    } else if (annotationType == ModificationDate.class) {
+      classMetaModel.modificationDateField = f.getName();
+      classMetaModel.modificationDateSetter = setter(findSetter(f));
+      classMetaModel.modificationDateGetter = getter(findGetter(f));
+    } else if (annotationType == SoftDeleted.class) {
+      requireType(f, annotationType, boolean.class, Boolean.class);
+      classMetaModel.softDeletedField = f.getName();
+      classMetaModel.softDeletedSetter = setter(findSetter(f));
+      classMetaModel.softDeletedGetter = booleanGetter(findGetter(f));
+    } else if (annotationType == Archived.class) {
+      requireType(f, annotationType, boolean.class, Boolean.class);
+      classMetaModel.archivedField = f.getName();
+      classMetaModel.archivedSetter = setter(findSetter(f));
+      classMetaModel.archivedGetter = booleanGetter(findGetter(f));
+    } else if (annotationType == Version.class) {
+      requireType(f, annotationType, long.class, Long.class);
+      classMetaModel.versionField = f.getName();
+      classMetaModel.versionSetter = longSetter(findSetter(f));
+      classMetaModel.versionGetter = longGetter(findGetter(f));
+      classMetaModel.versioned = true;
+    } else if (annotationType == Identity.class) {
+      classMetaModel.identityField = f.getName();
+      classMetaModel.identitySetter = setter(findSetter(f));
+      classMetaModel.identityGetter = getter(findGetter(f));
+      classMetaModel.identityType = f.getType();
+      classMetaModel.identityAnnotation = f.getAnnotation(Identity.class);
+    } else if (annotationType == ContentHash.class) {
+      if (f.getType() != String.class)
+        throw new InvalidMappingException("@ContentHash field [" + f.getName() + "] must be of type String, but is ["
+            + f.getType().getName() + "]", null);
+      classMetaModel.contentHashField = f.getName();
+      classMetaModel.contentHashSetter = setter(findSetter(f));
+    }
+  }
+
+  private static void requireType(Field f, Class<? extends Annotation> annotationType, Class<?> primitiveType,
+      Class<?> wrapperType) {
+    if (f.getType() != primitiveType && f.getType() != wrapperType)
+      throw new InvalidMappingException("@" + annotationType.getSimpleName() + " field [" + f.getName()
+          + "] must be of type " + primitiveType.getName() + " or " + wrapperType.getSimpleName() + ", but is ["
+          + f.getType().getName() + "]", null);
+  }
+
   private static boolean hasPersistOrMerge(ManyToOne annot) {
     if (annot == null)
       return false;
@@ -277,11 +734,15 @@ class MetaModel {
     return false;
   }
 
-  private void handleAssociation(Class<?> clazz, ClassMetaModel classMetaModel, Attribute<?, ?> a) {
+  private void handleAssociation(Map<Class<?>, ClassMetaModel> models, Class<?> clazz, ClassMetaModel classMetaModel,
+      Attribute<?, ?> a, MetaModelDescriptor descriptor) {
     Kind kind = null;
     Class<?> returnType;
     Member member = a.getJavaMember();
-    Member setter = determineSetter(member, a.getName());
+    Member setterMember = determineSetter(member, a.getName());
+    /* With property access, the members already are the getter and setter methods */
+    Method getterMethod = member instanceof Method ? (Method) member : findGetter(member);
+    Method setterMethod = setterMember instanceof Method ? (Method) setterMember : findSetter(setterMember);
     if (a.isCollection()) {
       kind = Kind.PLURAL;
       PluralAttribute<?, ?, ?> pa = (PluralAttribute<?, ?, ?>) a;
@@ -297,67 +758,83 @@ class MetaModel {
      */
     boolean shouldCascadeVersion = false;
     boolean shouldCascadeDelete = false;
-    CascadeNewVersion cascadeNewVersionOnClass = clazz.getAnnotation(CascadeNewVersion.class);
-    CascadeNewVersion cascadeNewVersionOnPackage = clazz.getPackage().getAnnotation(CascadeNewVersion.class);
-    CascadeNewVersion cascadeNewVersionAnnot = memberAnnotation(member, CascadeNewVersion.class);
-    ManyToOne manyToOne = memberAnnotation(member, ManyToOne.class);
-    ManyToMany manyToMany = memberAnnotation(member, ManyToMany.class);
-    if (cascadeNewVersionAnnot != null) {
-      shouldCascadeVersion = cascadeNewVersionAnnot.value();
-      shouldCascadeDelete = cascadeNewVersionAnnot.withDelete();
-    } else if (hasPersistOrMerge(manyToOne)) {
-      shouldCascadeVersion = true;
-    } else if (hasPersistOrMerge(manyToMany)) {
-      shouldCascadeVersion = true;
-    } else if (cascadeNewVersionOnClass != null) {
-      shouldCascadeVersion = cascadeNewVersionOnClass.value();
-      shouldCascadeDelete = cascadeNewVersionOnClass.withDelete();
-    } else if (cascadeNewVersionOnPackage != null) {
-      shouldCascadeVersion = cascadeNewVersionOnPackage.value();
-      shouldCascadeDelete = cascadeNewVersionOnPackage.withDelete();
+    boolean cascadeDeferred = false;
+    boolean[] cascadeFlags = descriptor != null ? descriptor.cascadeFlags(clazz, a.getName()) : null;
+    if (cascadeFlags != null) {
+      shouldCascadeVersion = cascadeFlags[0];
+      shouldCascadeDelete = cascadeFlags[1];
+      cascadeDeferred = cascadeFlags[2];
+    } else {
+      CascadeNewVersion cascadeNewVersionOnClass = clazz.getAnnotation(CascadeNewVersion.class);
+      CascadeNewVersion cascadeNewVersionOnPackage = clazz.getPackage().getAnnotation(CascadeNewVersion.class);
+      CascadeNewVersion cascadeNewVersionAnnot = memberAnnotation(member, CascadeNewVersion.class);
+      ManyToOne manyToOne = memberAnnotation(member, ManyToOne.class);
+      ManyToMany manyToMany = memberAnnotation(member, ManyToMany.class);
+      if (cascadeNewVersionAnnot != null) {
+        shouldCascadeVersion = cascadeNewVersionAnnot.value();
+        shouldCascadeDelete = cascadeNewVersionAnnot.withDelete();
+        cascadeDeferred = cascadeNewVersionAnnot.mode() == CascadeNewVersion.Mode.DEFERRED;
+      } else if (hasPersistOrMerge(manyToOne)) {
+        shouldCascadeVersion = true;
+      } else if (hasPersistOrMerge(manyToMany)) {
+        shouldCascadeVersion = true;
+      } else if (cascadeNewVersionOnClass != null) {
+        shouldCascadeVersion = cascadeNewVersionOnClass.value();
+        shouldCascadeDelete = cascadeNewVersionOnClass.withDelete();
+        cascadeDeferred = cascadeNewVersionOnClass.mode() == CascadeNewVersion.Mode.DEFERRED;
+      } else if (cascadeNewVersionOnPackage != null) {
+        shouldCascadeVersion = cascadeNewVersionOnPackage.value();
+        shouldCascadeDelete = cascadeNewVersionOnPackage.withDelete();
+        cascadeDeferred = cascadeNewVersionOnPackage.mode() == CascadeNewVersion.Mode.DEFERRED;
+      }
     }
     /* Find @Identity member annotation */
     Identity identity = memberAnnotation(member, Identity.class);
     if (identity != null) {
-      classMetaModel.identityField = member.getName();
-      classMetaModel.identitySetter = findSetter(member);
-      classMetaModel.identityGetter = findGetter(member);
+      classMetaModel.identityField = a.getName();
+      classMetaModel.identitySetter = setter(setterMethod);
+      classMetaModel.identityGetter = getter(getterMethod);
+      classMetaModel.identityType = returnType;
       classMetaModel.identityAnnotation = identity;
     }
     if (shouldCascadeVersion) {
       /*
        * Add the association indexed by the class of the referenced type.
        */
-      ClassMetaModel referencedClassMetaModel = classMetaModels.get(returnType);
+      ClassMetaModel referencedClassMetaModel = models.get(returnType);
       if (referencedClassMetaModel == null) {
         referencedClassMetaModel = new ClassMetaModel();
-        classMetaModels.put(returnType, referencedClassMetaModel);
+        models.put(returnType, referencedClassMetaModel);
       }
       Association association = new Association();
       association.setKind(kind);
       association.setName(a.getName());
       association.setOwner(clazz);
-      association.setGetter(findGetter(member));
-      association.setSetter(findSetter(setter));
+      association.setReader(getter(getterMethod));
+      association.setWriter(setter(setterMethod));
       association.setShouldCascadeNewVersion(shouldCascadeVersion);
       association.setShouldCascadeDelete(shouldCascadeDelete);
+      association.setCascadeDeferred(cascadeDeferred);
       referencedClassMetaModel.incomingAssociations.add(association);
       classMetaModel.outgoingAssociations.put(a.getName(), association);
     }
   }
 
   public Serializable getIdOf(Object entity) {
+    /* Do not initialize a proxy just to read its id */
+    if (entity instanceof org.hibernate.proxy.HibernateProxy)
+      return ((org.hibernate.proxy.HibernateProxy) entity).getHibernateLazyInitializer().getIdentifier();
     Class<?> clazz = findNonProxyClass(entity.getClass());
     ClassMetaModel classMetaModel = classMetaModelOf(clazz);
     try {
-      return (Serializable) classMetaModel.idGetter.invoke(entity);
+      return (Serializable) classMetaModel.idGetter.apply(entity);
     } catch (Exception e) {
       throw new InternalVersioningException(
           "Cannot obtain id of entity [" + entity + "] stored in [" + classMetaModel.idField + "]", e);
     }
   }
 
-  public void setModificationDate(Object entity, Object[] state, String[] propertyNames, Date date) {
+  public void setModificationDate(Object entity, Object[] state, Date date) {
     Class<?> clazz = findNonProxyClass(entity.getClass());
     ClassMetaModel classMetaModel = classMetaModelOf(clazz);
     if (classMetaModel == null)
@@ -365,14 +842,14 @@ class MetaModel {
     if (classMetaModel.modificationDateField == null)
       return;
     try {
-      classMetaModel.modificationDateSetter.invoke(entity, date);
-      state[findPropertyIndex(clazz, propertyNames, classMetaModel.modificationDateField)] = date;
+      classMetaModel.modificationDateSetter.accept(entity, date);
+      state[classMetaModel.modificationDateIndex] = date;
     } catch (Exception e) {
       throw new AuditingException("Could not set modification date on entity [" + entity + "]", e);
     }
   }
 
-  public void setModifyingUser(Object entity, Object[] state, String[] propertyNames, String user) {
+  public void setModifyingUser(Object entity, Object[] state, String user) {
     Class<?> clazz = findNonProxyClass(entity.getClass());
     ClassMetaModel classMetaModel = classMetaModelOf(clazz);
     if (classMetaModel == null)
@@ -380,14 +857,14 @@ class MetaModel {
     if (classMetaModel.modifyingUserField == null)
       return;
     try {
-      classMetaModel.modifyingUserSetter.invoke(entity, user);
-      state[findPropertyIndex(clazz, propertyNames, classMetaModel.modifyingUserField)] = user;
+      classMetaModel.modifyingUserSetter.accept(entity, user);
+      state[classMetaModel.modifyingUserIndex] = user;
     } catch (Exception e) {
       throw new AuditingException("Could not set modifying user on entity [" + entity + "]", e);
     }
   }
 
-  public void setCreationDate(Object entity, Object[] state, String[] propertyNames, Date date) {
+  public void setCreationDate(Object entity, Object[] state, Date date) {
     Class<?> clazz = findNonProxyClass(entity.getClass());
     ClassMetaModel classMetaModel = classMetaModelOf(clazz);
     if (classMetaModel == null)
@@ -395,14 +872,14 @@ class MetaModel {
     if (classMetaModel.creationDateField == null)
       return;
     try {
-      classMetaModel.creationDateSetter.invoke(entity, date);
-      state[findPropertyIndex(clazz, propertyNames, classMetaModel.creationDateField)] = date;
+      classMetaModel.creationDateSetter.accept(entity, date);
+      state[classMetaModel.creationDateIndex] = date;
     } catch (Exception e) {
       throw new AuditingException("Could not set creation date on entity [" + entity + "]", e);
     }
   }
 
-  public void setCreatingUser(Object entity, Object[] state, String[] propertyNames, String user) {
+  public void setCreatingUser(Object entity, Object[] state, String user) {
     Class<?> clazz = findNonProxyClass(entity.getClass());
     ClassMetaModel classMetaModel = classMetaModelOf(clazz);
     if (classMetaModel == null)
@@ -410,8 +887,8 @@ class MetaModel {
     if (classMetaModel.creatingUserField == null)
       return;
     try {
-      classMetaModel.creatingUserSetter.invoke(entity, user);
-      state[findPropertyIndex(clazz, propertyNames, classMetaModel.creatingUserField)] = user;
+      classMetaModel.creatingUserSetter.accept(entity, user);
+      state[classMetaModel.creatingUserIndex] = user;
     } catch (Exception e) {
       throw new AuditingException("Could not set creating user on entity [" + entity + "]", e);
     }
@@ -425,7 +902,7 @@ class MetaModel {
     if (classMetaModel.softDeletedField == null)
       return;
     try {
-      classMetaModel.softDeletedSetter.invoke(entity, Boolean.TRUE);
+      classMetaModel.softDeletedSetter.accept(entity, Boolean.TRUE);
     } catch (Exception e) {
       throw new AuditingException("Could not set deleted status on entity [" + entity + "]", e);
     }
@@ -439,7 +916,7 @@ class MetaModel {
     if (classMetaModel.softDeletedField == null)
       return false;
     try {
-      return (Boolean) classMetaModel.softDeletedGetter.invoke(entity);
+      return classMetaModel.softDeletedGetter.test(entity);
     } catch (Exception e) {
       throw new AuditingException("Could not get deleted status on entity [" + entity + "]", e);
     }
@@ -453,7 +930,7 @@ class MetaModel {
     if (classMetaModel.archivedField == null)
       return false;
     try {
-      return (Boolean) classMetaModel.archivedGetter.invoke(entity);
+      return classMetaModel.archivedGetter.test(entity);
     } catch (Exception e) {
       throw new AuditingException("Could not get archived status on entity [" + entity + "]", e);
     }
@@ -467,13 +944,13 @@ class MetaModel {
     if (classMetaModel.versionField == null)
       return 0L;
     try {
-      return (Long) classMetaModel.versionGetter.invoke(entity);
+      return classMetaModel.versionGetter.applyAsLong(entity);
     } catch (Exception e) {
       throw new AuditingException("Could not get version of entity [" + entity + "]", e);
     }
   }
 
-  public void setVersionOf(Object entity, Object[] state, String[] propertyNames, long version) {
+  public void setVersionOf(Object entity, Object[] state, long version) {
     Class<?> clazz = findNonProxyClass(entity.getClass());
     ClassMetaModel classMetaModel = classMetaModelOf(clazz);
     if (classMetaModel == null)
@@ -481,13 +958,27 @@ class MetaModel {
     if (classMetaModel.versionSetter == null)
       return;
     try {
-      classMetaModel.versionSetter.invoke(entity, version);
-      state[findPropertyIndex(clazz, propertyNames, classMetaModel.versionField)] = version;
+      classMetaModel.versionSetter.accept(entity, version);
+      state[classMetaModel.versionIndex] = version;
     } catch (Exception e) {
       throw new AuditingException("Could not set version on entity [" + entity + "]", e);
     }
   }
 
+  /**
+   * Get the HQL statement archiving live versions of the given entity class.
+   *
+   * @param clazz the entity class
+   * @return the statement taking the ids as parameter <code>ids</code> and returning the number of archived versions or
+   *         <code>null</code> if the entity class has no archived field
+   */
+  public String getArchiveStatement(Class<?> clazz) {
+    ClassMetaModel classMetaModel = classMetaModelOf(findNonProxyClass(clazz));
+    if (classMetaModel == null)
+      return null;
+    return classMetaModel.archiveStatement;
+  }
+
   public String getArchivedFieldName(Class<?> clazz) {
     ClassMetaModel classMetaModel = classMetaModelOf(findNonProxyClass(clazz));
     if (classMetaModel == null)
@@ -501,30 +992,18 @@ class MetaModel {
     if (classMetaModel.identityField == null)
       return;
     try {
-      classMetaModel.identitySetter.invoke(newVersion, classMetaModel.identityGetter.invoke(oldVersion));
+      classMetaModel.identitySetter.accept(newVersion, classMetaModel.identityGetter.apply(oldVersion));
     } catch (Exception e) {
       throw new InternalVersioningException("Could not copy @Identity field [" + classMetaModel.identityField
           + "] from [" + oldVersion + "] to [" + newVersion + "]", e);
     }
   }
 
-  public boolean isIdentityProperty(Object e, String propertyName) {
-    Class<?> clazz = findNonProxyClass(e.getClass());
-    ClassMetaModel classMetaModel = classMetaModelOf(clazz);
-    return classMetaModel.identityField != null && classMetaModel.identityField.equals(propertyName);
-  }
-
-  public boolean isArchivedProperty(Object e, String propertyName) {
-    Class<?> clazz = findNonProxyClass(e.getClass());
-    ClassMetaModel classMetaModel = classMetaModelOf(clazz);
-    return classMetaModel.archivedField != null && classMetaModel.archivedField.equals(propertyName);
-  }
-
   public void setIdentity(Object e, Object identity) {
     Class<?> clazz = findNonProxyClass(e.getClass());
     ClassMetaModel classMetaModel = classMetaModelOf(clazz);
     try {
-      classMetaModel.identitySetter.invoke(e, identity);
+      classMetaModel.identitySetter.accept(e, identity);
     } catch (Exception e1) {
       throw new InternalVersioningException(
           "Could not set @Identity field [" + classMetaModel.identityField + "] on [" + e + "] to [" + identity + "]",
@@ -538,7 +1017,7 @@ class MetaModel {
     if (classMetaModel.creatingUserField == null)
       return;
     try {
-      classMetaModel.creatingUserSetter.invoke(newVersion, classMetaModel.creatingUserGetter.invoke(oldVersion));
+      classMetaModel.creatingUserSetter.accept(newVersion, classMetaModel.creatingUserGetter.apply(oldVersion));
     } catch (Exception e) {
       throw new InternalVersioningException("Could not copy @CreatingUser field [" + classMetaModel.creatingUserField
           + "] from [" + oldVersion + "] to [" + newVersion + "]", e);
@@ -551,32 +1030,32 @@ class MetaModel {
     if (classMetaModel.creationDateField == null)
       return;
     try {
-      classMetaModel.creationDateSetter.invoke(newVersion, classMetaModel.creationDateGetter.invoke(oldVersion));
+      classMetaModel.creationDateSetter.accept(newVersion, classMetaModel.creationDateGetter.apply(oldVersion));
     } catch (Exception e) {
       throw new InternalVersioningException("Could not copy @CreationDate field [" + classMetaModel.creationDateField
           + "] from [" + oldVersion + "] to [" + newVersion + "]", e);
     }
   }
 
-  public void ensureIdentity(Object entity, Object[] state, String[] propertyNames, EntityManager em) {
+  public void ensureIdentity(Object entity, Object[] state, EntityManager em) {
     Class<?> clazz = findNonProxyClass(entity.getClass());
     ClassMetaModel classMetaModel = classMetaModelOf(clazz);
     if (classMetaModel.identityField == null)
       return;
     try {
-      Object identity = classMetaModel.identityGetter.invoke(entity);
+      Object identity = classMetaModel.identityGetter.apply(entity);
       if (identity == null) {
-        if (classMetaModel.identityGetter.getReturnType() == Long.class) {
+        if (classMetaModel.identityType == Long.class) {
           String seq = classMetaModel.identityAnnotation.sequence();
           BigInteger seqVal = (BigInteger) em.createNativeQuery("SELECT nextval('" + seq + "')").getSingleResult();
           identity = seqVal.longValue();
         } else {
           /* Create a new instance and set it */
-          identity = classMetaModel.identityGetter.getReturnType().getDeclaredConstructor().newInstance();
+          identity = classMetaModel.identityType.getDeclaredConstructor().newInstance();
           em.persist(identity);
         }
-        classMetaModel.identitySetter.invoke(entity, identity);
-        state[findPropertyIndex(clazz, propertyNames, classMetaModel.identityField)] = identity;
+        classMetaModel.identitySetter.accept(entity, identity);
+        state[classMetaModel.identityIndex] = identity;
       }
     } catch (Exception e) {
       throw new InternalVersioningException(
@@ -608,24 +1087,172 @@ class MetaModel {
     if (classMetaModel.versionField == null)
       return;
     try {
-      long oldVersionNumber = (Long) classMetaModel.versionGetter.invoke(oldVersion);
-      classMetaModel.versionSetter.invoke(newVersion, oldVersionNumber + 1L);
+      long oldVersionNumber = classMetaModel.versionGetter.applyAsLong(oldVersion);
+      classMetaModel.versionSetter.accept(newVersion, oldVersionNumber + 1L);
     } catch (Exception e) {
       throw new AuditingException("Could not increment version of entity [" + newVersion + "]", e);
     }
   }
 
-  public boolean isAssociationComposite(Class<?> ownerClass, String roleName) {
-    /* The role name is the fully qualified class name + "." + fieldname */
-    int lastDotIndex = roleName.lastIndexOf('.');
-    String className = roleName.substring(0, lastDotIndex);
-    String associationName = roleName.substring(lastDotIndex + 1);
+  /**
+   * Get the version of an entity from its Hibernate property values.
+   *
+   * @param clazz the entity class
+   * @param state the property values, e.g. the loaded state of the entity
+   * @return the version or <code>0</code> if the entity has no version field
+   */
+  public long getVersionOf(Class<?> clazz, Object[] state) {
+    ClassMetaModel classMetaModel = classMetaModelOf(findNonProxyClass(clazz));
+    if (classMetaModel == null || classMetaModel.versionIndex == -1)
+      return 0L;
+    Object version = state[classMetaModel.versionIndex];
+    return version == null ? 0L : ((Number) version).longValue();
+  }
+
+  /**
+   * Same as {@link #incrementVersion(Object, Object)}, {@link #copyIdentity(Object, Object)},
+   * {@link #copyCreatingUser(Object, Object)} and {@link #copyCreationDate(Object, Object)}, but taking the values of
+   * the old version from its Hibernate property values instead of from a loaded entity instance.
+   *
+   * @param clazz      the entity class
+   * @param oldState   the property values of the old version, e.g. its loaded state
+   * @param newVersion the new version
+   */
+  public void copyFromOldVersion(Class<?> clazz, Object[] oldState, Object newVersion) {
+    ClassMetaModel classMetaModel = classMetaModelOf(findNonProxyClass(clazz));
+    if (classMetaModel == null)
+      return;
     try {
-      Class<?> clazz = findNonProxyClass(ownerClass.getClassLoader().loadClass(className));
-      return findOutgoingAssociation(clazz, associationName) != null;
-    } catch (ClassNotFoundException e) {
-      throw new InternalVersioningException(
-          "Could not find class [" + className + "] from PersistentCollection role [" + roleName + "]", e);
+      if (classMetaModel.versionIndex != -1)
+        classMetaModel.versionSetter.accept(newVersion, getVersionOf(clazz, oldState) + 1L);
+      if (classMetaModel.identityIndex != -1)
+        classMetaModel.identitySetter.accept(newVersion, oldState[classMetaModel.identityIndex]);
+      if (classMetaModel.creatingUserIndex != -1)
+        classMetaModel.creatingUserSetter.accept(newVersion, oldState[classMetaModel.creatingUserIndex]);
+      if (classMetaModel.creationDateIndex != -1)
+        classMetaModel.creationDateSetter.accept(newVersion, oldState[classMetaModel.creationDateIndex]);
+    } catch (Exception e) {
+      throw new InternalVersioningException("Could not copy the values of the old version to [" + newVersion + "]", e);
+    }
+  }
+
+  /**
+   * Get the hasher computing the content hash of the given entity class.
+   *
+   * @param clazz the entity class
+   * @return the hasher or <code>null</code> if the entity class has no {@link ContentHash} field
+   */
+  public ContentHasher getContentHasher(Class<?> clazz) {
+    ClassMetaModel classMetaModel = classMetaModelOf(findNonProxyClass(clazz));
+    if (classMetaModel == null)
+      return null;
+    return classMetaModel.contentHasher;
+  }
+
+  /**
+   * Get the index of the {@link ContentHash} property of the given entity class.
+   *
+   * @param clazz the entity class
+   * @return the index or -1 if the entity class has no content hash field
+   */
+  public int getContentHashIndex(Class<?> clazz) {
+    ClassMetaModel classMetaModel = classMetaModelOf(findNonProxyClass(clazz));
+    if (classMetaModel == null)
+      return -1;
+    return classMetaModel.contentHashIndex;
+  }
+
+  public void setContentHash(Object entity, Object[] state, String hash) {
+    Class<?> clazz = findNonProxyClass(entity.getClass());
+    ClassMetaModel classMetaModel = classMetaModelOf(clazz);
+    if (classMetaModel == null || classMetaModel.contentHashIndex == -1)
+      return;
+    try {
+      classMetaModel.contentHashSetter.accept(entity, hash);
+      state[classMetaModel.contentHashIndex] = hash;
+    } catch (Exception e) {
+      throw new InternalVersioningException("Could not set @ContentHash field [" + classMetaModel.contentHashField
+          + "] on [" + entity + "]", e);
+    }
+  }
+
+  /**
+   * Get the query loading the database snapshots of many entities of the given class at once.
+   *
+   * @param clazz the entity class
+   * @return the query or <code>null</code> if the snapshots have to be loaded one by one
+   */
+  public SnapshotQuery getSnapshotQuery(Class<?> clazz) {
+    ClassMetaModel classMetaModel = classMetaModelOf(findNonProxyClass(clazz));
+    if (classMetaModel == null)
+      return null;
+    return classMetaModel.snapshotQuery;
+  }
+
+  /**
+   * Get the plan of how to compare each property of the given entity class with its database snapshot value.
+   *
+   * @param clazz the entity class
+   * @return the plan
+   */
+  public DirtyCheckPlan getDirtyCheckPlan(Class<?> clazz) {
+    return classMetaModelOf(findNonProxyClass(clazz)).dirtyCheckPlan;
+  }
+
+  /**
+   * Get the indexes of all collection-valued properties of the given entity class.
+   *
+   * @param clazz the entity class
+   * @return the indexes of the collection properties in the entity's property values
+   */
+  public int[] getCollectionIndexes(Class<?> clazz) {
+    ClassMetaModel classMetaModel = classMetaModelOf(findNonProxyClass(clazz));
+    if (classMetaModel == null)
+      return new int[0];
+    return classMetaModel.collectionIndexes;
+  }
+
+  /**
+   * Determine whether the collection with the given role is an association for which new versions are cascaded.
+   *
+   * @param roleName the role of the collection (i.e. the entity name of the owner + "." + the property name)
+   * @return <code>true</code> if the association is known to the versioning meta-model; <code>false</code> otherwise
+   */
+  public boolean isAssociationComposite(String roleName) {
+    return associationsOfRoles().containsKey(roleName);
+  }
+
+  /**
+   * Determine whether the collection with the given role is owned by a versioned entity.
+   *
+   * @param roleName the role of the collection (i.e. the entity name of the owner + "." + the property name)
+   * @return <code>true</code> if the owner of the collection is versioned; <code>false</code> otherwise
+   */
+  public boolean isVersionedCollectionRole(String roleName) {
+    return snapshot().versionedCollectionRoles.contains(roleName);
+  }
+
+  private Map<String, Association> associationsOfRoles() {
+    return snapshot().associationsByRole;
+  }
+
+  /** The immutable meta-model of all entities, which is published as a whole. */
+  private static final class Snapshot {
+    /** The meta-models of all entities and of all classes referenced by associations, indexed by class. */
+    final Map<Class<?>, ClassMetaModel> classMetaModels;
+    /**
+     * All associations for which new versions are cascaded that are collections, indexed by the collection role of
+     * Hibernate's CollectionPersister.
+     */
+    final Map<String, Association> associationsByRole;
+    /** The collection roles of all collections owned by a versioned entity. */
+    final Set<String> versionedCollectionRoles;
+
+    Snapshot(Map<Class<?>, ClassMetaModel> classMetaModels, Map<String, Association> associationsByRole,
+        Set<String> versionedCollectionRoles) {
+      this.classMetaModels = Collections.unmodifiableMap(classMetaModels);
+      this.associationsByRole = Collections.unmodifiableMap(associationsByRole);
+      this.versionedCollectionRoles = Collections.unmodifiableSet(versionedCollectionRoles);
     }
   }
 }
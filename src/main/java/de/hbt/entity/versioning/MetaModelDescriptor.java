@@ -0,0 +1,139 @@
+package de.hbt.entity.versioning;
+
+import java.io.*;
+import java.lang.annotation.*;
+import java.lang.reflect.*;
+import java.net.*;
+import java.util.*;
+
+import javax.persistence.metamodel.*;
+
+import de.hbt.entity.versioning.exception.*;
+import de.hbt.entity.versioning.processor.*;
+
+/**
+ * Precomputed versioning meta-data of entity classes, as written at compile time by the
+ * {@link VersioningMetaModelProcessor}.
+ *
+ * <p>
+ * <em>This class is only to be used by the classes inside the {@link de.hbt.entity.versioning} package and
+ * sub-packages!</em>
+ */
+class MetaModelDescriptor {
+
+  private final Properties properties;
+
+  /** The number of described associations of every described entity, keyed by the binary name of the entity. */
+  private final Map<String, Integer> associationCounts = new HashMap<>();
+
+  private MetaModelDescriptor(Properties properties) {
+    this.properties = properties;
+    for (String key : properties.stringPropertyNames()) {
+      int index = key.indexOf(".association.");
+      if (index != -1)
+        associationCounts.merge(key.substring(0, index), 1, Integer::sum);
+    }
+  }
+
+  /**
+   * Load and merge all descriptors visible to the given class loader.
+   *
+   * @param classLoader the class loader to find the descriptors with
+   * @return the descriptor or <code>null</code> if there is none
+   */
+  static MetaModelDescriptor load(ClassLoader classLoader) {
+    Properties properties = new Properties();
+    try {
+      Enumeration<URL> resources = classLoader.getResources(VersioningMetaModelProcessor.DESCRIPTOR_LOCATION);
+      while (resources.hasMoreElements()) {
+        try (InputStream is = resources.nextElement().openStream()) {
+          properties.load(is);
+        }
+      }
+    } catch (IOException e) {
+      throw new InternalVersioningException(
+          "Could not read entity versioning descriptor [" + VersioningMetaModelProcessor.DESCRIPTOR_LOCATION + "]", e);
+    }
+    if (properties.isEmpty())
+      return null;
+    return new MetaModelDescriptor(properties);
+  }
+
+  /**
+   * Determine whether the given entity class was described at compile time.
+   *
+   * @param clazz the entity class
+   * @return <code>true</code> if the descriptor contains the entity; <code>false</code> otherwise
+   */
+  boolean describes(Class<?> clazz) {
+    return properties.containsKey(clazz.getName() + ".entity");
+  }
+
+  /**
+   * Determine whether the described associations of the given entity still match its associations in the JPA
+   * metamodel, i.e. whether every described association still exists and references the same entity type. A descriptor
+   * compiled before the entity was changed must not be used for that entity.
+   *
+   * @param clazz  the entity class
+   * @param entity the JPA entity type of the class
+   * @return <code>true</code> if the described associations match; <code>false</code> if the descriptor is stale
+   */
+  boolean matches(Class<?> clazz, EntityType<?> entity) {
+    int described = 0;
+    for (Attribute<?, ?> a : entity.getAttributes()) {
+      String value = properties.getProperty(clazz.getName() + ".association." + a.getName());
+      if (value == null)
+        continue;
+      described++;
+      Class<?> targetType = a.isCollection() ? ((PluralAttribute<?, ?, ?>) a).getElementType().getJavaType()
+          : a.getJavaType();
+      String[] parts = value.split(",");
+      if (!a.isAssociation() || parts.length < 3 || !parts[2].equals(targetType.getName()))
+        return false;
+    }
+    return described == associationCounts.getOrDefault(clazz.getName(), 0);
+  }
+
+  /**
+   * Get the field of the given entity class (or one of its super classes) annotated with the given annotation.
+   *
+   * @param clazz          the entity class
+   * @param annotationType the annotation type
+   * @return the field or <code>null</code> if the entity has no such field
+   */
+  Field annotatedField(Class<?> clazz, Class<? extends Annotation> annotationType) {
+    String value = properties.getProperty(clazz.getName() + ".field." + annotationType.getSimpleName());
+    if (value == null)
+      return null;
+    String[] parts = value.split(",");
+    Class<?> declaringClass = clazz;
+    while (declaringClass != null && !declaringClass.getName().equals(parts[1]))
+      declaringClass = declaringClass.getSuperclass();
+    if (declaringClass == null)
+      throw new InternalVersioningException(
+          "Class [" + parts[1] + "] of descriptor field [" + value + "] is no super class of [" + clazz + "]", null);
+    try {
+      return declaringClass.getDeclaredField(parts[0]);
+    } catch (NoSuchFieldException e) {
+      throw new InternalVersioningException(
+          "Could not find descriptor field [" + parts[0] + "] in [" + declaringClass + "]", e);
+    }
+  }
+
+  /**
+   * Get the cascade flags of the given association.
+   *
+   * @param clazz       the owning entity class
+   * @param association the association name
+   * @return a three-element array with whether a new version and whether a deletion should be cascaded and whether
+   *         the cascade is deferred, or <code>null</code> if the association is not described
+   */
+  boolean[] cascadeFlags(Class<?> clazz, String association) {
+    String value = properties.getProperty(clazz.getName() + ".association." + association);
+    if (value == null)
+      return null;
+    String[] parts = value.split(",");
+    return new boolean[] { Boolean.parseBoolean(parts[0]), Boolean.parseBoolean(parts[1]),
+        parts.length > 3 && Boolean.parseBoolean(parts[3]) };
+  }
+}
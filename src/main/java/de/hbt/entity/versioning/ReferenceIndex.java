@@ -0,0 +1,183 @@
+package de.hbt.entity.versioning;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+
+import org.hibernate.engine.spi.*;
+
+/**
+ * Reads and writes the optional reverse reference index, a table holding one row per reference of a live version of a
+ * versioned entity to another entity via an association for which new versions are cascaded. It allows finding the
+ * owners of the entities which got a new version with an indexed range lookup, regardless of how the tables of the
+ * owners are indexed. The table has to be created by the application:
+ *
+ * <pre>
+ * CREATE TABLE entity_versioning_reference (
+ *   target_type VARCHAR(255) NOT NULL,
+ *   target_id BIGINT NOT NULL,
+ *   owner_type VARCHAR(255) NOT NULL,
+ *   owner_id BIGINT NOT NULL,
+ *   association VARCHAR(255) NOT NULL
+ * );
+ * CREATE INDEX entity_versioning_reference_target ON entity_versioning_reference (target_type, target_id);
+ * CREATE INDEX entity_versioning_reference_owner ON entity_versioning_reference (owner_type, owner_id);
+ * </pre>
+ *
+ * <p>
+ * The types are the Hibernate entity names and the association is the property name within the owner.
+ *
+ * <p>
+ * <em>This class is only to be used by the classes inside the {@link de.hbt.entity.versioning} package and
+ * sub-packages!</em>
+ */
+class ReferenceIndex {
+
+  static final String TABLE = "entity_versioning_reference";
+
+  private static final String INSERT = "insert into " + TABLE
+      + " (target_type, target_id, owner_type, owner_id, association) values (?, ?, ?, ?, ?)";
+  private static final String DELETE_OWNERS = "delete from " + TABLE + " where owner_type = ? and owner_id in (";
+  private static final String DELETE_ALL = "delete from " + TABLE;
+  private static final String SELECT_OWNERS = "select owner_id, target_id from " + TABLE
+      + " where target_type = ? and owner_type = ? and association = ? and target_id in (";
+
+  private ReferenceIndex() {
+  }
+
+  /**
+   * Find the ids of the owners referencing any of the given entities via the given association.
+   *
+   * @param assoc     the association, which must be indexed
+   * @param targetIds the ids of the referenced entities
+   * @param session   the session
+   * @return the pairs of owner id and referenced entity id
+   */
+  static List<Long[]> findOwners(Association assoc, List<Serializable> targetIds,
+      SharedSessionContractImplementor session) {
+    String sql = SELECT_OWNERS + placeholders(targetIds.size());
+    List<Long[]> owners = new ArrayList<>();
+    try {
+      PreparedStatement ps = session.getJdbcCoordinator().getStatementPreparer().prepareStatement(sql);
+      try {
+        ps.setString(1, assoc.getReferenceIndexTargetType());
+        ps.setString(2, assoc.getReferenceIndexOwnerType());
+        ps.setString(3, assoc.getName());
+        for (int i = 0; i < targetIds.size(); i++)
+          ps.setLong(i + 4, (Long) targetIds.get(i));
+        ResultSet rs = session.getJdbcCoordinator().getResultSetReturn().extract(ps);
+        try {
+          while (rs.next())
+            owners.add(new Long[] { rs.getLong(1), rs.getLong(2) });
+        } finally {
+          session.getJdbcCoordinator().getLogicalConnection().getResourceRegistry().release(rs, ps);
+        }
+      } finally {
+        release(ps, session);
+      }
+    } catch (SQLException e) {
+      throw session.getJdbcServices().getSqlExceptionHelper().convert(e,
+          "could not find owners of [" + assoc.getReferenceIndexTargetType() + "] in the reference index", sql);
+    }
+    return owners;
+  }
+
+  /**
+   * Remove all references of the given owners.
+   *
+   * @param ownerType the entity name of the owners
+   * @param ownerIds  the ids of the owners
+   * @param batchSize the maximum number of ids per DELETE
+   * @param session   the session
+   */
+  static void removeOwners(String ownerType, List<Long> ownerIds, int batchSize,
+      SharedSessionContractImplementor session) {
+    for (int from = 0; from < ownerIds.size(); from += batchSize) {
+      List<Long> chunk = ownerIds.subList(from, Math.min(from + batchSize, ownerIds.size()));
+      String sql = DELETE_OWNERS + placeholders(chunk.size());
+      try {
+        PreparedStatement ps = session.getJdbcCoordinator().getStatementPreparer().prepareStatement(sql);
+        try {
+          ps.setString(1, ownerType);
+          for (int i = 0; i < chunk.size(); i++)
+            ps.setLong(i + 2, chunk.get(i));
+          session.getJdbcCoordinator().getResultSetReturn().executeUpdate(ps);
+        } finally {
+          release(ps, session);
+        }
+      } catch (SQLException e) {
+        throw session.getJdbcServices().getSqlExceptionHelper().convert(e,
+            "could not remove references of [" + ownerType + "] from the reference index", sql);
+      }
+    }
+  }
+
+  /**
+   * Remove all references.
+   *
+   * @param session the session
+   */
+  static void removeAll(SharedSessionContractImplementor session) {
+    PreparedStatement ps = session.getJdbcCoordinator().getStatementPreparer().prepareStatement(DELETE_ALL);
+    try {
+      session.getJdbcCoordinator().getResultSetReturn().executeUpdate(ps);
+    } finally {
+      release(ps, session);
+    }
+  }
+
+  /**
+   * Add the given references.
+   *
+   * @param references the references
+   * @param session    the session
+   */
+  static void add(List<Reference> references, SharedSessionContractImplementor session) {
+    if (references.isEmpty())
+      return;
+    try {
+      PreparedStatement ps = session.getJdbcCoordinator().getStatementPreparer().prepareStatement(INSERT);
+      try {
+        for (Reference reference : references) {
+          ps.setString(1, reference.association.getReferenceIndexTargetType());
+          ps.setLong(2, reference.targetId);
+          ps.setString(3, reference.association.getReferenceIndexOwnerType());
+          ps.setLong(4, reference.ownerId);
+          ps.setString(5, reference.association.getName());
+          ps.addBatch();
+        }
+        ps.executeBatch();
+      } finally {
+        release(ps, session);
+      }
+    } catch (SQLException e) {
+      throw session.getJdbcServices().getSqlExceptionHelper().convert(e,
+          "could not add references to the reference index", INSERT);
+    }
+  }
+
+  private static String placeholders(int count) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < count; i++)
+      sb.append(i == 0 ? "?" : ", ?");
+    return sb.append(')').toString();
+  }
+
+  private static void release(PreparedStatement ps, SharedSessionContractImplementor session) {
+    session.getJdbcCoordinator().getLogicalConnection().getResourceRegistry().release(ps);
+    session.getJdbcCoordinator().afterStatementExecution();
+  }
+
+  /** A reference of an owner to another entity via an indexed association. */
+  static class Reference {
+    final Association association;
+    final Long ownerId;
+    final Long targetId;
+
+    Reference(Association association, Long ownerId, Long targetId) {
+      this.association = association;
+      this.ownerId = ownerId;
+      this.targetId = targetId;
+    }
+  }
+}
@@ -0,0 +1,143 @@
+package de.hbt.entity.versioning;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+
+import org.hibernate.engine.spi.*;
+import org.hibernate.persister.entity.*;
+import org.hibernate.type.*;
+
+/**
+ * Loads the database snapshots of many entities of the same type with one SELECT per chunk of ids.
+ *
+ * <p>
+ * The snapshots have exactly the form of
+ * {@link EntityPersister#getDatabaseSnapshot(Serializable, SharedSessionContractImplementor)}: the "hydrated" values of
+ * all updatable properties (i.e. associations are not resolved) and <code>null</code> for all other properties. Only
+ * entities with a single id column whose updatable properties are all mapped to columns of the entity's own table are
+ * supported; see {@link #of(EntityPersister)}.
+ *
+ * <p>
+ * <em>This class is only to be used by the classes inside the {@link de.hbt.entity.versioning} package and
+ * sub-packages!</em>
+ */
+class SnapshotQuery {
+
+  /** Marks an entity for which no row exists in the database. */
+  static final Object[] NO_SNAPSHOT = new Object[0];
+
+  private static final String ID_ALIAS = "id_";
+
+  private final EntityPersister ep;
+  /** The SQL up to and including the opening parenthesis of the IN list. */
+  private final String sqlPrefix;
+  /** The column aliases of each property or <code>null</code> for properties which are not part of the snapshot. */
+  private final String[][] propertyAliases;
+
+  private SnapshotQuery(EntityPersister ep, String sqlPrefix, String[][] propertyAliases) {
+    this.ep = ep;
+    this.sqlPrefix = sqlPrefix;
+    this.propertyAliases = propertyAliases;
+  }
+
+  /**
+   * Build the query for the given persister.
+   *
+   * @param ep the entity persister
+   * @return the query or <code>null</code> if the snapshots of the entity cannot be loaded in batches (because of a
+   *         composite id, formula properties or properties in other tables) and have to be loaded one by one
+   */
+  static SnapshotQuery of(EntityPersister ep) {
+    if (!(ep instanceof AbstractEntityPersister))
+      return null;
+    AbstractEntityPersister aep = (AbstractEntityPersister) ep;
+    String[] idColumns = aep.getIdentifierColumnNames();
+    if (idColumns.length != 1)
+      return null;
+    String table = aep.getTableName();
+    String[] propertyNames = aep.getPropertyNames();
+    boolean[] updatable = aep.getPropertyUpdateability();
+    String[][] propertyAliases = new String[propertyNames.length][];
+    StringBuilder sql = new StringBuilder("select ").append(idColumns[0]).append(" as ").append(ID_ALIAS);
+    int aliasCount = 0;
+    for (int i = 0; i < propertyNames.length; i++) {
+      if (!updatable[i])
+        continue;
+      String[] columns = aep.getPropertyColumnNames(i);
+      if (columns.length > 0 && !table.equals(aep.getPropertyTableName(propertyNames[i])))
+        return null;
+      propertyAliases[i] = new String[columns.length];
+      for (int j = 0; j < columns.length; j++) {
+        /* Formulas have no column name */
+        if (columns[j] == null)
+          return null;
+        propertyAliases[i][j] = "c" + aliasCount++ + "_";
+        sql.append(", ").append(columns[j]).append(" as ").append(propertyAliases[i][j]);
+      }
+    }
+    sql.append(" from ").append(table).append(" where ").append(idColumns[0]).append(" in (");
+    return new SnapshotQuery(ep, sql.toString(), propertyAliases);
+  }
+
+  /**
+   * Load the snapshots of the given entities.
+   *
+   * @param entities  the entities
+   * @param ids       the ids of the entities (in the same order)
+   * @param batchSize the maximum number of ids per SELECT
+   * @param session   the session
+   * @param snapshots receives the snapshot of each entity or {@link #NO_SNAPSHOT} if there is no row for an entity
+   */
+  void load(List<Object> entities, List<Serializable> ids, int batchSize, SharedSessionContractImplementor session,
+      Map<Object, Object[]> snapshots) {
+    for (int from = 0; from < entities.size(); from += batchSize) {
+      int to = Math.min(from + batchSize, entities.size());
+      Map<Serializable, Object> entitiesById = new HashMap<>();
+      for (int i = from; i < to; i++) {
+        entitiesById.put(ids.get(i), entities.get(i));
+        snapshots.put(entities.get(i), NO_SNAPSHOT);
+      }
+      loadChunk(ids.subList(from, to), entitiesById, session, snapshots);
+    }
+  }
+
+  private void loadChunk(List<Serializable> ids, Map<Serializable, Object> entitiesById,
+      SharedSessionContractImplementor session, Map<Object, Object[]> snapshots) {
+    StringBuilder sb = new StringBuilder(sqlPrefix);
+    for (int i = 0; i < ids.size(); i++)
+      sb.append(i == 0 ? "?" : ", ?");
+    String sql = sb.append(')').toString();
+    Type idType = ep.getIdentifierType();
+    Type[] types = ep.getPropertyTypes();
+    try {
+      PreparedStatement ps = session.getJdbcCoordinator().getStatementPreparer().prepareStatement(sql);
+      try {
+        for (int i = 0; i < ids.size(); i++)
+          idType.nullSafeSet(ps, ids.get(i), i + 1, session);
+        ResultSet rs = session.getJdbcCoordinator().getResultSetReturn().extract(ps);
+        try {
+          while (rs.next()) {
+            Object entity = entitiesById.get((Serializable) idType.nullSafeGet(rs, ID_ALIAS, session, null));
+            if (entity == null)
+              continue;
+            Object[] values = new Object[types.length];
+            for (int i = 0; i < types.length; i++) {
+              if (propertyAliases[i] != null)
+                values[i] = types[i].hydrate(rs, propertyAliases[i], session, null);
+            }
+            snapshots.put(entity, values);
+          }
+        } finally {
+          session.getJdbcCoordinator().getLogicalConnection().getResourceRegistry().release(rs, ps);
+        }
+      } finally {
+        session.getJdbcCoordinator().getLogicalConnection().getResourceRegistry().release(ps);
+        session.getJdbcCoordinator().afterStatementExecution();
+      }
+    } catch (SQLException e) {
+      throw session.getJdbcServices().getSqlExceptionHelper().convert(e,
+          "could not retrieve snapshots of [" + ep.getEntityName() + "]", sql);
+    }
+  }
+}
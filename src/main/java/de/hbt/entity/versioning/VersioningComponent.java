@@ -2,6 +2,8 @@ package de.hbt.entity.versioning;
 
 import static de.hbt.entity.versioning.ClassUtils.*;
 
+import java.util.*;
+
 import javax.persistence.*;
 
 import org.springframework.beans.factory.annotation.*;
@@ -22,6 +24,15 @@ public class VersioningComponent {
   @Autowired
   private MetaModel metaModel;
 
+  @Autowired
+  private DeferredCascadeWorker deferredCascadeWorker;
+
+  @Autowired
+  private CascadeAnalyzer cascadeAnalyzer;
+
+  @Autowired
+  private VersioningProperties properties;
+
   public boolean hasEntityChanged(Object entity) {
     if (!entityManager.contains(entity))
       return false;
@@ -32,4 +43,100 @@ public class VersioningComponent {
     EntityKey key = new EntityKey(realClass, metaModel.getIdOf(entity));
     return context.newVersionMapping.containsValue(key) && !key.equals(context.newVersionMapping.get(key));
   }
+
+  /**
+   * Compute the {@link de.hbt.entity.versioning.annotations.ContentHash} of the current state of the given entity. When
+   * it equals the stored hash of the latest version of the entity, then saving the entity would not change its
+   * content, so that e.g. requests saving the same content again can be detected without loading the latest version.
+   *
+   * @param entity the entity, which need not be managed
+   * @return the hash or <code>null</code> if the entity type has no content hash field or the state cannot be hashed
+   */
+  public String contentHashOf(Object entity) {
+    ContentHasher hasher = metaModel.getContentHasher(entity.getClass());
+    if (hasher == null)
+      return null;
+    Object e = org.hibernate.Hibernate.unproxy(entity);
+    Object[] values = entityManager.unwrap(org.hibernate.engine.spi.SessionImplementor.class).getFactory()
+        .getMetamodel().entityPersister(findNonProxyClass(e.getClass())).getPropertyValues(e);
+    return hasher.hash(values, metaModel::getIdOf);
+  }
+
+  /**
+   * Analyze how far new versions are cascaded through the associations of all entities, in order to find entity types
+   * where a single modification causes many new versions.
+   *
+   * @param withRowCounts whether to estimate the worst-case fan-out from the current row counts in the database, which
+   *                      runs one query per involved entity type and association
+   * @return the report
+   */
+  public CascadeReport analyzeCascades(boolean withRowCounts) {
+    return cascadeAnalyzer.analyze(withRowCounts);
+  }
+
+  /**
+   * Rebuild the reverse reference index (see {@code entity-versioning.reference-index}) from the live versions of all
+   * versioned entities, e.g. after enabling it for an existing database. This must be called within a transaction. The
+   * references are read with a forward-only cursor and written in batches of
+   * {@code entity-versioning.cascade-batch-size}, so that they are never all held in memory.
+   */
+  public void rebuildReferenceIndex() {
+    org.hibernate.engine.spi.SessionImplementor si = entityManager
+        .unwrap(org.hibernate.engine.spi.SessionImplementor.class);
+    ReferenceIndex.removeAll(si);
+    int batchSize = Math.max(1, properties.getCascadeBatchSize());
+    List<ReferenceIndex.Reference> references = new ArrayList<>(batchSize);
+    for (Class<?> clazz : metaModel.getClasses()) {
+      for (Association assoc : metaModel.getReferenceIndexedAssociations(clazz)) {
+        try (org.hibernate.ScrollableResults rows = si
+            .createQuery(assoc.getReferenceIndexRebuildQuery(), Object[].class).setFetchSize(batchSize)
+            .scroll(org.hibernate.ScrollMode.FORWARD_ONLY)) {
+          while (rows.next()) {
+            references.add(new ReferenceIndex.Reference(assoc, (Long) rows.get(0), (Long) rows.get(1)));
+            if (references.size() == batchSize) {
+              ReferenceIndex.add(references, si);
+              references.clear();
+            }
+          }
+        }
+      }
+    }
+    ReferenceIndex.add(references, si);
+  }
+
+  /**
+   * Apply all queued cascades of new versions over deferred associations (see
+   * {@link de.hbt.entity.versioning.annotations.CascadeNewVersion.Mode#DEFERRED}) now, instead of waiting for the
+   * background worker. Each batch is applied in its own new transaction.
+   *
+   * @return the number of entities whose new versions were cascaded
+   */
+  public int applyDeferredCascades() {
+    return deferredCascadeWorker.applyDeferredCascades();
+  }
+
+  /**
+   * Get the queued deferred cascades which are no longer applied, because they failed
+   * {@code entity-versioning.deferred-cascade-max-attempts} times. This must be called within a transaction.
+   *
+   * @return the abandoned cascades
+   */
+  public List<DeferredCascade> getAbandonedDeferredCascades() {
+    List<DeferredCascade> cascades = new ArrayList<>();
+    for (DeferredCascadeQueue.Entry entry : DeferredCascadeQueue.abandoned(properties.getDeferredCascadeMaxAttempts(),
+        entityManager.unwrap(org.hibernate.engine.spi.SessionImplementor.class)))
+      cascades.add(entry.toDeferredCascade());
+    return cascades;
+  }
+
+  /**
+   * Remove the queued deferred cascades which are no longer applied, because they failed
+   * {@code entity-versioning.deferred-cascade-max-attempts} times. This must be called within a transaction.
+   *
+   * @return the number of removed cascades
+   */
+  public int purgeAbandonedDeferredCascades() {
+    return DeferredCascadeQueue.removeAbandoned(properties.getDeferredCascadeMaxAttempts(),
+        entityManager.unwrap(org.hibernate.engine.spi.SessionImplementor.class));
+  }
 }
@@ -2,12 +2,9 @@ package de.hbt.entity.versioning;
 
 import java.io.*;
 import java.util.*;
-import java.util.concurrent.*;
 
 import javax.persistence.*;
 
-import org.hibernate.persister.entity.*;
-
 import lombok.*;
 
 /** hashCode/equals via (type, id) equality. */
@@ -45,69 +42,56 @@ class Ref {
   }
 }
 
+/**
+ * An old version and the new version of an entity, whose new version still has to be cascaded to the entities
+ * referencing the old version.
+ */
+@RequiredArgsConstructor
+class NewVersion {
+  final Object oldVersion;
+  final Object newVersion;
+}
+
 /** Holds information about old and new versions of entities and old/new versions of collections. */
 class VersioningContext {
   Map<EntityKey, Object> versionsToArchive = new HashMap<>();
   Map<EntityKey, EntityKey> newVersionMapping = new HashMap<>();
   Map<EntityKey, Ref> versionsToPersist = new HashMap<>();
   Map<Object, Object> handledCollections = new IdentityHashMap<>();
-
-  /** Key for caching (entity Class, property name) -> property index */
-  @AllArgsConstructor
-  static @Data class EntityProperty {
-    Class<?> entityClass;
-    String propertyName;
-  }
-
-  /** (entity Class, property name) -> property index */
-  private static final Map<EntityProperty, Integer> ENTITY_PROPERTY_NAME_INDICES_CACHE = new ConcurrentHashMap<>();
-
   /**
-   * Find the index of the property with the given name inside of the properties managed by the given
-   * {@link EntityPersister}.
-   *
-   * @param ep   the {@link EntityPersister} managing the properties of an entity class
-   * @param name the name of the searched property
-   * @return the index of the name or -1 if not found
+   * The new versions created since the last cascade wave, whose owners are looked up together in the next wave.
    */
-  static int findPropertyIndex(EntityPersister ep, String name) {
-    EntityProperty key = new EntityProperty(ep.getMappedClass(), name);
-    Integer propertyIndex = ENTITY_PROPERTY_NAME_INDICES_CACHE.get(key);
-    if (propertyIndex != null)
-      return propertyIndex.intValue();
-    String[] names = ep.getPropertyNames();
-    int index = -1;
-    for (int i = 0; i < names.length; i++)
-      if (name.equals(names[i])) {
-        index = i;
-        break;
-      }
-    ENTITY_PROPERTY_NAME_INDICES_CACHE.put(key, Integer.valueOf(index));
-    return index;
-  }
-
+  List<NewVersion> pendingCascades = new ArrayList<>();
+  /** The number of new versions per entity type created by cascading in the current transaction. */
+  Map<Class<?>, Integer> cascadedNewVersions = new HashMap<>();
+  /** The number of owners per entity type looked up when cascading in the current transaction. */
+  Map<Class<?>, Integer> cascadeOwnerRows = new HashMap<>();
+  /** The cascade budget limits per entity type which were already exceeded (and reported) in this transaction. */
+  Map<Class<?>, Set<VersioningProperties.CascadeLimit>> exceededCascadeLimits = new HashMap<>();
   /**
-   * Find the index of the property with the given name inside of the given properties array.
-   *
-   * @param clazz the entity class
-   * @param names the entity's property names
-   * @param name  the name of the searched property
-   * @return the index of the name or -1 if not found
+   * The entity types whose cascade budget was exceeded with {@link VersioningProperties.CascadeBudgetAction#DEFER}, so
+   * that the new versions referenced by any further owner of these types are added to the {@link #deferredCascades}.
    */
-  static int findPropertyIndex(Class<?> clazz, String[] names, String name) {
-    EntityProperty key = new EntityProperty(clazz, name);
-    Integer propertyIndex = ENTITY_PROPERTY_NAME_INDICES_CACHE.get(key);
-    if (propertyIndex != null)
-      return propertyIndex.intValue();
-    int index = -1;
-    for (int i = 0; i < names.length; i++)
-      if (name.equals(names[i])) {
-        index = i;
-        break;
-      }
-    ENTITY_PROPERTY_NAME_INDICES_CACHE.put(key, Integer.valueOf(index));
-    return index;
-  }
+  Set<Class<?>> deferringOwnerTypes = new HashSet<>();
+  /** The owners whose references have to be (re)written to the {@link ReferenceIndex} after the flush. */
+  Map<Object, Object> referenceIndexOwners = new IdentityHashMap<>();
+  /** The owners (e.g. archived versions) whose references have to be removed from the {@link ReferenceIndex}. */
+  Set<EntityKey> referenceIndexRemovals = new LinkedHashSet<>();
+  /**
+   * The new versions whose cascade over deferred associations, or to owners over their cascade budget, has to be queued
+   * after the flush.
+   */
+  List<NewVersion> deferredCascades = new ArrayList<>();
+  /**
+   * Whether this transaction applies queued deferred cascades (see {@link DeferredCascadeWorker}), so that the
+   * {@link #pendingCascades} of the first level are cascaded over all associations, including the deferred ones.
+   */
+  boolean applyingDeferredCascades;
+  /**
+   * The database snapshots of the entities of the current flush, loaded in batches before checking them for dirty
+   * properties. Entities not contained here have their snapshot loaded on demand.
+   */
+  Map<Object, Object[]> databaseSnapshots = new IdentityHashMap<>();
 
   /** Determine whether the given entity is a new version of some old entity. */
   boolean isNewVersion(Object e, MetaModel metaModel) {
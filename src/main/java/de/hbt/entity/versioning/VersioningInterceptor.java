@@ -1,7 +1,6 @@
 package de.hbt.entity.versioning;
 
 import static de.hbt.entity.versioning.ClassUtils.*;
-import static de.hbt.entity.versioning.VersioningContext.*;
 
 import java.io.*;
 import java.math.*;
@@ -9,15 +8,16 @@ import java.time.*;
 import java.util.*;
 import java.util.Map.*;
 import java.util.function.*;
+import java.util.stream.*;
 
 import javax.persistence.*;
-import javax.persistence.metamodel.*;
 
 import org.springframework.beans.factory.annotation.*;
 import org.springframework.context.annotation.*;
 import org.springframework.stereotype.*;
 
 import de.hbt.entity.versioning.Association.*;
+import de.hbt.entity.versioning.VersioningProperties.*;
 import de.hbt.entity.versioning.annotations.*;
 import de.hbt.entity.versioning.exception.*;
 import lombok.extern.slf4j.*;
@@ -78,6 +78,10 @@ class VersioningInterceptor extends org.hibernate.EmptyInterceptor {
   @Autowired
   private transient MetaModel metamodel;
 
+  /** The configuration properties. */
+  @Autowired
+  private transient VersioningProperties properties;
+
   /** Supplier for "now". */
   @Autowired
   private transient Supplier<Instant> nowSupplier;
@@ -126,8 +130,8 @@ class VersioningInterceptor extends org.hibernate.EmptyInterceptor {
       throw new VersioningException("Creating user, as supplied by the Supplier<Principal> when saving new ["
           + realClass.getSimpleName() + "] entity was null.", null);
     }
-    metamodel.setModificationDate(entity, state, propertyNames, createdAt);
-    metamodel.setModifyingUser(entity, state, propertyNames, createdBy);
+    metamodel.setModificationDate(entity, state, createdAt);
+    metamodel.setModifyingUser(entity, state, createdBy);
     if (metamodel.isVersioned(entity)) {
       org.hibernate.engine.spi.SessionImplementor si = entityManager
           .unwrap(org.hibernate.engine.spi.SessionImplementor.class);
@@ -141,26 +145,177 @@ class VersioningInterceptor extends org.hibernate.EmptyInterceptor {
             + "] must have version = 0 but had version = " + version);
       } else if (!isNewVersion) {
         /* Set the initial version to 1 */
-        metamodel.setVersionOf(entity, state, propertyNames, 1L);
+        metamodel.setVersionOf(entity, state, 1L);
         /* If there is a "(originally) creating user", set it now */
-        metamodel.setCreatingUser(entity, state, propertyNames, createdBy);
+        metamodel.setCreatingUser(entity, state, createdBy);
         /* Set creation date */
-        metamodel.setCreationDate(entity, state, propertyNames, createdAt);
+        metamodel.setCreationDate(entity, state, createdAt);
         org.hibernate.FlushMode fm = si.getHibernateFlushMode();
         si.setHibernateFlushMode(org.hibernate.FlushMode.MANUAL);
         try {
           /* Check if the entity already has an identity, if not, create one */
-          metamodel.ensureIdentity(entity, state, propertyNames, entityManager);
+          metamodel.ensureIdentity(entity, state, entityManager);
         } finally {
           si.setHibernateFlushMode(fm);
         }
         /* Mark this entity as its own newest version */
         vctx.newVersionMapping.put(key, key);
       }
+      if (isReferenceIndexed(realClass))
+        vctx.referenceIndexOwners.put(entity, entity);
+      /* Hash the content of the version, now that all versioning fields are set */
+      ContentHasher hasher = metamodel.getContentHasher(realClass);
+      if (hasher != null)
+        metamodel.setContentHash(entity, state, hasher.hash(state, metamodel::getIdOf));
     }
     return true;
   }
 
+  /**
+   * Keep the {@link ContentHash} in sync with the content when Hibernate updates a new version which was modified after
+   * it had been saved in the same flush, e.g. because a new version of a referenced entity was created afterwards.
+   */
+  @Override
+  public boolean onFlushDirty(Object entity, Serializable id, Object[] currentState, Object[] previousState,
+      String[] propertyNames, org.hibernate.type.Type[] types) {
+    if (isReferenceIndexed(entity.getClass()))
+      currentVersioningContext().referenceIndexOwners.put(entity, entity);
+    ContentHasher hasher = metamodel.getContentHasher(entity.getClass());
+    if (hasher == null)
+      return false;
+    String hash = hasher.hash(currentState, metamodel::getIdOf);
+    if (Objects.equals(hash, currentState[metamodel.getContentHashIndex(entity.getClass())]))
+      return false;
+    metamodel.setContentHash(entity, currentState, hash);
+    return true;
+  }
+
+  @Override
+  public void onDelete(Object entity, Serializable id, Object[] state, String[] propertyNames,
+      org.hibernate.type.Type[] types) {
+    if (isReferenceIndexed(entity.getClass())) {
+      VersioningContext vctx = currentVersioningContext();
+      vctx.referenceIndexOwners.remove(entity);
+      vctx.referenceIndexRemovals.add(new EntityKey(findNonProxyClass(entity.getClass()), id));
+    }
+  }
+
+  @Override
+  public void onCollectionRecreate(Object collection, Serializable key) {
+    referenceIndexCollectionChanged(collection);
+  }
+
+  @Override
+  public void onCollectionRemove(Object collection, Serializable key) {
+    referenceIndexCollectionChanged(collection);
+  }
+
+  @Override
+  public void onCollectionUpdate(Object collection, Serializable key) {
+    referenceIndexCollectionChanged(collection);
+  }
+
+  /**
+   * Remember to rewrite the references of the owner of the given collection to the {@link ReferenceIndex}, since
+   * Hibernate writes a change of the collection (of a new version modified again in the same transaction).
+   */
+  private void referenceIndexCollectionChanged(Object collection) {
+    if (!(collection instanceof org.hibernate.collection.spi.PersistentCollection))
+      return;
+    Object owner = ((org.hibernate.collection.spi.PersistentCollection) collection).getOwner();
+    if (owner != null && isReferenceIndexed(owner.getClass()))
+      currentVersioningContext().referenceIndexOwners.put(owner, owner);
+  }
+
+  /**
+   * Queue the deferred cascades and write the changed references of the flushed entities to the
+   * {@link ReferenceIndex}, now that all new entities (including the new versions) have their ids.
+   */
+  @Override
+  public void postFlush(@SuppressWarnings("rawtypes") Iterator entities) {
+    org.hibernate.engine.spi.SessionImplementor si = entityManager
+        .unwrap(org.hibernate.engine.spi.SessionImplementor.class);
+    VersioningContext vctx = versioningContextFor(si.getTransaction());
+    if (!vctx.deferredCascades.isEmpty())
+      queueDeferredCascades(si, vctx);
+    if (properties.isReferenceIndex()
+        && (!vctx.referenceIndexOwners.isEmpty() || !vctx.referenceIndexRemovals.isEmpty()))
+      updateReferenceIndex(si, vctx);
+  }
+
+  /**
+   * Queue the new versions which still have to be cascaded over deferred associations, or to owners over their cascade
+   * budget, in the {@link DeferredCascadeQueue}, within the same transaction. A new version is queued only once, even
+   * if it was deferred for both reasons.
+   */
+  private void queueDeferredCascades(org.hibernate.engine.spi.SessionImplementor si, VersioningContext vctx) {
+    org.hibernate.metamodel.spi.MetamodelImplementor hibernateMetamodel = si.getFactory().getMetamodel();
+    Map<EntityKey, DeferredCascadeQueue.Entry> entries = new LinkedHashMap<>();
+    for (NewVersion nv : vctx.deferredCascades) {
+      Class<?> entityClass = findNonProxyClass(nv.oldVersion.getClass());
+      Long oldId = (Long) metamodel.getIdOf(nv.oldVersion);
+      entries.computeIfAbsent(new EntityKey(entityClass, oldId),
+          k -> new DeferredCascadeQueue.Entry(hibernateMetamodel.entityPersister(entityClass).getEntityName(), oldId,
+              (Long) metamodel.getIdOf(nv.newVersion)));
+    }
+    DeferredCascadeQueue.add(new ArrayList<>(entries.values()), si);
+    vctx.deferredCascades.clear();
+  }
+
+  /**
+   * Write the changed references of the flushed entities to the {@link ReferenceIndex}.
+   */
+  private void updateReferenceIndex(org.hibernate.engine.spi.SessionImplementor si, VersioningContext vctx) {
+    org.hibernate.metamodel.spi.MetamodelImplementor hibernateMetamodel = si.getFactory().getMetamodel();
+    /* Remove all references of the removed and of the changed owners... */
+    Map<String, List<Long>> removedOwnerIds = new LinkedHashMap<>();
+    for (EntityKey key : vctx.referenceIndexRemovals) {
+      removedOwnerIds.computeIfAbsent(hibernateMetamodel.entityPersister(key.getType()).getEntityName(),
+          n -> new ArrayList<>()).add((Long) key.getId());
+    }
+    /* ...and add the current references of the changed owners which are still live */
+    List<ReferenceIndex.Reference> references = new ArrayList<>();
+    for (Object owner : vctx.referenceIndexOwners.keySet()) {
+      Class<?> realClass = findNonProxyClass(owner.getClass());
+      Long ownerId = (Long) metamodel.getIdOf(owner);
+      if (ownerId == null)
+        continue;
+      removedOwnerIds.computeIfAbsent(hibernateMetamodel.entityPersister(realClass).getEntityName(),
+          n -> new ArrayList<>()).add(ownerId);
+      if (!si.contains(owner) || metamodel.isArchived(owner))
+        continue;
+      for (Association assoc : metamodel.getReferenceIndexedAssociations(realClass)) {
+        Object value = assoc.read(owner);
+        Collection<?> targets = assoc.getKind() == Kind.SINGULAR ? Collections.singleton(value) : (Collection<?>) value;
+        if (targets == null)
+          continue;
+        for (Object target : targets) {
+          Serializable targetId = target != null ? metamodel.getIdOf(target) : null;
+          if (targetId != null)
+            references.add(new ReferenceIndex.Reference(assoc, ownerId, (Long) targetId));
+        }
+      }
+    }
+    int batchSize = Math.max(1, properties.getCascadeBatchSize());
+    for (Map.Entry<String, List<Long>> e : removedOwnerIds.entrySet())
+      ReferenceIndex.removeOwners(e.getKey(), e.getValue(), batchSize, si);
+    ReferenceIndex.add(references, si);
+    vctx.referenceIndexOwners.clear();
+    vctx.referenceIndexRemovals.clear();
+  }
+
+  /**
+   * Whether the references of the given entity class are kept in the {@link ReferenceIndex}.
+   */
+  private boolean isReferenceIndexed(Class<?> clazz) {
+    return properties.isReferenceIndex() && !metamodel.getReferenceIndexedAssociations(clazz).isEmpty();
+  }
+
+  private VersioningContext currentVersioningContext() {
+    return versioningContextFor(
+        entityManager.unwrap(org.hibernate.engine.spi.SessionImplementor.class).getTransaction());
+  }
+
   /**
    * Get the {@link VersioningContext} for the given Hibernate Transaction.
    *
@@ -203,10 +358,16 @@ class VersioningInterceptor extends org.hibernate.EmptyInterceptor {
         .unwrap(org.hibernate.engine.spi.SharedSessionContractImplementor.class);
     org.hibernate.engine.spi.SessionImplementor si = entityManager
         .unwrap(org.hibernate.engine.spi.SessionImplementor.class);
-    /* Create a shallow copy of the modified entities in the given Iterator 'it' */
+    /*
+     * Create a shallow copy of the versioned entities in the given Iterator 'it', which contains ALL entities of the
+     * persistence context, leaving out those which were merely read.
+     */
     List<Object> entities = new ArrayList<>();
-    while (it.hasNext())
-      entities.add((Object) it.next());
+    while (it.hasNext()) {
+      Object e = it.next();
+      if (metamodel.isVersioned(e) && !isReadOnlyArchived(e, ssci) && !isUnmodifiedSinceLoaded(e, ssci))
+        entities.add(e);
+    }
     /* Get or create a VersioningContext for the current transaction */
     VersioningContext vctx = versioningContextFor(ssci.getTransaction());
     /*
@@ -215,24 +376,28 @@ class VersioningInterceptor extends org.hibernate.EmptyInterceptor {
     org.hibernate.FlushMode fm = si.getHibernateFlushMode();
     si.setHibernateFlushMode(org.hibernate.FlushMode.MANUAL);
     try {
+      /* Load the database snapshots of all modified entities up front with as few SELECTs as possible */
+      loadDatabaseSnapshots(entities, ssci, vctx);
       /* Analyze the entities to find modified scalar properties */
       for (Object e : entities) {
-        if (metamodel.isVersioned(e)) {
-          /* Handle the modified entity */
-          handle(e, entityManager, ssci, si, vctx);
-        }
+        /* Handle the modified entity */
+        handle(e, entityManager, ssci, si, vctx);
       }
+      /* Cascade the new versions to the entities referencing them */
+      cascadeNewVersions(entityManager, si, ssci, vctx);
       /*
        * Handle modified collections after handling the entities. This is necessary since entity modifications can lead
        * to collection elements being modified.
        */
       handleCollections(entityManager, si, ssci, vctx);
+      cascadeNewVersions(entityManager, si, ssci, vctx);
       /*
        * Mark old entity versions as archived, detach them from the persistence context as well as persist the new
        * versions.
        */
       afterUpdate(entityManager, vctx);
     } finally {
+      vctx.databaseSnapshots.clear();
       /*
        * Reestablish the previous flush mode.
        */
@@ -240,6 +405,89 @@ class VersioningInterceptor extends org.hibernate.EmptyInterceptor {
     }
   }
 
+  /**
+   * Check whether the given entity is an archived version which was loaded read-only, because
+   * {@link VersioningProperties#isReadOnlyArchivedVersions()} is enabled. Hibernate does not flush such entities, so
+   * they need no checks either.
+   *
+   * @param e    the entity
+   * @param ssci the {@link org.hibernate.engine.spi.SharedSessionContractImplementor}
+   * @return <code>true</code> if the entity is a read-only archived version
+   */
+  private boolean isReadOnlyArchived(Object e, org.hibernate.engine.spi.SharedSessionContractImplementor ssci) {
+    if (!properties.isReadOnlyArchivedVersions())
+      return false;
+    org.hibernate.engine.spi.EntityEntry entry = ssci.getPersistenceContext().getEntry(e);
+    return entry != null && entry.getStatus() == org.hibernate.engine.spi.Status.READ_ONLY && metamodel.isArchived(e);
+  }
+
+  /**
+   * Check whether the given entity is unmodified since it was loaded (or last flushed), using the same in-memory
+   * comparison with the loaded state which Hibernate's own flush uses, or the dirty tracking of bytecode-enhanced
+   * entities. Such entities cannot have dirty properties and need no further checks.
+   *
+   * @param e    the entity
+   * @param ssci the {@link org.hibernate.engine.spi.SharedSessionContractImplementor}
+   * @return <code>true</code> if the entity is known to be unmodified; <code>false</code> if it may be modified
+   */
+  private boolean isUnmodifiedSinceLoaded(Object e, org.hibernate.engine.spi.SharedSessionContractImplementor ssci) {
+    if (!properties.isSkipUnmodifiedEntities())
+      return false;
+    org.hibernate.engine.spi.EntityEntry entry = ssci.getPersistenceContext().getEntry(e);
+    if (entry == null || entry.getStatus() != org.hibernate.engine.spi.Status.MANAGED || entry.getLoadedState() == null)
+      return false;
+    if (e instanceof org.hibernate.engine.spi.SelfDirtinessTracker)
+      return !((org.hibernate.engine.spi.SelfDirtinessTracker) e).$$_hibernate_hasDirtyAttributes();
+    org.hibernate.persister.entity.EntityPersister ep = entry.getPersister();
+    try {
+      return ep.findDirty(ep.getPropertyValues(e), entry.getLoadedState(), e, ssci) == null;
+    } catch (org.hibernate.TransientObjectException ex) {
+      /* References a new entity, which Hibernate's flush will only persist (via cascade) later */
+      return false;
+    }
+  }
+
+  /**
+   * Load the database snapshots of all given entities that will be checked for dirty properties with one SELECT per
+   * entity type (and chunk of {@link VersioningProperties#getSnapshotBatchSize()} entities) and store them in the
+   * {@link VersioningContext#databaseSnapshots}.
+   */
+  private void loadDatabaseSnapshots(List<Object> entities,
+      org.hibernate.engine.spi.SharedSessionContractImplementor ssci, VersioningContext vctx) {
+    int batchSize = properties.getSnapshotBatchSize();
+    if (batchSize <= 1 && properties.getDirtyCheckMode() == DirtyCheckMode.DATABASE)
+      return;
+    Map<SnapshotQuery, List<Object>> entitiesByQuery = new LinkedHashMap<>();
+    Map<SnapshotQuery, List<Serializable>> idsByQuery = new HashMap<>();
+    for (Object e : entities) {
+      if (!metamodel.isVersioned(e) || !entityManager.contains(e) || vctx.isNewVersion(e, metamodel))
+        continue;
+      /* Bytecode-enhanced entities track their dirty attributes themselves */
+      if (e instanceof org.hibernate.engine.spi.SelfDirtinessTracker)
+        continue;
+      /* Neither do entities whose content hash proves them to be unmodified */
+      if (hasUnchangedContentHash(e, ssci))
+        continue;
+      if (properties.getDirtyCheckMode() == DirtyCheckMode.LOADED_STATE) {
+        Object[] loadedState = loadedStateSnapshot(e, ssci, vctx);
+        if (loadedState != null) {
+          vctx.databaseSnapshots.put(e, loadedState);
+          continue;
+        }
+      }
+      SnapshotQuery query = metamodel.getSnapshotQuery(e.getClass());
+      if (query == null)
+        continue;
+      entitiesByQuery.computeIfAbsent(query, q -> new ArrayList<>()).add(e);
+      idsByQuery.computeIfAbsent(query, q -> new ArrayList<>()).add(metamodel.getIdOf(e));
+    }
+    for (Map.Entry<SnapshotQuery, List<Object>> e : entitiesByQuery.entrySet()) {
+      /* A single entity is loaded just as fast on demand */
+      if (e.getValue().size() > 1 && batchSize > 1)
+        e.getKey().load(e.getValue(), idsByQuery.get(e.getKey()), batchSize, ssci, vctx.databaseSnapshots);
+    }
+  }
+
   /**
    * Call {@link VersioningListener#onEntityArchived(Object, Serializable)} on all registered {@link VersioningListener
    * listeners} when the given entity <code>e</code> with the given <code>id</code> has been archived, because a new
@@ -262,35 +510,66 @@ class VersioningInterceptor extends org.hibernate.EmptyInterceptor {
     }
   }
 
+  private void fireOnCascadeBudgetExceeded(Class<?> entityClass, CascadeLimit limit, int max, long actual,
+      CascadeBudgetAction action) {
+    if (versioningListeners == null)
+      return;
+    for (VersioningListener listener : versioningListeners) {
+      try {
+        listener.onCascadeBudgetExceeded(entityClass, limit, max, actual, action);
+      } catch (Exception ex) {
+        log.error("Exception while notifying [" + listener + "] about exceeded cascade budget of ["
+            + entityClass.getSimpleName() + "]", ex);
+      }
+    }
+  }
+
   /**
    * Mark old entity versions as archived, detach them from the persistence context as well as persist the new versions.
    */
   private void afterUpdate(EntityManager em, VersioningContext vctx) {
     /*
-     * For all old versions we did not yet update to set to archived, do it now.
+     * For all old versions we did not yet update to set to archived, do it now. Group them by entity class, so that
+     * they can be archived with one UPDATE statement per entity class (and chunk of ids).
      */
+    Map<Class<?>, Map<Serializable, Object>> versionsToArchiveByClass = new LinkedHashMap<>();
     for (Map.Entry<EntityKey, Object> e : vctx.versionsToArchive.entrySet()) {
-      /*
-       * Set old version to archived using a direct SQL UPDATE statement.
-       */
-      Serializable oldId = e.getKey().getId();
       Class<?> realClass = findNonProxyClass(e.getValue().getClass());
-      String archivedField = metamodel.getArchivedFieldName(realClass);
-      if (archivedField != null) {
-        int count = em.createQuery("UPDATE " + findNonProxyClass(realClass).getSimpleName() + " SET " + archivedField
-            + " = TRUE WHERE id = :id AND " + archivedField + " = FALSE").setParameter("id", oldId).executeUpdate();
-        if (count != 1) { // sanity check
-          throw new CouldNotArchiveException(
-              "Could not set archived flag for an already archived [" + realClass.getSimpleName() + "#" + oldId + "]");
+      versionsToArchiveByClass.computeIfAbsent(realClass, c -> new LinkedHashMap<>()).put(e.getKey().getId(),
+          e.getValue());
+    }
+    int batchSize = Math.max(1, properties.getCascadeBatchSize());
+    for (Map.Entry<Class<?>, Map<Serializable, Object>> e : versionsToArchiveByClass.entrySet()) {
+      Class<?> realClass = e.getKey();
+      String archiveStatement = metamodel.getArchiveStatement(realClass);
+      if (archiveStatement != null) {
+        /*
+         * Set old versions to archived using a direct SQL UPDATE statement.
+         */
+        List<Serializable> oldIds = new ArrayList<>(e.getValue().keySet());
+        for (int from = 0; from < oldIds.size(); from += batchSize) {
+          List<Serializable> chunk = oldIds.subList(from, Math.min(from + batchSize, oldIds.size()));
+          int count = em.createQuery(archiveStatement).setParameter("ids", chunk).executeUpdate();
+          if (count != chunk.size()) { // sanity check
+            throw new CouldNotArchiveException("Could not set archived flag for an already archived ["
+                + realClass.getSimpleName() + "#" + chunk + "]");
+          }
         }
         /* Notify listeners */
-        fireOnEntityArchived(e.getValue(), oldId);
+        for (Map.Entry<Serializable, Object> oldVersion : e.getValue().entrySet())
+          fireOnEntityArchived(oldVersion.getValue(), oldVersion.getKey());
+        /* The archived versions are no longer owners in the reference index */
+        if (isReferenceIndexed(realClass)) {
+          for (Serializable oldId : e.getValue().keySet())
+            vctx.referenceIndexRemovals.add(new EntityKey(realClass, oldId));
+        }
       }
       /*
        * ensure dirty and inconsistent object representing the old version is detached so that no collection/join tables
        * are updated/emptied.
        */
-      em.detach(e.getValue());
+      for (Object oldVersion : e.getValue().values())
+        em.detach(oldVersion);
     }
     vctx.versionsToArchive.clear();
 
@@ -341,21 +620,39 @@ class VersioningInterceptor extends org.hibernate.EmptyInterceptor {
     @SuppressWarnings("unchecked")
     Map<org.hibernate.collection.spi.PersistentCollection, org.hibernate.engine.spi.CollectionEntry> collections = ssci
         .getPersistenceContext().getCollectionEntries();
-    for (Map.Entry<org.hibernate.collection.spi.PersistentCollection, org.hibernate.engine.spi.CollectionEntry> e : collections
-        .entrySet()) {
+    /*
+     * Iterate over a (cached) snapshot of the entries just like Hibernate's own flush does, since handling a modified
+     * collection can load further collections.
+     */
+    for (Map.Entry<org.hibernate.collection.spi.PersistentCollection, org.hibernate.engine.spi.CollectionEntry> e : collectionEntries(
+        collections)) {
       org.hibernate.collection.spi.PersistentCollection pc = e.getKey();
+      /*
+       * Collections whose role is known to belong to an entity which is not versioned are skipped without looking at
+       * the owner.
+       */
+      if (pc.getRole() != null && !metamodel.isVersionedCollectionRole(pc.getRole()))
+        continue;
+      /*
+       * Every modification of a PersistentCollection marks it as dirty until the next flush, so all collections which
+       * were merely loaded are skipped right away, unless the owner no longer references the PersistentCollection
+       * because it was replaced by another collection.
+       */
+      Collection<?> current = pc.isDirty() ? (Collection<?>) pc : replacingCollection(pc, e.getValue());
+      if (current == null)
+        continue;
       /*
        * Check if owner was not persisted yet or no versioned entity or collection was not modified
        */
-      if (!metamodel.isVersioned(pc.getOwner()) || !isCollectionDirty(pc))
+      if (!metamodel.isVersioned(pc.getOwner()) || !isCollectionDirty(pc, current, ssci))
         continue;
       /*
        * Check if it was a composite association. In that case, we want to mark the deleted collection element as
        * deleted = true.
        */
       String roleName = collectionRole(pc, e.getValue());
-      if (metamodel.isAssociationComposite(findNonProxyClass(pc.getOwner().getClass()), roleName)) {
-        List<Object> deletedElements = deletedElements(em, pc, vctx);
+      if (metamodel.isAssociationComposite(roleName)) {
+        List<Object> deletedElements = deletedElements(em, pc, current, ssci, vctx);
         for (Object o : deletedElements) {
           metamodel.markAsDeleted(o);
           handleScalarPropertiesModified(em, si, ssci, o, vctx, false, false);
@@ -365,6 +662,39 @@ class VersioningInterceptor extends org.hibernate.EmptyInterceptor {
     }
   }
 
+  /**
+   * Obtain the collection which replaced the given (unmodified)
+   * {@link org.hibernate.collection.spi.PersistentCollection} in its owner, if the owner's property was set to another
+   * collection (or <code>null</code>, which is treated as an empty collection). An uninitialized replaced collection is
+   * initialized, since its stored snapshot is needed to determine what changed.
+   *
+   * @param pc the persistent collection
+   * @param ce the collection entry
+   * @return the replacing collection, or <code>null</code> if the owner still references the given collection
+   */
+  private static Collection<?> replacingCollection(org.hibernate.collection.spi.PersistentCollection pc,
+      org.hibernate.engine.spi.CollectionEntry ce) {
+    Object owner = pc.getOwner();
+    org.hibernate.persister.collection.CollectionPersister cp = ce.getLoadedPersister();
+    if (owner == null || cp == null || !cp.getRole().startsWith(cp.getOwnerEntityPersister().getEntityName() + "."))
+      return null;
+    String propertyName = cp.getRole().substring(cp.getOwnerEntityPersister().getEntityName().length() + 1);
+    Object value = cp.getOwnerEntityPersister().getPropertyValue(owner, propertyName);
+    if (value == pc || value != null && !(value instanceof Collection))
+      return null;
+    if (!pc.wasInitialized())
+      pc.forceInitialization();
+    return value != null ? (Collection<?>) value : Collections.emptyList();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map.Entry<org.hibernate.collection.spi.PersistentCollection, org.hibernate.engine.spi.CollectionEntry>[] collectionEntries(
+      Map<org.hibernate.collection.spi.PersistentCollection, org.hibernate.engine.spi.CollectionEntry> collections) {
+    if (collections instanceof org.hibernate.internal.util.collections.IdentityMap)
+      return org.hibernate.internal.util.collections.IdentityMap.concurrentEntries(collections);
+    return collections.entrySet().toArray(new Map.Entry[0]);
+  }
+
   /**
    * Obtain the role (i.e. fully-qualified field name) of the given persistent collection.
    *
@@ -396,139 +726,324 @@ class VersioningInterceptor extends org.hibernate.EmptyInterceptor {
   }
 
   /**
-   * Will be called whenever a new version of an entity was created. We either get notified about such an event via
-   * {@link #preFlush(Iterator)} or via our own methods creating entities (e.g. when a collection owner was updated
-   * because of an updated collection) inside of {@link #handleCollectionModified}.
+   * Cascade all new versions created so far to the entities referencing their old versions, level by level: the new
+   * versions of one level are grouped by entity type, and the owners referencing any of them via an association are
+   * looked up with one query per association (and chunk of {@link VersioningProperties#getCascadeBatchSize()} ids).
+   * Each owner is then handled once for all new versions it references, and the new owner versions created for a level
+   * are cascaded in the next level, until no new versions are left. This uses an explicit work list instead of
+   * recursion, so that the cost is bounded by the size of the affected subgraph regardless of its depth.
    *
    * <p>
-   * It is here that we detect and update any referencing entities through their associations.
+   * New versions are created either via {@link #preFlush(Iterator)} or via our own methods creating entities (e.g. when
+   * a collection owner was updated because of an updated collection) inside of {@link #handleCollectionModified}.
+   */
+  private void cascadeNewVersions(EntityManager em, org.hibernate.engine.spi.SessionImplementor si,
+      org.hibernate.engine.spi.SharedSessionContractImplementor ssci, VersioningContext vctx) throws Exception {
+    int depth = 0;
+    while (!vctx.pendingCascades.isEmpty()) {
+      List<NewVersion> level = vctx.pendingCascades;
+      vctx.pendingCascades = new ArrayList<>();
+      cascadeLevel(em, si, ssci, level, ++depth, vctx);
+    }
+  }
+
+  /**
+   * Cascade the new versions of a single level to the entities referencing their old versions, enforcing the
+   * {@link VersioningProperties.CascadeBudget} of each owner type.
+   *
+   * @param depth the cascade depth of the owners of this level, starting with 1
    */
-  private void handleNewVersionOfEntity(EntityManager em, org.hibernate.engine.spi.SessionImplementor si,
-      org.hibernate.engine.spi.SharedSessionContractImplementor ssci, Object oldVersion, Object newVersion,
+  private void cascadeLevel(EntityManager em, org.hibernate.engine.spi.SessionImplementor si,
+      org.hibernate.engine.spi.SharedSessionContractImplementor ssci, List<NewVersion> level, int depth,
       VersioningContext vctx) throws Exception {
     /*
-     * Get the type/class and the primary key of the old entity version. We will use this below to check for other
-     * entities referencing the oldVersion.
+     * Group the new versions by the type/class and the primary key of their old versions. We will use this below to
+     * check for other entities referencing the old versions.
      */
-    Class<?> entityClass = findNonProxyClass(oldVersion.getClass());
-    Serializable oldVersionKey = metamodel.getIdOf(oldVersion);
+    Map<Class<?>, Map<Serializable, NewVersion>> newVersionsByClass = new LinkedHashMap<>();
+    for (NewVersion nv : level) {
+      Class<?> entityClass = findNonProxyClass(nv.oldVersion.getClass());
+      newVersionsByClass.computeIfAbsent(entityClass, c -> new LinkedHashMap<>()).put(metamodel.getIdOf(nv.oldVersion),
+          nv);
+    }
     /*
-     * Check which potential other entities could reference the updated entity via some "version cascading" association
-     * by using our association meta-model knowledge.
+     * Find the owners of all new versions of this level first, deduplicated by their entity key, so that each owner is
+     * handled (and gets a new version) only once, no matter how many of the new versions it references.
      */
-    for (Association assoc : metamodel.getIncomingAssociations(entityClass)) {
-      Class<?> referencingClass = assoc.getOwner();
-      String associationName = assoc.getName();
-      boolean isVersioned = metamodel.isVersioned(referencingClass);
+    Map<EntityKey, List<OwnerReference>> referencesByOwner = new LinkedHashMap<>();
+    int batchSize = Math.max(1, properties.getCascadeBatchSize());
+    for (Map.Entry<Class<?>, Map<Serializable, NewVersion>> e : newVersionsByClass.entrySet()) {
+      Map<Serializable, NewVersion> newVersionsById = e.getValue();
+      List<Serializable> oldVersionKeys = new ArrayList<>(newVersionsById.keySet());
+      boolean deferred = false;
       /*
-       * Find all entities of that type which reference the updated entity via the given assocation (i.e. fieldName).
-       * The association is either a scalar value or a collection, so use different queries for those two cases.
+       * Check which potential other entities could reference the updated entities via some "version cascading"
+       * association by using our association meta-model knowledge.
        */
-      List<Object> owners;
-      String archivedField = metamodel.getArchivedFieldName(referencingClass);
-      if (assoc.getKind() == Kind.SINGULAR) {
+      for (Association assoc : metamodel.getIncomingAssociations(e.getKey())) {
         /*
-         * Handle scalar/to-one associations. In this case, we simply use the fieldName.id
+         * Leave it to the DeferredCascadeWorker, unless it is applying the queued new versions. It then cascades them
+         * over all associations, since the immediate associations only find the owners whose cascade was deferred
+         * because of their cascade budget: all other owners already reference the new versions (or are archived).
          */
-        owners = si
-            .createQuery("FROM " + referencingClass.getSimpleName() + " WHERE " + associationName + ".id = :id"
-                + (isVersioned ? " AND " + archivedField + " = FALSE" : ""), Object.class)
-            .setParameter("id", oldVersionKey).getResultList();
-      } else {
-        owners = si
-            .createQuery("FROM " + referencingClass.getSimpleName() + " WHERE :entity MEMBER OF " + associationName
-                + (isVersioned ? " AND " + archivedField + " = FALSE" : ""), Object.class)
-            .setParameter("entity", oldVersion).getResultList();
+        if (assoc.isCascadeDeferred() && !(vctx.applyingDeferredCascades && depth == 1)) {
+          deferred = true;
+          continue;
+        }
+        for (int from = 0; from < oldVersionKeys.size(); from += batchSize) {
+          /*
+           * Find all entities of that type which reference any of the updated entities via the given assocation (i.e.
+           * fieldName), together with the id of the referenced entity.
+           */
+          List<Object[]> rows = findOwners(si, assoc,
+              oldVersionKeys.subList(from, Math.min(from + batchSize, oldVersionKeys.size())));
+          for (Object[] row : rows) {
+            EntityKey ownerKey = new EntityKey(findNonProxyClass(row[0].getClass()), metamodel.getIdOf(row[0]));
+            NewVersion newVersion = newVersionsById.get((Serializable) row[1]);
+            if (checkCascadeBudget(ownerKey.getType(), CascadeLimit.OWNER_ROWS,
+                vctx.cascadeOwnerRows.merge(ownerKey.getType(), 1, Integer::sum), vctx)
+                && deferCascades(Collections.singletonList(newVersion), vctx))
+              continue;
+            referencesByOwner.computeIfAbsent(ownerKey, k -> new ArrayList<>())
+                .add(new OwnerReference(row[0], assoc, newVersion));
+          }
+        }
       }
-      /* For each such entity... */
-      for (Object owner : owners) {
-        handleNewVersionOfEntityForOwner(em, si, ssci, oldVersion, newVersion, vctx, assoc, isVersioned, owner);
+      if (deferred)
+        vctx.deferredCascades.addAll(newVersionsById.values());
+    }
+    /* For each such entity... */
+    for (Map.Entry<EntityKey, List<OwnerReference>> e : referencesByOwner.entrySet()) {
+      Class<?> ownerClass = e.getKey().getType();
+      boolean isVersioned = metamodel.isVersioned(ownerClass);
+      /*
+       * When deferring, check the new versions limit before creating the new version, so that no owner over the
+       * budget gets a new version in this transaction
+       */
+      if (isVersioned && (checkCascadeBudget(ownerClass, CascadeLimit.DEPTH, depth, vctx)
+          || cascadeBudgetAction(ownerClass, vctx) == CascadeBudgetAction.DEFER
+              && checkCascadeBudget(ownerClass, CascadeLimit.NEW_VERSIONS,
+                  vctx.cascadedNewVersions.getOrDefault(ownerClass, 0) + 1, vctx))
+          && deferCascades(e.getValue().stream().map(r -> r.newVersion).collect(Collectors.toList()), vctx))
+        continue;
+      int versionsBefore = vctx.versionsToPersist.size();
+      handleNewVersionsOfEntitiesForOwner(em, si, ssci, vctx, e.getValue());
+      int newVersions = vctx.versionsToPersist.size() - versionsBefore;
+      if (newVersions > 0) {
+        checkCascadeBudget(ownerClass, CascadeLimit.NEW_VERSIONS,
+            vctx.cascadedNewVersions.merge(ownerClass, newVersions, Integer::sum), vctx);
       }
     }
   }
 
-  private void handleNewVersionOfEntityForOwner(EntityManager em, org.hibernate.engine.spi.SessionImplementor si,
-      org.hibernate.engine.spi.SharedSessionContractImplementor ssci, Object oldVersion, Object newVersion,
-      VersioningContext vctx, Association assoc, boolean isVersioned, Object owner) throws Exception {
+  /**
+   * Queue the given new versions referenced by an owner over its cascade budget in the {@link DeferredCascadeQueue}
+   * instead of cascading them to the owner now, if all of them can be queued (i.e. have a numeric id).
+   *
+   * @param newVersions the new versions referenced by the owner
+   * @return whether the new versions were queued
+   */
+  private boolean deferCascades(List<NewVersion> newVersions, VersioningContext vctx) {
+    for (NewVersion nv : newVersions) {
+      if (!(metamodel.getIdOf(nv.oldVersion) instanceof Long))
+        return false;
+    }
+    vctx.deferredCascades.addAll(newVersions);
+    return true;
+  }
+
+  /**
+   * Find all live owners which reference any of the given entities via the given association, either with the
+   * association's owner query or, if the association is indexed, via the {@link ReferenceIndex}.
+   *
+   * @param ids the ids of the referenced entities
+   * @return the pairs of owner and id of the referenced entity
+   */
+  private List<Object[]> findOwners(org.hibernate.engine.spi.SessionImplementor si, Association assoc,
+      List<Serializable> ids) {
+    if (!properties.isReferenceIndex() || assoc.getReferenceIndexTargetType() == null)
+      return si.createQuery(assoc.getOwnerQuery(), Object[].class).setParameter("ids", ids).getResultList();
+    List<Long[]> references = ReferenceIndex.findOwners(assoc, ids, si);
+    if (references.isEmpty())
+      return Collections.emptyList();
+    Set<Long> ownerIds = new LinkedHashSet<>();
+    for (Long[] reference : references)
+      ownerIds.add(reference[0]);
+    /* Load all owners at once */
+    Map<Serializable, Object> ownersById = new HashMap<>();
+    for (Object owner : si.byMultipleIds(assoc.getOwner()).multiLoad(new ArrayList<>(ownerIds))) {
+      if (owner != null && !metamodel.isArchived(owner))
+        ownersById.put(metamodel.getIdOf(owner), owner);
+    }
+    List<Object[]> rows = new ArrayList<>(references.size());
+    for (Long[] reference : references) {
+      Object owner = ownersById.get(reference[0]);
+      if (owner != null)
+        rows.add(new Object[] { owner, reference[1] });
+    }
+    return rows;
+  }
+
+  /**
+   * Check the given actual value against the given limit of the cascade budget of the given entity class. When the
+   * limit is exceeded, notify the {@link VersioningListener}s and either fail or log the exceeded limit, depending on
+   * the {@link VersioningProperties#getCascadeBudgetAction(Class)}. Each exceeded limit is only reported once per
+   * entity class and transaction when continuing or deferring.
+   *
+   * @return whether the cascades to the entities of the given class are deferred for the rest of the transaction
+   * @throws CascadeBudgetExceededException if the limit is exceeded and the action is to fail
+   */
+  private boolean checkCascadeBudget(Class<?> entityClass, CascadeLimit limit, long actual, VersioningContext vctx) {
+    if (vctx.deferringOwnerTypes.contains(entityClass))
+      return true;
+    Integer max = properties.getCascadeLimit(entityClass, limit);
+    if (max == null || actual <= max)
+      return false;
+    CascadeBudgetAction action = cascadeBudgetAction(entityClass, vctx);
+    boolean firstTime = vctx.exceededCascadeLimits
+        .computeIfAbsent(entityClass, c -> EnumSet.noneOf(CascadeLimit.class)).add(limit);
+    if (!firstTime && action == CascadeBudgetAction.CONTINUE)
+      return false;
+    fireOnCascadeBudgetExceeded(entityClass, limit, max, actual, action);
+    String message = "Cascading new versions exceeded the " + limit + " limit [" + max + "] of ["
+        + entityClass.getSimpleName() + "] with [" + actual + "]";
+    if (action == CascadeBudgetAction.FAIL)
+      throw new CascadeBudgetExceededException(message);
+    if (action == CascadeBudgetAction.DEFER) {
+      log.warn(message + ", deferring the remaining cascades");
+      vctx.deferringOwnerTypes.add(entityClass);
+      return true;
+    }
+    log.warn(message);
+    return false;
+  }
+
+  /**
+   * Get the action of the cascade budget of the given entity class. The {@link DeferredCascadeWorker} continues instead
+   * of deferring, since it applies the deferred cascades itself.
+   */
+  private CascadeBudgetAction cascadeBudgetAction(Class<?> entityClass, VersioningContext vctx) {
+    CascadeBudgetAction action = properties.getCascadeBudgetAction(entityClass);
+    if (action == CascadeBudgetAction.DEFER && vctx.applyingDeferredCascades)
+      return CascadeBudgetAction.CONTINUE;
+    return action;
+  }
+
+  /**
+   * Update all references of a single owner to entities which got a new version, and then handle the modified owner
+   * once.
+   *
+   * @param references the references of the owner, all with the same owner
+   */
+  private void handleNewVersionsOfEntitiesForOwner(EntityManager em, org.hibernate.engine.spi.SessionImplementor si,
+      org.hibernate.engine.spi.SharedSessionContractImplementor ssci, VersioningContext vctx,
+      List<OwnerReference> references) throws Exception {
     /*
      * For fetch=LAZY associations we might get a proxy instance here, but we NEED to get to the real entity, so
      * unproxy() it. If the object is already the real entity, it is returned.
      */
-    owner = si.getPersistenceContext().unproxy(owner);
-    /* if it is a scalar/to-one reference... */
-    if (assoc.getKind() == Kind.SINGULAR) {
-      /*
-       * Check if we already have a new version for this owner entity, in which case we need to set the new association
-       * end to that new entity version.
-       */
-      Object newOwnerVersion = null;
-      if (isVersioned) {
-        newOwnerVersion = vctx.newVersionOf(owner, em, metamodel);
-      }
-      if (newOwnerVersion != null)
-        owner = newOwnerVersion;
-      /* Write the association to set the new version */
-      assoc.write(owner, newVersion);
-      /*
-       * Has the referenced entity be marked as deleted and do we need to cascade that to the owner?
-       */
-      if (metamodel.isDeleted(newVersion) && assoc.isShouldCascadeDelete())
-        metamodel.markAsDeleted(owner);
-      if (isVersioned) {
+    Object owner = si.getPersistenceContext().unproxy(references.get(0).owner);
+    boolean isVersioned = metamodel.isVersioned(owner);
+    /*
+     * Check if we already have a new version for this owner entity, in which case we need to set the new association
+     * end to that new entity version.
+     */
+    Object newOwnerVersion = null;
+    if (isVersioned) {
+      newOwnerVersion = vctx.newVersionOf(owner, em, metamodel);
+    }
+    if (newOwnerVersion != null)
+      owner = newOwnerVersion;
+    boolean scalarModified = false;
+    List<org.hibernate.collection.spi.PersistentCollection> modifiedCollections = new ArrayList<>();
+    for (OwnerReference reference : references) {
+      Association assoc = reference.association;
+      Object oldVersion = reference.newVersion.oldVersion;
+      Object newVersion = reference.newVersion.newVersion;
+      /* if it is a scalar/to-one reference... */
+      if (assoc.getKind() == Kind.SINGULAR) {
+        /* Write the association to set the new version */
+        assoc.write(owner, newVersion);
         /*
-         * Handle the to-one association modification as a scalar property change by calling
-         * handleScalarPropertiesModified().
+         * Has the referenced entity be marked as deleted and do we need to cascade that to the owner?
+         */
+        if (metamodel.isDeleted(newVersion) && assoc.isShouldCascadeDelete())
+          metamodel.markAsDeleted(owner);
+        scalarModified = true;
+      } else {
+        /* It is a collection, so obtain the collection from the referencing entity */
+        Object modCollection = assoc.read(owner);
+        /*
+         * When we already handled this collection, we can skip it here. This happens for the second time Hibernate
+         * wants to initialize the collection of the same owner, since this PersistentCollection is still in the cache
+         * of the CollectionLoader. Therefore, whenever we modify a PersistentCollection the first time (see code below
+         * this if statement), we will get back the same PersistentCollection the second time.
+         */
+        if (vctx.handledCollections.containsKey(modCollection))
+          continue;
+        /*
+         * Update the collection to not contain the old entity version but instead the new entity version.
          *
-         * NOTE: This has the nice benefit of handling other yet unprocessed scalar property changes on that entity as
-         * well when creating a new version of the entity.
+         * NOTE: Use the primary key of the entity to remove and not any hashCode()/equals()-sensitive collection
+         * operation, since the object hashCode/equals has changed due to the id change.
          */
-        handleScalarPropertiesModified(em, si, ssci, owner, vctx, false, true);
-      }
-    } else {
-      /* It is a collection, so obtain the collection from the referencing entity */
-      Object modCollection = assoc.read(owner);
-      /*
-       * When we already handled this collection, we can abort here. This happens for the second time Hibernate wants to
-       * initialize the collection of the same owner, since this PersistentCollection is still in the cache of the
-       * CollectionLoader. Therefore, whenever we modify a PersistentCollection the first time (see code below this if
-       * statement), we will get back the same PersistentCollection the second time.
-       */
-      if (vctx.handledCollections.containsKey(modCollection))
-        return;
-      /*
-       * Explicitly mark the persistent collection as dirty.
-       *
-       * We need to do this when the owner is updated in a separate flush and afterwards a contained collection entry is
-       * updated in another flush. In this case, the new owner won't contain the new version of the collection entry
-       * anymore.
-       */
-      if (modCollection instanceof org.hibernate.collection.spi.PersistentCollection) {
-        ((org.hibernate.collection.spi.PersistentCollection) modCollection).dirty();
+        @SuppressWarnings("unchecked")
+        Collection<Object> asCollection = (Collection<Object>) modCollection;
+        Iterator<Object> iterator = asCollection.iterator();
+        boolean containsNewVersion = false;
+        while (iterator.hasNext()) {
+          Object curr = iterator.next();
+          if (curr == oldVersion)
+            iterator.remove();
+          containsNewVersion |= curr == newVersion;
+        }
+        if (!containsNewVersion)
+          asCollection.add(newVersion);
+        /*
+         * Remember the collection change, unless the owner already is a new version (whose collections were copied and
+         * are no longer persistent collections).
+         */
+        if (modCollection instanceof org.hibernate.collection.spi.PersistentCollection
+            && modifiedCollections.stream().noneMatch(c -> c == modCollection))
+          modifiedCollections.add((org.hibernate.collection.spi.PersistentCollection) modCollection);
       }
+    }
+    /*
+     * Explicitly mark the persistent collections as dirty.
+     *
+     * We need to do this when the owner is updated in a separate flush and afterwards a contained collection entry is
+     * updated in another flush. In this case, the new owner won't contain the new version of the collection entry
+     * anymore.
+     */
+    for (org.hibernate.collection.spi.PersistentCollection pc : modifiedCollections)
+      pc.dirty();
+    if (!isVersioned)
+      return;
+    if (scalarModified) {
       /*
-       * Update the collection to not contain the old entity version but instead the new entity version.
+       * Handle the to-one association modifications as a scalar property change by calling
+       * handleScalarPropertiesModified().
        *
-       * NOTE: Use the primary key of the entity to remove and not any hashCode()/equals()-sensitive collection
-       * operation, since the object hashCode/equals has changed due to the id change.
+       * NOTE: This has the nice benefit of handling other yet unprocessed scalar property changes on that entity as
+       * well when creating a new version of the entity.
        */
-      @SuppressWarnings("unchecked")
-      Collection<Object> asCollection = (Collection<Object>) modCollection;
-      Iterator<Object> iterator = asCollection.iterator();
-      boolean containsNewVersion = false;
-      while (iterator.hasNext()) {
-        Object curr = iterator.next();
-        if (curr == oldVersion)
-          iterator.remove();
-        containsNewVersion |= curr == newVersion;
-      }
-      if (!containsNewVersion)
-        asCollection.add(newVersion);
+      handleScalarPropertiesModified(em, si, ssci, owner, vctx, false, true);
+    }
+    /* Continue handling the collection changes */
+    for (org.hibernate.collection.spi.PersistentCollection pc : modifiedCollections)
+      handleCollectionModified(em, si, ssci, owner, pc, vctx);
+  }
 
-      /* Continue handling a collection change */
-      if (isVersioned) {
-        handleCollectionModified(em, si, ssci, owner, (org.hibernate.collection.spi.PersistentCollection) modCollection,
-            vctx);
-      }
+  /** A reference of an owner to an entity which got a new version, found when cascading that new version. */
+  private static class OwnerReference {
+    final Object owner;
+    final Association association;
+    final NewVersion newVersion;
+
+    OwnerReference(Object owner, Association association, NewVersion newVersion) {
+      this.owner = owner;
+      this.association = association;
+      this.newVersion = newVersion;
     }
   }
 
@@ -537,8 +1052,8 @@ class VersioningInterceptor extends org.hibernate.EmptyInterceptor {
    *
    * <p>
    * This method compares the database state of the entity with the current entity state in the persistence context, and
-   * if they differ, create a new version of that entity. It then delegates to {@link #handleNewVersionOfEntity} to
-   * update any affected entities as well.
+   * if they differ, create a new version of that entity. Any affected entities are then updated by
+   * {@link #cascadeNewVersions}.
    *
    * @param em              the {@link EntityManager}
    * @param si              the {@link org.hibernate.engine.spi.SessionImplementor} view on that {@link EntityManager}
@@ -566,7 +1081,7 @@ class VersioningInterceptor extends org.hibernate.EmptyInterceptor {
      * columns as updatable=false, so that when merging an entity's state into the database, only the non-metadata state
      * can be updated and only those columns will be used for the dirty check.
      */
-    if (checkDirty && !hasDirtyUpdatableScalarProperties(e, eKey, ep, si, ssci)) {
+    if (checkDirty && !hasDirtyUpdatableScalarProperties(e, eKey, ep, si, ssci, vctx)) {
       return;
     }
     /*
@@ -582,7 +1097,7 @@ class VersioningInterceptor extends org.hibernate.EmptyInterceptor {
     Object oldVersion = update(e, em, ssci, si, ep, vctx);
     Object newVersion = e;
     if (oldVersion != e && propagateChange)
-      handleNewVersionOfEntity(em, si, ssci, oldVersion, newVersion, vctx);
+      vctx.pendingCascades.add(new NewVersion(oldVersion, newVersion));
   }
 
   /**
@@ -594,29 +1109,163 @@ class VersioningInterceptor extends org.hibernate.EmptyInterceptor {
    * @param ep   the Hibernate EntityPersister corresponding to the given JPA entity
    * @param ssci the {@link org.hibernate.engine.spi.SharedSessionContractImplementor} view on that
    *             {@link EntityManager}
+   * @param vctx the versioning context holding the database snapshots loaded in advance
    * @return <code>true</code> if there is a difference; <code>false</code> otherwise
    */
   boolean hasDirtyUpdatableScalarProperties(Object e, Serializable eKey,
       org.hibernate.persister.entity.EntityPersister ep, org.hibernate.engine.spi.SessionImplementor si,
-      org.hibernate.engine.spi.SharedSessionContractImplementor ssci) {
+      org.hibernate.engine.spi.SharedSessionContractImplementor ssci, VersioningContext vctx) {
+    /*
+     * Bytecode-enhanced entities already know which attributes were changed, so we neither need a snapshot nor compare
+     * all properties.
+     */
+    Boolean trackedDirty = trackedDirtiness(e, ep);
+    if (trackedDirty != null)
+      return trackedDirty;
+    /*
+     * Entities with a content hash are unmodified if hashing their current content yields the stored hash.
+     */
+    if (hasUnchangedContentHash(e, ssci))
+      return false;
     /*
      * Retrieve a fresh copy of the current database snapshot. This needs a bit more explanation: Hibernate will execute
      * a SELECT statement to grab the column values of the entity from the database. Since Hibernate will ONLY fetch the
      * actual columns of the entity's database table, collections WILL NOT BE contained in the snapshot array. Also,
-     * non-updatable columns will have null values in the returned array!
+     * non-updatable columns will have null values in the returned array! The snapshot was usually loaded together with
+     * the snapshots of the other entities of the flush already.
      */
-    Object[] databaseSnapshot = ep.getDatabaseSnapshot(eKey, ssci);
+    Object[] databaseSnapshot = vctx.databaseSnapshots.remove(e);
+    if (databaseSnapshot == null && properties.getDirtyCheckMode() == DirtyCheckMode.LOADED_STATE)
+      databaseSnapshot = loadedStateSnapshot(e, ssci, vctx);
+    if (databaseSnapshot == null)
+      databaseSnapshot = ep.getDatabaseSnapshot(eKey, ssci);
+    else if (databaseSnapshot == SnapshotQuery.NO_SNAPSHOT)
+      databaseSnapshot = null;
     /* Was this entity already persisted in the database? */
     if (databaseSnapshot == null)
       return false;
     /* Retrieve the current values of the JPA entity POJO */
     Object[] propertyValues = ep.getPropertyValues(e);
-    /* Ask which properties are updatable */
-    boolean[] updatable = ep.getPropertyUpdateability();
-    org.hibernate.type.Type[] propertyTypes = ep.getPropertyTypes();
-    String[] propertyNames = ep.getPropertyNames();
-    return hasDirtyUpdatableScalarProperties(e, si, ssci, databaseSnapshot, propertyValues, propertyNames, updatable,
-        propertyTypes);
+    return hasDirtyUpdatableScalarProperties(e, si, ssci, metamodel.getDirtyCheckPlan(e.getClass()), databaseSnapshot,
+        propertyValues);
+  }
+
+  /**
+   * Determine whether the given entity has dirty updatable scalar properties using the dirty tracking of Hibernate's
+   * bytecode enhancement (which records every attribute changed via its setter), just like Hibernate's own flush does.
+   *
+   * @param e  the entity
+   * @param ep the Hibernate EntityPersister corresponding to the entity
+   * @return whether the entity is dirty or <code>null</code> if this cannot be determined without the database
+   *         snapshot, because the entity is not enhanced for dirty tracking or because its {@link Identity} was
+   *         changed and must be reset to the snapshot value
+   */
+  private Boolean trackedDirtiness(Object e, org.hibernate.persister.entity.EntityPersister ep) {
+    if (!(e instanceof org.hibernate.engine.spi.SelfDirtinessTracker))
+      return null;
+    org.hibernate.engine.spi.SelfDirtinessTracker tracker = (org.hibernate.engine.spi.SelfDirtinessTracker) e;
+    if (!tracker.$$_hibernate_hasDirtyAttributes())
+      return Boolean.FALSE;
+    int[] dirtyIndexes = ep.resolveAttributeIndexes(tracker.$$_hibernate_getDirtyAttributes());
+    DirtyCheckPlan plan = metamodel.getDirtyCheckPlan(e.getClass());
+    for (int i : dirtyIndexes) {
+      if (plan.kinds[i] == DirtyCheckPlan.Kind.IDENTITY)
+        return null;
+    }
+    for (int i : dirtyIndexes) {
+      if (plan.kinds[i] != DirtyCheckPlan.Kind.SKIP)
+        return handlePropertyModified(e, plan, i);
+    }
+    return Boolean.FALSE;
+  }
+
+  /**
+   * Check whether the current content of the given entity has the {@link ContentHash} stored with the loaded version,
+   * in which case none of its updatable properties was modified and the database snapshot is not needed.
+   *
+   * @param e    the entity
+   * @param ssci the {@link org.hibernate.engine.spi.SharedSessionContractImplementor}
+   * @return <code>true</code> if the entity is unmodified; <code>false</code> if it is modified or has no stored hash
+   */
+  private boolean hasUnchangedContentHash(Object e, org.hibernate.engine.spi.SharedSessionContractImplementor ssci) {
+    ContentHasher hasher = metamodel.getContentHasher(e.getClass());
+    if (hasher == null)
+      return false;
+    org.hibernate.engine.spi.EntityEntry entry = ssci.getPersistenceContext().getEntry(e);
+    if (entry == null || entry.getStatus() != org.hibernate.engine.spi.Status.MANAGED || entry.getLoadedState() == null)
+      return false;
+    Object[] loadedState = entry.getLoadedState();
+    Object storedHash = loadedState[metamodel.getContentHashIndex(e.getClass())];
+    if (storedHash == null)
+      return false;
+    Object[] values = entry.getPersister().getPropertyValues(e);
+    /* Properties which are not part of the content are compared directly */
+    for (int i : hasher.unhashedIndexes)
+      if (!Objects.equals(values[i], loadedState[i]))
+        return false;
+    return storedHash.equals(hasher.hash(values, metamodel::getIdOf));
+  }
+
+  /**
+   * Convert the state Hibernate remembered when loading the given entity into the form of a database snapshot, i.e.
+   * with referenced entities replaced by their ids, components replaced by arrays of their (converted) property values
+   * and <code>null</code> for all non-updatable properties.
+   *
+   * @param e    the entity
+   * @param ssci the {@link org.hibernate.engine.spi.SharedSessionContractImplementor}
+   * @param vctx the versioning context
+   * @return the snapshot or <code>null</code> if there is no usable loaded state and the database snapshot is needed
+   */
+  private Object[] loadedStateSnapshot(Object e, org.hibernate.engine.spi.SharedSessionContractImplementor ssci,
+      VersioningContext vctx) {
+    org.hibernate.engine.spi.EntityEntry entry = ssci.getPersistenceContext().getEntry(e);
+    if (entry == null || entry.getStatus() != org.hibernate.engine.spi.Status.MANAGED || entry.getLoadedState() == null)
+      return null;
+    org.hibernate.persister.entity.EntityPersister ep = entry.getPersister();
+    return toSnapshot(entry.getLoadedState(), ep.getPropertyTypes(), ep.getPropertyUpdateability(), ssci, vctx);
+  }
+
+  private Object[] toSnapshot(Object[] values, org.hibernate.type.Type[] types, boolean[] include,
+      org.hibernate.engine.spi.SharedSessionContractImplementor ssci, VersioningContext vctx) {
+    Object[] snapshot = new Object[values.length];
+    for (int i = 0; i < values.length; i++) {
+      if (include != null && !include[i] || values[i] == null || types[i].isCollectionType())
+        continue;
+      if (types[i].isEntityType()) {
+        snapshot[i] = loadedIdOf(values[i], ssci, vctx);
+        if (snapshot[i] == null)
+          return null;
+      } else if (types[i].isComponentType()) {
+        org.hibernate.type.ComponentType ct = (org.hibernate.type.ComponentType) types[i];
+        snapshot[i] = toSnapshot(ct.getPropertyValues(values[i], ssci), ct.getSubtypes(), null, ssci, vctx);
+        if (snapshot[i] == null)
+          return null;
+      } else {
+        snapshot[i] = values[i];
+      }
+    }
+    return snapshot;
+  }
+
+  /**
+   * Determine the id a referenced entity had when it was loaded, which is its id in the database snapshot.
+   *
+   * @return the id or <code>null</code> if it cannot be determined safely, because the referenced entity is not managed
+   *         or is a new version created in the current transaction (so its id changed)
+   */
+  private Serializable loadedIdOf(Object referenced, org.hibernate.engine.spi.SharedSessionContractImplementor ssci,
+      VersioningContext vctx) {
+    if (referenced instanceof org.hibernate.proxy.HibernateProxy) {
+      org.hibernate.proxy.LazyInitializer li = ((org.hibernate.proxy.HibernateProxy) referenced)
+          .getHibernateLazyInitializer();
+      if (li.isUninitialized())
+        return li.getIdentifier();
+      referenced = li.getImplementation();
+    }
+    org.hibernate.engine.spi.EntityEntry entry = ssci.getPersistenceContext().getEntry(referenced);
+    if (entry == null || entry.getId() == null || vctx.isNewVersion(referenced, metamodel))
+      return null;
+    return entry.getId();
   }
 
   /**
@@ -624,46 +1273,40 @@ class VersioningInterceptor extends org.hibernate.EmptyInterceptor {
    * difference between the two.
    *
    * <p>
-   * This method only checks for changes in scalar and updatable properties.
+   * This method only checks for changes in scalar and updatable properties, as determined by the precompiled
+   * {@link DirtyCheckPlan} of the entity.
    *
    * <p>
    * In addition to checking for differences in the properties, this method will also reset any possible modified
    * {@link Identity} property to the database snapshot value. This is to prevent Hibernate from persisting any possibly
    * changed/new identity object.
    *
-   * @param e                the JPA entity whose properties are checked
+   * @param e                the JPA entity (or embeddable) whose properties are checked
    * @param si               the {@link org.hibernate.engine.spi.SessionImplementor} view on that {@link EntityManager}
    * @param ssci             the {@link org.hibernate.engine.spi.SharedSessionContractImplementor} view on that
    *                         {@link EntityManager}
+   * @param plan             the plan of how to compare each property
    * @param databaseSnapshot the database snapshot values
    * @param propertyValues   the JPA entity's property values
-   * @param propertyNames    the names of the properties
-   * @param updatable        information about which properties are updatable
-   * @param propertyTypes    the Hibernate types of the properties
    * @return <code>true</code> if there is a difference; <code>false</code> otherwise
    */
   private boolean hasDirtyUpdatableScalarProperties(Object e, org.hibernate.engine.spi.SessionImplementor si,
-      org.hibernate.engine.spi.SharedSessionContractImplementor ssci, Object[] databaseSnapshot,
-      Object[] propertyValues, String[] propertyNames, boolean[] updatable, org.hibernate.type.Type[] propertyTypes) {
+      org.hibernate.engine.spi.SharedSessionContractImplementor ssci, DirtyCheckPlan plan, Object[] databaseSnapshot,
+      Object[] propertyValues) {
+    DirtyCheckPlan.Kind[] kinds = plan.kinds;
     /*
      * Iterate over each property and check whether the database snapshot version differs from the JPA entity property.
      */
-    for (int i = 0; i < databaseSnapshot.length; i++) {
-      /*
-       * Only check scalar and updatable properties.
-       */
-      if (!isScalarProperty(i, propertyTypes) || (updatable != null && !updatable[i]))
+    for (int i = 0; i < kinds.length; i++) {
+      DirtyCheckPlan.Kind kind = kinds[i];
+      if (kind == DirtyCheckPlan.Kind.SKIP)
         continue;
       Object dbValue = databaseSnapshot[i];
       Object propVal = propertyValues[i];
-      /*
-       * First, check whether this is an @Identity field which should be updatable.
-       */
-      if (propertyNames != null && metamodel.isIdentityProperty(e, propertyNames[i])) {
+      if (kind == DirtyCheckPlan.Kind.IDENTITY) {
         /* Reset identity */
-        Class<?> identityType = (Class<?>) propertyTypes[i].getReturnedClass();
-        if (identityType != Long.class) {
-          dbValue = si.getReference(identityType, dbValue);
+        if (plan.identityType != Long.class) {
+          dbValue = si.getReference(plan.identityType, dbValue);
         }
         metamodel.setIdentity(e, dbValue);
         /* Proceed with next property. */
@@ -673,43 +1316,45 @@ class VersioningInterceptor extends org.hibernate.EmptyInterceptor {
         /*
          * One is null where the other is not.
          */
-        return handlePropertyModified(e, propertyNames, i);
+        return handlePropertyModified(e, plan, i);
       } else if (propVal == null) {
         /*
          * They are both null. Follows from condition above.
          */
         continue;
-      } else if (propertyTypes[i].isEntityType()) {
+      }
+      switch (kind) {
+      case ENTITY_FK:
         /*
          * Snapshot will have the id and property value will be the JPA entity. So, extract the id from the JPA entity
          * object.
          */
         propVal = metamodel.getIdOf(propVal);
-        if (propVal == null) {
-          return handlePropertyModified(e, propertyNames, i);
-        }
-      } else if (propertyTypes[i].isComponentType()) {
+        if (propVal == null)
+          return handlePropertyModified(e, plan, i);
+        if (dbValue instanceof BigDecimal ? ((BigDecimal) dbValue).compareTo((BigDecimal) propVal) != 0
+            : !propVal.equals(dbValue))
+          return handlePropertyModified(e, plan, i);
+        break;
+      case EMBEDDABLE:
         /* This is a component/embeddable. Compare sub-properties */
-        org.hibernate.type.ComponentType ct = (org.hibernate.type.ComponentType) propertyTypes[i];
-        if (hasDirtyUpdatableScalarProperties(propVal, dbValue, ct, si, ssci)) {
-          /* Components differ. */
+        if (hasDirtyUpdatableScalarProperties(propVal, si, ssci, plan.componentPlans[i], (Object[]) dbValue,
+            plan.componentTypes[i].getPropertyValues(propVal, ssci)))
           return true;
-        } else {
-          /* Components do not differ. Proceed with next property. */
-          continue;
-        }
-      }
-      if (dbValue instanceof BigDecimal) {
+        break;
+      case BIG_DECIMAL:
         /*
          * Special handling for comparing BigDecimal.
          */
         if (((BigDecimal) dbValue).compareTo((BigDecimal) propVal) != 0)
-          return handlePropertyModified(e, propertyNames, i);
-      } else if (!propVal.equals(dbValue)) {
+          return handlePropertyModified(e, plan, i);
+        break;
+      default:
         /*
          * Everything else will be compared with equals().
          */
-        return handlePropertyModified(e, propertyNames, i);
+        if (!propVal.equals(dbValue))
+          return handlePropertyModified(e, plan, i);
       }
     }
     return false;
@@ -717,44 +1362,24 @@ class VersioningInterceptor extends org.hibernate.EmptyInterceptor {
 
   /**
    * Will be called by
-   * {@link #hasDirtyUpdatableScalarProperties(Object, org.hibernate.engine.spi.SessionImplementor, org.hibernate.engine.spi.SharedSessionContractImplementor, Object[], Object[], String[], boolean[], org.hibernate.type.Type[])}
+   * {@link #hasDirtyUpdatableScalarProperties(Object, org.hibernate.engine.spi.SessionImplementor, org.hibernate.engine.spi.SharedSessionContractImplementor, DirtyCheckPlan, Object[], Object[])}
    * to check whether updating that property is allowed.
    *
    * @param e             the entity whose property was modified
-   * @param propertyNames the names of the properties
-   * @param propertyIndex the index of the modified property in the <code>propertyValues</code>,
-   *                      <code>propertyNames</code> and <code>propertyTypes</code> array
+   * @param plan          the plan of the entity
+   * @param propertyIndex the index of the modified property in the plan
    * @return <code>true</code>
    */
-  private boolean handlePropertyModified(Object e, String[] propertyNames, int propertyIndex) {
-    if (propertyNames != null && metamodel.isArchivedProperty(e, propertyNames[propertyIndex])) {
+  private boolean handlePropertyModified(Object e, DirtyCheckPlan plan, int propertyIndex) {
+    if (plan.kinds[propertyIndex] == DirtyCheckPlan.Kind.ARCHIVED) {
       /* Manually changing the archived property is not allowed. */
       throw new IllegalPropertyModificationException(
-          "Cannot modify property [" + propertyNames[propertyIndex] + "] on automatically versioned entity ["
+          "Cannot modify property [" + plan.propertyNames[propertyIndex] + "] on automatically versioned entity ["
               + findNonProxyClass(e.getClass()) + "#" + metamodel.getIdOf(e) + "]");
     }
     return true;
   }
 
-  /**
-   * Check whether any sub-property of a component/embeddable is different.
-   *
-   * @param propVal the JPA entity's property value. This will be an instance of a class annotated with
-   *                {@link Embeddable}
-   * @param dbValue the database snapshot value. This will be an array with the sub-property values
-   * @param ct      the Hibernate ComponentType of the embeddable
-   * @param si      the {@link org.hibernate.engine.spi.SessionImplementor} view on that {@link EntityManager}
-   * @param ssci    the {@link org.hibernate.engine.spi.SharedSessionContractImplementor} view on that
-   *                {@link EntityManager}
-   * @return <code>true</code> if there is a difference; <code>false</code> otherwise
-   */
-  private boolean hasDirtyUpdatableScalarProperties(Object propVal, Object dbValue, org.hibernate.type.ComponentType ct,
-      org.hibernate.engine.spi.SessionImplementor si, org.hibernate.engine.spi.SharedSessionContractImplementor ssci) {
-    Object[] dbValues = (Object[]) dbValue;
-    Object[] propVals = ct.getPropertyValues(propVal, ssci);
-    return hasDirtyUpdatableScalarProperties(propVal, si, ssci, dbValues, propVals, null, null, ct.getSubtypes());
-  }
-
   /**
    * Copy all collection attributes of the given entity. This avoids errors due to collections having different loaded
    * and current keys when we create a new version of the owning entity.
@@ -762,17 +1387,14 @@ class VersioningInterceptor extends org.hibernate.EmptyInterceptor {
    * @param e  the entity whose collections should be copied
    * @param ep the {@link org.hibernate.persister.entity.EntityPersister} of the entity whose collections to copy
    */
-  private static void shallowCopyAllCollectionsOf(Object e, org.hibernate.persister.entity.EntityPersister ep) {
-    Class<?> realClass = findNonProxyClass(e.getClass());
-    Set<?> pluralAttributes = ep.getFactory().getMetamodel().entity(realClass).getPluralAttributes();
-    for (Object attribute : pluralAttributes) {
-      PluralAttribute<?, ?, ?> pa = (PluralAttribute<?, ?, ?>) attribute;
+  private void shallowCopyAllCollectionsOf(Object e, org.hibernate.persister.entity.EntityPersister ep) {
+    for (int index : metamodel.getCollectionIndexes(e.getClass())) {
       @SuppressWarnings("unchecked")
-      Collection<Object> coll = (Collection<Object>) ep.getPropertyValue(e, pa.getName());
+      Collection<Object> coll = (Collection<Object>) ep.getPropertyValue(e, index);
       Class<?> realCollectionClass = findNonProxyClass(coll.getClass());
       Collection<Object> newColl = instantiateCollectionLike(realCollectionClass);
       newColl.addAll(coll);
-      ep.setPropertyValue(e, findPropertyIndex(ep, pa.getName()), newColl);
+      ep.setPropertyValue(e, index, newColl);
     }
   }
 
@@ -792,23 +1414,36 @@ class VersioningInterceptor extends org.hibernate.EmptyInterceptor {
      * that a later persist() of that entity will obtain a new identifier and create a new entity in the database. And
      * that new entity will then have all our Java property modifications applied to it.
      */
-    org.hibernate.engine.spi.EntityKey entityKey = si.getPersistenceContext().getEntry(e).getEntityKey();
+    org.hibernate.engine.spi.EntityEntry entry = si.getPersistenceContext().getEntry(e);
+    org.hibernate.engine.spi.EntityKey entityKey = entry.getEntityKey();
+    Object[] oldState = canUseLoadedStateAsOldVersion(e, entry, si) ? entry.getLoadedState() : null;
     si.getPersistenceContext().removeEntry(e);
     si.getPersistenceContext().removeEntity(entityKey);
     /*
      * 'e' will now become the new version.
      */
     Object newVersion = e;
-    /*
-     * Reload a fresh copy of the old (currently persisted) database version of that entity.
-     */
     Serializable oldId = ep.getIdentifier(newVersion, ssci);
     Class<?> realClass = findNonProxyClass(newVersion.getClass());
-    Object oldVersion = em.find(realClass, oldId);
+    Object oldVersion;
+    long oldVersionNumber;
+    if (oldState != null) {
+      /*
+       * All we need from the old version is in the loaded state of the entity, so only use a (not initialized)
+       * reference to it instead of loading it again.
+       */
+      oldVersion = em.getReference(realClass, oldId);
+      oldVersionNumber = metamodel.getVersionOf(realClass, oldState);
+    } else {
+      /*
+       * Reload a fresh copy of the old (currently persisted) database version of that entity.
+       */
+      oldVersion = em.find(realClass, oldId);
+      oldVersionNumber = metamodel.getVersionOf(oldVersion);
+    }
     /*
      * Check if the modified entity has the expected version.
      */
-    long oldVersionNumber = metamodel.getVersionOf(oldVersion);
     long newVersionNumber = metamodel.getVersionOf(newVersion);
     if (oldVersionNumber != newVersionNumber) {
       throw new ModifiedUnexpectedVersionException("Modified unexpected version [" + newVersionNumber + "] of entity ["
@@ -828,22 +1463,29 @@ class VersioningInterceptor extends org.hibernate.EmptyInterceptor {
      * Null-out the identifier of the entity in order for a future persist() call to create a new entity from it.
      */
     ep.setIdentifier(newVersion, null, ssci);
-    /*
-     * And increment the version.
-     */
-    metamodel.incrementVersion(oldVersion, newVersion);
-    /*
-     * Make sure that any identity field remains const.
-     */
-    metamodel.copyIdentity(oldVersion, newVersion);
-    /*
-     * Make sure that the creating user (the original creator) remains the same.
-     */
-    metamodel.copyCreatingUser(oldVersion, newVersion);
-    /*
-     * Make sure that the creation date (the original date) remains the same.
-     */
-    metamodel.copyCreationDate(oldVersion, newVersion);
+    if (oldState != null) {
+      /*
+       * Increment the version and keep the identity, creating user and creation date of the loaded state.
+       */
+      metamodel.copyFromOldVersion(realClass, oldState, newVersion);
+    } else {
+      /*
+       * And increment the version.
+       */
+      metamodel.incrementVersion(oldVersion, newVersion);
+      /*
+       * Make sure that any identity field remains const.
+       */
+      metamodel.copyIdentity(oldVersion, newVersion);
+      /*
+       * Make sure that the creating user (the original creator) remains the same.
+       */
+      metamodel.copyCreatingUser(oldVersion, newVersion);
+      /*
+       * Make sure that the creation date (the original date) remains the same.
+       */
+      metamodel.copyCreationDate(oldVersion, newVersion);
+    }
     /*
      * Associate old -> new in order to avoid creating yet newer versions of that entity when processing other entity
      * and collection changes which might cascade to this entity.
@@ -856,71 +1498,139 @@ class VersioningInterceptor extends org.hibernate.EmptyInterceptor {
      */
     vctx.versionsToArchive.put(oldVersionKey, oldVersion);
     /*
-     * Return the oldVersion freshly loaded from the database.
+     * Return the oldVersion freshly loaded from the database or a reference to it.
      */
     return oldVersion;
   }
 
   /**
-   * Determine whether the property at the given index has a scalar type, making it eligible for dirty-checking inside
-   * of {@link #handleScalarPropertiesModified}.
+   * Check whether the loaded state of the given entity can stand in for a freshly loaded old version in
+   * {@link #update}, so that the old version does not need to be loaded again.
    *
-   * @param index the index of the property
-   * @param types all property types (by index)
-   * @return <code>true</code> if the property is scalar or <code>false</code>
+   * <p>
+   * The old version must be loaded fully when a {@link VersioningListener} gets it passed, when a proxy for it already
+   * exists (which would otherwise be initialized by a new version), when it has collections (which Hibernate attaches
+   * to the reloaded old version, so that detaching it keeps them from being emptied) and when a collection may contain
+   * it, because {@link #handleNewVersionsOfEntitiesForOwner} replaces it in the collection by identity.
    */
-  private static boolean isScalarProperty(int index, org.hibernate.type.Type[] types) {
-    org.hibernate.type.Type t = types[index];
-    return t.isEntityType() || !t.isEntityType() && !t.isCollectionType();
+  private boolean canUseLoadedStateAsOldVersion(Object e, org.hibernate.engine.spi.EntityEntry entry,
+      org.hibernate.engine.spi.SessionImplementor si) {
+    if (versioningListeners != null && !versioningListeners.isEmpty())
+      return false;
+    if (entry.getStatus() != org.hibernate.engine.spi.Status.MANAGED || entry.getLoadedState() == null)
+      return false;
+    if (si.getPersistenceContext().getProxy(entry.getEntityKey()) != null)
+      return false;
+    Class<?> realClass = findNonProxyClass(e.getClass());
+    if (metamodel.getCollectionIndexes(realClass).length > 0)
+      return false;
+    for (Association assoc : metamodel.getIncomingAssociations(realClass))
+      if (assoc.getKind() == Kind.PLURAL)
+        return false;
+    return true;
   }
 
   /**
    * Check whether the given {@link org.hibernate.collection.spi.PersistentCollection} is dirty. If the collection has
    * not yet been stored in the database (i.e. its stored snapshot is <code>
-   * null</code>) this method returns <code>false</code>.
+   * null</code>) this method returns <code>false</code>. Elements are compared as multisets of their keys, so the
+   * order of the elements does not matter, but adding an entity that was already contained does.
    *
-   * @param pc the {@link org.hibernate.collection.spi.PersistentCollection}
+   * @param pc      the {@link org.hibernate.collection.spi.PersistentCollection}
+   * @param current the current elements, i.e. the collection itself or the collection which replaced it
+   * @param ssci    the {@link org.hibernate.engine.spi.SharedSessionContractImplementor}
    */
-  private static boolean isCollectionDirty(org.hibernate.collection.spi.PersistentCollection pc) {
-    Collection<?> current = (Collection<?>) pc;
+  private boolean isCollectionDirty(org.hibernate.collection.spi.PersistentCollection pc, Collection<?> current,
+      org.hibernate.engine.spi.SharedSessionContractImplementor ssci) {
     Collection<?> stored = (Collection<?>) pc.getStoredSnapshot();
     if (stored == null)
       return false;
-    return !current.containsAll(stored) || !stored.containsAll(current);
+    Function<Object, Object> key = o -> elementKey(o, ssci);
+    return !CollectionDiff.of(stored, current, key, key).isEmpty();
   }
 
   /**
    * Obtain all entities that were deleted from the given {@link org.hibernate.collection.spi.PersistentCollection}.
    *
    * @param em   the {@link EntityManager}
-   * @param pc   the {@link org.hibernate.collection.spi.PersistentCollection}
-   * @param vctx the {@link VersioningContext} of the current transaction
+   * @param pc      the {@link org.hibernate.collection.spi.PersistentCollection}
+   * @param current the current elements, i.e. the collection itself or the collection which replaced it
+   * @param ssci    the {@link org.hibernate.engine.spi.SharedSessionContractImplementor}
+   * @param vctx    the {@link VersioningContext} of the current transaction
    * @return the list of all effectively deleted entities
    */
   private List<Object> deletedElements(EntityManager em, org.hibernate.collection.spi.PersistentCollection pc,
-      VersioningContext vctx) {
-    Collection<?> current = (Collection<?>) pc;
+      Collection<?> current, org.hibernate.engine.spi.SharedSessionContractImplementor ssci, VersioningContext vctx) {
     Collection<?> stored = (Collection<?>) pc.getStoredSnapshot();
     if (stored == null)
       return Collections.emptyList();
-    List<Object> deleted = new ArrayList<>();
-    /* Iterate over all entities in the database snapshot */
-    for (Object o : stored) {
+    /*
+     * Compare the possibly new version of each entity in the database snapshot with the current/new state of the
+     * collection.
+     */
+    CollectionDiff diff = CollectionDiff.of(stored, current, o -> newestElementKey(o, ssci, vctx),
+        o -> elementKey(o, ssci));
+    List<Object> deleted = new ArrayList<>(diff.removed.size());
+    for (Object o : diff.removed) {
       /* obtain the possibly new version of that entity */
-      Object newestVersion = vctx.newVersionOf(o, em, metamodel);
-      if (newestVersion != null) {
-        o = newestVersion;
-      }
-      /*
-       * and check whether the current/new state of the collection does not contain that entity.
-       */
-      if (!current.contains(o)) {
-        deleted.add(o);
-      }
+      Object newestVersion = o != null ? vctx.newVersionOf(o, em, metamodel) : null;
+      deleted.add(newestVersion != null ? newestVersion : o);
     }
     return deleted;
   }
 
+  /**
+   * Compute the key by which a collection element is compared in a {@link CollectionDiff}: an entity by its root entity
+   * class and id (so that a proxy and the entity itself have the same key), an entity without id by its identity and
+   * any other value by itself.
+   */
+  private Object elementKey(Object element, org.hibernate.engine.spi.SharedSessionContractImplementor ssci) {
+    if (element instanceof org.hibernate.proxy.HibernateProxy) {
+      org.hibernate.proxy.LazyInitializer li = ((org.hibernate.proxy.HibernateProxy) element)
+          .getHibernateLazyInitializer();
+      if (li.isUninitialized())
+        return rootEntityKey(ssci.getFactory().getMetamodel().entityPersister(li.getEntityName()),
+            li.getIdentifier(), ssci);
+      element = li.getImplementation();
+    }
+    if (element == null)
+      return null;
+    Class<?> realClass = findNonProxyClass(element.getClass());
+    if (!metamodel.getClasses().contains(realClass))
+      return element;
+    Serializable id = metamodel.getIdOf(element);
+    if (id == null)
+      return Ref.of(element);
+    return rootEntityKey(ssci.getFactory().getMetamodel().entityPersister(realClass), id, ssci);
+  }
+
+  /**
+   * Same as {@link #elementKey(Object, org.hibernate.engine.spi.SharedSessionContractImplementor)}, but for the newest
+   * version of the given element in the current transaction.
+   */
+  private Object newestElementKey(Object element, org.hibernate.engine.spi.SharedSessionContractImplementor ssci,
+      VersioningContext vctx) {
+    if (element == null || !metamodel.getClasses().contains(findNonProxyClass(element.getClass())))
+      return elementKey(element, ssci);
+    /* Keyed just like in VersioningContext.newVersionOf(), but without loading a reference to the new version */
+    EntityKey oldKey = new EntityKey(element.getClass(), metamodel.getIdOf(element));
+    Ref ref = vctx.versionsToPersist.get(oldKey);
+    if (ref != null)
+      return elementKey(ref.referee, ssci);
+    EntityKey newKey = vctx.newVersionMapping.get(oldKey);
+    if (newKey != null)
+      return rootEntityKey(ssci.getFactory().getMetamodel().entityPersister(newKey.getType()), newKey.getId(), ssci);
+    return elementKey(element, ssci);
+  }
+
+  private static EntityKey rootEntityKey(org.hibernate.persister.entity.EntityPersister ep, Serializable id,
+      org.hibernate.engine.spi.SharedSessionContractImplementor ssci) {
+    String rootEntityName = ep.getRootEntityName();
+    if (!rootEntityName.equals(ep.getEntityName()))
+      ep = ssci.getFactory().getMetamodel().entityPersister(rootEntityName);
+    return new EntityKey(ep.getMappedClass(), id);
+  }
+
   /**
    * Instantiate a new {@link Collection} based on a common interface type, such as {@link List} or {@link Set}
    * implemented by the given collection class.
@@ -985,9 +1695,9 @@ class VersioningInterceptor extends org.hibernate.EmptyInterceptor {
      */
     Object oldVersion = update(owner, em, ssci, si, ep, vctx);
     /*
-     * Handle that a new version of that entity was created. This may create new versions of entities referencing this
-     * modified entity via some "version cascading" association(s).
+     * Remember that a new version of that entity was created. This may create new versions of entities referencing this
+     * modified entity via some "version cascading" association(s) in the next cascade wave.
      */
-    handleNewVersionOfEntity(em, si, ssci, oldVersion, owner, vctx);
+    vctx.pendingCascades.add(new NewVersion(oldVersion, owner));
   }
 }
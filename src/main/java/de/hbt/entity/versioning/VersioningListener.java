@@ -2,6 +2,8 @@ package de.hbt.entity.versioning;
 
 import java.io.*;
 
+import de.hbt.entity.versioning.VersioningProperties.*;
+
 /**
  * Can be implemented by Spring beans to get notified about versioning/lifecycle events on JPA entities.
  */
@@ -14,4 +16,29 @@ public interface VersioningListener {
    * @param id     the identifier of that entity
    */
   void onEntityArchived(Object entity, Serializable id);
+
+  /**
+   * Will be called by the versioning interceptor whenever cascading new versions exceeds a limit of the
+   * {@link VersioningProperties.CascadeBudget} of an entity type, once per entity type and limit and transaction.
+   *
+   * @param entityClass the class of the entities which would get new versions
+   * @param limit       the exceeded limit
+   * @param max         the configured maximum
+   * @param actual      the actual value
+   * @param action      what the interceptor does next
+   */
+  default void onCascadeBudgetExceeded(Class<?> entityClass, CascadeLimit limit, int max, long actual,
+      CascadeBudgetAction action) {
+  }
+
+  /**
+   * Will be called by the background worker applying the deferred cascades whenever the cascade of a new version failed
+   * {@code entity-versioning.deferred-cascade-max-attempts} times, so that it is no longer applied. It stays queued
+   * until it is purged via {@link VersioningComponent#purgeAbandonedDeferredCascades()}.
+   *
+   * @param cascade the abandoned cascade
+   * @param cause   the exception of the last attempt
+   */
+  default void onDeferredCascadeAbandoned(DeferredCascade cascade, Exception cause) {
+  }
 }
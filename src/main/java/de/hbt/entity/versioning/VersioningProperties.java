@@ -0,0 +1,187 @@
+package de.hbt.entity.versioning;
+
+import java.time.*;
+import java.util.*;
+
+import org.springframework.boot.context.properties.*;
+
+import lombok.*;
+
+/** Configuration properties of the versioning framework, prefixed with <code>entity-versioning</code>. */
+@ConfigurationProperties("entity-versioning")
+@Data
+public class VersioningProperties {
+
+  /** How to obtain the persisted state of an entity when checking it for dirty properties. */
+  public enum DirtyCheckMode {
+    /** Always load the state from the database. */
+    DATABASE,
+    /**
+     * Use the state Hibernate remembered when loading the entity into the persistence context, and only load the state
+     * from the database if there is no usable loaded state (e.g. for detached or merged entities, or when a referenced
+     * entity got a new version in the current transaction).
+     */
+    LOADED_STATE;
+  }
+
+  /** A limit of a {@link CascadeBudget}. */
+  public enum CascadeLimit {
+    /** The number of new versions of an entity type created by cascading in one transaction. */
+    NEW_VERSIONS,
+    /** The cascade depth at which an entity type gets new versions (1 for the owners of the modified entities). */
+    DEPTH,
+    /** The number of owners of an entity type looked up when cascading in one transaction. */
+    OWNER_ROWS;
+  }
+
+  /** What to do when a limit of a {@link CascadeBudget} is exceeded. */
+  public enum CascadeBudgetAction {
+    /** Abort the flush with a {@link de.hbt.entity.versioning.exception.CascadeBudgetExceededException}. */
+    FAIL,
+    /** Only log and report the exceeded limit to the {@link VersioningListener}s and continue cascading. */
+    CONTINUE,
+    /**
+     * Log and report the exceeded limit, and queue the new versions referenced by the remaining owners of the entity
+     * type in the {@link DeferredCascadeQueue} instead of cascading them in the current transaction, like for a
+     * {@link de.hbt.entity.versioning.annotations.CascadeNewVersion.Mode#DEFERRED} association. The owners then get
+     * their new versions when the deferred cascades are applied, without any budget being deferred again. New versions
+     * of entities without a <code>Long</code> id cannot be queued, and are cascaded as with {@link #CONTINUE}.
+     */
+    DEFER;
+  }
+
+  /**
+   * Limits of the new versions which cascading new versions to the referencing entities may create for an entity type.
+   * A limit of <code>null</code> means no limit (or the limit of the default budget, for the budget of a specific
+   * entity type).
+   */
+  @Data
+  public static class CascadeBudget {
+    /** The maximum number of new versions created by cascading in one transaction. */
+    private Integer maxNewVersions;
+    /** The maximum cascade depth at which new versions are created. */
+    private Integer maxDepth;
+    /** The maximum number of owners looked up when cascading in one transaction. */
+    private Integer maxOwnerRows;
+    /** What to do when one of the limits is exceeded. */
+    private CascadeBudgetAction onExceeded;
+  }
+
+  /** How to obtain the persisted state of an entity when checking it for dirty properties. */
+  private DirtyCheckMode dirtyCheckMode = DirtyCheckMode.DATABASE;
+
+  /**
+   * The maximum number of entities whose database snapshots are loaded with a single SELECT when checking the modified
+   * entities of a flush for dirty properties. Use <code>1</code> to load every snapshot with its own SELECT.
+   */
+  private int snapshotBatchSize = 100;
+
+  /**
+   * The maximum number of entity ids passed to a single statement when cascading new versions, i.e. when looking up the
+   * entities referencing the entities which got a new version and when archiving the old versions.
+   */
+  private int cascadeBatchSize = 100;
+
+  /**
+   * Whether to skip entities which Hibernate's in-memory dirty check finds unmodified since they were loaded, so that
+   * they are neither loaded from the database nor compared property by property when flushing.
+   */
+  private boolean skipUnmodifiedEntities = true;
+
+  /**
+   * Whether to load archived entity versions read-only into the persistence context, so that Hibernate keeps no loaded
+   * state for them and neither Hibernate nor the versioning framework checks them when flushing. Modifications of such
+   * versions are then silently discarded instead of failing with a
+   * {@link de.hbt.entity.versioning.exception.ModifiedArchivedException}. This must be enabled at startup, since the
+   * listener marking the loaded versions read-only is only registered then.
+   */
+  private boolean readOnlyArchivedVersions = false;
+
+  /**
+   * Whether to keep the reverse references of the live versions of all versioned entities in the table
+   * <code>entity_versioning_reference</code> (see {@link ReferenceIndex} for its DDL), and to look up the owners of the
+   * entities which got a new version there instead of querying the tables of the owners. Use
+   * {@link VersioningComponent#rebuildReferenceIndex()} after enabling it for an existing database.
+   */
+  private boolean referenceIndex = false;
+
+  /**
+   * The delay between two runs of the background worker applying the deferred cascades (see
+   * {@link de.hbt.entity.versioning.annotations.CascadeNewVersion.Mode#DEFERRED}). Each run applies all queued cascades
+   * in transactions of at most {@link #getCascadeBatchSize()} entities. Use <code>0</code> to disable the background
+   * worker and only apply them via {@link VersioningComponent#applyDeferredCascades()}.
+   */
+  private Duration deferredCascadeInterval = Duration.ofSeconds(5);
+
+  /**
+   * The number of failed attempts after which a deferred cascade is no longer applied. It then stays queued until it is
+   * purged via {@link VersioningComponent#purgeAbandonedDeferredCascades()}.
+   */
+  private int deferredCascadeMaxAttempts = 5;
+
+  /**
+   * The cascade budget of all entity types which have no budget of their own in {@link #cascadeBudgets}. It has no
+   * limits by default.
+   */
+  private CascadeBudget cascadeBudget = new CascadeBudget();
+
+  /**
+   * The cascade budgets of specific entity types, keyed by the simple or the fully-qualified name of the entity class.
+   * Limits which are not set fall back to the ones of the default {@link #cascadeBudget}.
+   */
+  private Map<String, CascadeBudget> cascadeBudgets = new HashMap<>();
+
+  /**
+   * Get the given limit of the cascade budget of the given entity class.
+   *
+   * @param entityClass the entity class
+   * @param limit       the limit
+   * @return the limit or <code>null</code> if there is no limit
+   */
+  public Integer getCascadeLimit(Class<?> entityClass, CascadeLimit limit) {
+    Integer max = limitOf(cascadeBudgetOf(entityClass), limit);
+    return max != null ? max : limitOf(cascadeBudget, limit);
+  }
+
+  /**
+   * Get the action of the cascade budget of the given entity class.
+   *
+   * @param entityClass the entity class
+   * @return what to do when a limit is exceeded
+   */
+  public CascadeBudgetAction getCascadeBudgetAction(Class<?> entityClass) {
+    CascadeBudget budget = cascadeBudgetOf(entityClass);
+    if (budget != null && budget.onExceeded != null)
+      return budget.onExceeded;
+    return cascadeBudget.onExceeded != null ? cascadeBudget.onExceeded : CascadeBudgetAction.FAIL;
+  }
+
+  /**
+   * Determine whether the default or any entity type's cascade budget defers the cascades when it is exceeded.
+   *
+   * @return <code>true</code> if any cascade budget uses {@link CascadeBudgetAction#DEFER}
+   */
+  public boolean hasDeferringCascadeBudget() {
+    if (cascadeBudget.onExceeded == CascadeBudgetAction.DEFER)
+      return true;
+    return cascadeBudgets.values().stream().anyMatch(budget -> budget.onExceeded == CascadeBudgetAction.DEFER);
+  }
+
+  private CascadeBudget cascadeBudgetOf(Class<?> entityClass) {
+    CascadeBudget budget = cascadeBudgets.get(entityClass.getName());
+    return budget != null ? budget : cascadeBudgets.get(entityClass.getSimpleName());
+  }
+
+  private static Integer limitOf(CascadeBudget budget, CascadeLimit limit) {
+    if (budget == null)
+      return null;
+    switch (limit) {
+    case NEW_VERSIONS:
+      return budget.maxNewVersions;
+    case DEPTH:
+      return budget.maxDepth;
+    default:
+      return budget.maxOwnerRows;
+    }
+  }
+}
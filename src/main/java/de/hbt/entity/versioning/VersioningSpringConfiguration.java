@@ -1,5 +1,6 @@
 package de.hbt.entity.versioning;
 
+import org.springframework.boot.context.properties.*;
 import org.springframework.context.annotation.*;
 
 /**
@@ -7,6 +8,7 @@ import org.springframework.context.annotation.*;
  */
 @Configuration
 @Import({ MetaModel.class, VersioningInterceptor.class, HibernatePropertiesCustomizerImpl.class,
-    VersioningComponent.class })
+    VersioningComponent.class, CascadeAnalyzer.class, ArchivedReadOnlyListener.class, DeferredCascadeWorker.class })
+@EnableConfigurationProperties(VersioningProperties.class)
 public class VersioningSpringConfiguration {
 }
@@ -44,4 +44,27 @@ public @interface CascadeNewVersion {
    *         as well
    */
   boolean withDelete() default false;
+
+  /**
+   * Whether the new version of the owning entity is created immediately or deferred.
+   *
+   * <p>
+   * The default is {@link Mode#IMMEDIATE}.
+   *
+   * @return how new versions are cascaded to the owning entity
+   */
+  Mode mode() default Mode.IMMEDIATE;
+
+  /** How new versions are cascaded to the owning entities. */
+  enum Mode {
+    /** The owning entities get their new versions within the same flush as the referenced entity. */
+    IMMEDIATE,
+    /**
+     * The flush only records the new version of the referenced entity in the table
+     * <code>entity_versioning_deferred_cascade</code> within the same transaction, and a background worker creates the
+     * new versions of the owning entities later in separate transactions. Until then, the owning entities still
+     * reference the archived version. This requires the referenced entity to have a <code>Long</code> id.
+     */
+    DEFERRED;
+  }
 }
@@ -0,0 +1,22 @@
+package de.hbt.entity.versioning.annotations;
+
+import java.lang.annotation.*;
+
+/**
+ * A String field of a versioned entity marked with this annotation will hold a hash of the content of that entity
+ * version, which is computed whenever a version is saved. The content comprises all updatable scalar, embeddable and
+ * to-one properties except the {@link ModifyingUser} and {@link ModificationDate}, so that two versions with the same
+ * content have the same hash.
+ *
+ * <p>
+ * The versioning framework uses the hash to detect an unmodified entity without reading and comparing its database
+ * state. Applications can use it to detect requests saving the same content again, e.g. by comparing the stored hash
+ * with the one returned by {@link de.hbt.entity.versioning.VersioningComponent#contentHashOf(Object)}.
+ *
+ * <p>
+ * The column must be able to hold 64 characters.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.FIELD })
+public @interface ContentHash {
+}
@@ -0,0 +1,8 @@
+package de.hbt.entity.versioning.exception;
+
+@SuppressWarnings("serial")
+public class CascadeBudgetExceededException extends VersioningException {
+  public CascadeBudgetExceededException(String message) {
+    super(message, null);
+  }
+}
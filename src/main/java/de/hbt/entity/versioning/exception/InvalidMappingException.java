@@ -0,0 +1,8 @@
+package de.hbt.entity.versioning.exception;
+
+@SuppressWarnings("serial")
+public class InvalidMappingException extends VersioningException {
+  public InvalidMappingException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
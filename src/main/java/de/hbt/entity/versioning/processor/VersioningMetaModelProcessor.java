@@ -0,0 +1,197 @@
+package de.hbt.entity.versioning.processor;
+
+import java.io.*;
+import java.lang.annotation.*;
+import java.util.*;
+
+import javax.annotation.processing.*;
+import javax.lang.model.*;
+import javax.lang.model.element.*;
+import javax.lang.model.type.*;
+import javax.lang.model.util.*;
+import javax.persistence.*;
+import javax.tools.*;
+
+import de.hbt.entity.versioning.annotations.*;
+import de.hbt.entity.versioning.annotations.Version;
+
+/**
+ * Optional annotation processor which precomputes the versioning meta-data of all JPA entities at compile time and
+ * writes it to the descriptor file {@value #DESCRIPTOR_LOCATION}.
+ *
+ * <p>
+ * When this descriptor is found on the classpath at runtime, the versioning meta-model reads the annotated fields and
+ * cascade flags of the described entities from it instead of reflectively scanning all fields of all entity classes
+ * and their super classes. Entities which are not contained in any descriptor are still scanned.
+ *
+ * <p>
+ * The processor is not registered automatically. To use it, add it explicitly to the annotation processors of the
+ * compilation of your entity classes, e.g. via <code>-processor</code> or the <code>annotationProcessors</code>
+ * configuration of the maven-compiler-plugin (along with any other processors, such as Lombok's). The processor is
+ * not contained in the main jar, but in the jar with the classifier <code>processor</code>, which only needs to be on
+ * the annotation processor path.
+ *
+ * <p>
+ * The descriptor is a properties file with the following entries, where <code>&lt;entity&gt;</code> is the binary
+ * name of the entity class:
+ * <ul>
+ * <li><code>&lt;entity&gt;.entity=true</code> for every described entity
+ * <li><code>&lt;entity&gt;.field.&lt;annotation&gt;=&lt;field&gt;,&lt;declaring class&gt;</code> for every field
+ * annotated with one of the versioning annotations or with {@link Id}, where <code>&lt;annotation&gt;</code> is the
+ * simple name of the annotation
+ * <li><code>&lt;entity&gt;.association.&lt;name&gt;=&lt;cascade new version&gt;,&lt;cascade delete&gt;,&lt;target
+ * entity&gt;,&lt;deferred&gt;</code> for every association
+ * </ul>
+ *
+ * <p>
+ * At runtime, the described associations and their target entities are checked against the JPA metamodel. An entity
+ * whose description does not match (e.g. because the descriptor was not recompiled after the entity was changed) is
+ * scanned reflectively instead.
+ */
+@SupportedAnnotationTypes("javax.persistence.Entity")
+public class VersioningMetaModelProcessor extends AbstractProcessor {
+
+  /** The location of the descriptor file in the class output. */
+  public static final String DESCRIPTOR_LOCATION = "META-INF/entity-versioning/metamodel.properties";
+
+  /**
+   * The annotations marking versioning-relevant fields. When a field has more than one of them, the first one wins,
+   * just like when the meta-model scans the fields reflectively.
+   */
+  private static final List<Class<? extends Annotation>> FIELD_ANNOTATIONS = Collections
+      .unmodifiableList(Arrays.asList(CreatingUser.class, ModifyingUser.class, Id.class, CreationDate.class,
+          ModificationDate.class, SoftDeleted.class, Archived.class, Version.class, Identity.class,
+          ContentHash.class));
+
+  /** All entries of the descriptor, sorted to produce a stable output. */
+  private final Map<String, String> entries = new TreeMap<>();
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    for (Element element : roundEnv.getElementsAnnotatedWith(Entity.class)) {
+      if (element.getKind() == ElementKind.CLASS)
+        describeEntity((TypeElement) element);
+    }
+    if (roundEnv.processingOver() && !entries.isEmpty())
+      writeDescriptor();
+    return false;
+  }
+
+  private void describeEntity(TypeElement entity) {
+    Elements elements = processingEnv.getElementUtils();
+    String entityName = elements.getBinaryName(entity).toString();
+    entries.put(entityName + ".entity", "true");
+    CascadeNewVersion cascadeNewVersionOnClass = entity.getAnnotation(CascadeNewVersion.class);
+    CascadeNewVersion cascadeNewVersionOnPackage = elements.getPackageOf(entity)
+        .getAnnotation(CascadeNewVersion.class);
+    /*
+     * Walk up the type hierarchy, starting with the entity itself. Just like the reflective scan, fields of super
+     * classes override fields of sub classes.
+     */
+    TypeElement current = entity;
+    while (current != null) {
+      String declaringClass = elements.getBinaryName(current).toString();
+      for (VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+        for (Class<? extends Annotation> annotationType : FIELD_ANNOTATIONS) {
+          if (field.getAnnotation(annotationType) != null) {
+            entries.put(entityName + ".field." + annotationType.getSimpleName(),
+                field.getSimpleName() + "," + declaringClass);
+            break;
+          }
+        }
+        if (isAssociation(field) && !entries.containsKey(entityName + ".association." + field.getSimpleName())) {
+          boolean[] cascade = cascadeFlags(field, cascadeNewVersionOnClass, cascadeNewVersionOnPackage);
+          entries.put(entityName + ".association." + field.getSimpleName(),
+              cascade[0] + "," + cascade[1] + "," + targetEntity(field) + "," + cascade[2]);
+        }
+      }
+      current = superclassOf(current);
+    }
+  }
+
+  private static boolean isAssociation(VariableElement field) {
+    return field.getAnnotation(ManyToOne.class) != null || field.getAnnotation(OneToOne.class) != null
+        || field.getAnnotation(OneToMany.class) != null || field.getAnnotation(ManyToMany.class) != null;
+  }
+
+  /**
+   * Determine whether a new version should be cascaded over the given association field, whether a deletion should be
+   * cascaded as well and whether the cascade is deferred. This follows the same precedence as the reflective scan of
+   * the meta-model.
+   */
+  private static boolean[] cascadeFlags(VariableElement field, CascadeNewVersion cascadeNewVersionOnClass,
+      CascadeNewVersion cascadeNewVersionOnPackage) {
+    CascadeNewVersion cascadeNewVersionAnnot = field.getAnnotation(CascadeNewVersion.class);
+    ManyToOne manyToOne = field.getAnnotation(ManyToOne.class);
+    ManyToMany manyToMany = field.getAnnotation(ManyToMany.class);
+    if (cascadeNewVersionAnnot != null)
+      return flags(cascadeNewVersionAnnot);
+    else if (manyToOne != null && hasPersistOrMerge(manyToOne.cascade()))
+      return new boolean[] { true, false, false };
+    else if (manyToMany != null && hasPersistOrMerge(manyToMany.cascade()))
+      return new boolean[] { true, false, false };
+    else if (cascadeNewVersionOnClass != null)
+      return flags(cascadeNewVersionOnClass);
+    else if (cascadeNewVersionOnPackage != null)
+      return flags(cascadeNewVersionOnPackage);
+    return new boolean[] { false, false, false };
+  }
+
+  private static boolean[] flags(CascadeNewVersion annot) {
+    return new boolean[] { annot.value(), annot.withDelete(), annot.mode() == CascadeNewVersion.Mode.DEFERRED };
+  }
+
+  private static boolean hasPersistOrMerge(CascadeType[] cascadeTypes) {
+    for (CascadeType cascadeType : cascadeTypes)
+      if (cascadeType == CascadeType.ALL || cascadeType == CascadeType.PERSIST || cascadeType == CascadeType.MERGE)
+        return true;
+    return false;
+  }
+
+  /**
+   * Determine the referenced entity type of the given association field, which is either the field type itself or the
+   * last type argument of a collection/map type.
+   */
+  private String targetEntity(VariableElement field) {
+    TypeMirror type = field.asType();
+    if (type.getKind() == TypeKind.DECLARED) {
+      List<? extends TypeMirror> typeArguments = ((DeclaredType) type).getTypeArguments();
+      if (!typeArguments.isEmpty())
+        type = typeArguments.get(typeArguments.size() - 1);
+    }
+    Element element = processingEnv.getTypeUtils().asElement(type);
+    if (element instanceof TypeElement)
+      return processingEnv.getElementUtils().getBinaryName((TypeElement) element).toString();
+    return "";
+  }
+
+  private TypeElement superclassOf(TypeElement type) {
+    TypeMirror superclass = type.getSuperclass();
+    if (superclass.getKind() != TypeKind.DECLARED)
+      return null;
+    TypeElement element = (TypeElement) processingEnv.getTypeUtils().asElement(superclass);
+    if (element.getQualifiedName().contentEquals(Object.class.getName()))
+      return null;
+    return element;
+  }
+
+  private void writeDescriptor() {
+    try {
+      FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+          DESCRIPTOR_LOCATION);
+      try (Writer writer = new BufferedWriter(new OutputStreamWriter(file.openOutputStream(), "ISO-8859-1"))) {
+        writer.write("# Generated by " + getClass().getName() + "\n");
+        for (Map.Entry<String, String> entry : entries.entrySet())
+          writer.write(entry.getKey() + "=" + entry.getValue() + "\n");
+      }
+    } catch (IOException e) {
+      processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+          "Could not write entity versioning descriptor [" + DESCRIPTOR_LOCATION + "]: " + e);
+    }
+  }
+}
@@ -0,0 +1,91 @@
+package de.hbt.entity.versioning;
+
+import java.lang.reflect.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import test.de.hbt.entity.versioning.common.*;
+import test.de.hbt.entity.versioning.masterdata.entity.*;
+
+/**
+ * Compares the accessors generated by {@link Accessors} with the reflective {@link Method#invoke(Object, Object...)}
+ * calls they replaced, for the kinds of versioning properties read and written on every flush.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccessorsBenchmark {
+
+  private Region region;
+  private long version;
+
+  private Method idGetter;
+  private Method versionGetter;
+  private Method archivedGetter;
+  private Method versionSetter;
+
+  private Function<Object, Object> generatedIdGetter;
+  private ToLongFunction<Object> generatedVersionGetter;
+  private Predicate<Object> generatedArchivedGetter;
+  private ObjLongConsumer<Object> generatedVersionSetter;
+
+  @Setup
+  public void setup() throws Exception {
+    region = new Region();
+    region.setId(42L);
+    region.setVersion(1L);
+    idGetter = AbstractEntity.class.getDeclaredMethod("getId");
+    versionGetter = AbstractVersionedEntity.class.getDeclaredMethod("getVersion");
+    archivedGetter = AbstractVersionedEntity.class.getDeclaredMethod("isArchived");
+    versionSetter = AbstractVersionedEntity.class.getDeclaredMethod("setVersion", long.class);
+    generatedIdGetter = Accessors.getter(idGetter);
+    generatedVersionGetter = Accessors.longGetter(versionGetter);
+    generatedArchivedGetter = Accessors.booleanGetter(archivedGetter);
+    generatedVersionSetter = Accessors.longSetter(versionSetter);
+  }
+
+  @Benchmark
+  public Object reflectiveIdGetter() throws Exception {
+    return idGetter.invoke(region);
+  }
+
+  @Benchmark
+  public Object generatedIdGetter() {
+    return generatedIdGetter.apply(region);
+  }
+
+  @Benchmark
+  public long reflectiveVersionGetter() throws Exception {
+    return (Long) versionGetter.invoke(region);
+  }
+
+  @Benchmark
+  public long generatedVersionGetter() {
+    return generatedVersionGetter.applyAsLong(region);
+  }
+
+  @Benchmark
+  public boolean reflectiveArchivedGetter() throws Exception {
+    return (Boolean) archivedGetter.invoke(region);
+  }
+
+  @Benchmark
+  public boolean generatedArchivedGetter() {
+    return generatedArchivedGetter.test(region);
+  }
+
+  @Benchmark
+  public void reflectiveVersionSetter() throws Exception {
+    versionSetter.invoke(region, ++version);
+  }
+
+  @Benchmark
+  public void generatedVersionSetter() {
+    generatedVersionSetter.accept(region, ++version);
+  }
+}
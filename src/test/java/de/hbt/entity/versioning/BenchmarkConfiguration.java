@@ -0,0 +1,24 @@
+package de.hbt.entity.versioning;
+
+import java.time.*;
+import java.util.function.*;
+
+import org.springframework.context.annotation.*;
+
+/**
+ * Provides the beans which the tests mock, for the benchmarks starting an application context with the
+ * {@link test.de.hbt.entity.versioning.TestConfiguration}.
+ */
+@Configuration
+class BenchmarkConfiguration {
+
+  @Bean
+  Supplier<Instant> nowSupplier() {
+    return Instant::now;
+  }
+
+  @Bean
+  Supplier<Principal> userSupplier() {
+    return () -> () -> "benchmark";
+  }
+}
@@ -0,0 +1,54 @@
+package de.hbt.entity.versioning;
+
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import test.de.hbt.entity.versioning.masterdata.entity.*;
+
+/**
+ * Compares the cached {@link ClassUtils#findNonProxyClass(Class)} with the uncached class name checks it replaced, for
+ * an entity class and for a class named like a Hibernate-generated proxy class.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassUtilsBenchmark {
+
+  /** Named like the lazy-loading proxy classes generated by Hibernate. */
+  static class Region$HibernateProxy$Benchmark extends Region {
+  }
+
+  private Class<?> entityClass = Region.class;
+  private Class<?> proxyClass = Region$HibernateProxy$Benchmark.class;
+
+  @Benchmark
+  public Class<?> uncachedEntityClass() {
+    return uncachedFindNonProxyClass(entityClass);
+  }
+
+  @Benchmark
+  public Class<?> cachedEntityClass() {
+    return ClassUtils.findNonProxyClass(entityClass);
+  }
+
+  @Benchmark
+  public Class<?> uncachedProxyClass() {
+    return uncachedFindNonProxyClass(proxyClass);
+  }
+
+  @Benchmark
+  public Class<?> cachedProxyClass() {
+    return ClassUtils.findNonProxyClass(proxyClass);
+  }
+
+  /** The implementation of {@link ClassUtils#findNonProxyClass(Class)} before its results were cached. */
+  private static Class<?> uncachedFindNonProxyClass(Class<?> clazz) {
+    if (clazz.getName().contains("_$$_") || clazz.getName().contains("$HibernateProxy$"))
+      return uncachedFindNonProxyClass(clazz.getSuperclass());
+    return clazz;
+  }
+}
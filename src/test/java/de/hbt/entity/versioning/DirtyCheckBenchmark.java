@@ -0,0 +1,113 @@
+package de.hbt.entity.versioning;
+
+import java.io.*;
+import java.math.*;
+import java.util.concurrent.*;
+
+import javax.persistence.*;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.*;
+import org.springframework.context.*;
+import org.springframework.orm.jpa.*;
+import org.springframework.transaction.*;
+import org.springframework.transaction.support.*;
+
+import test.de.hbt.entity.versioning.TestConfiguration;
+import test.de.hbt.entity.versioning.masterdata.entity.*;
+import test.de.hbt.entity.versioning.trade.entity.*;
+
+/**
+ * Measures the comparison of loaded, unmodified entities with their database snapshots in
+ * {@link VersioningInterceptor#hasDirtyUpdatableScalarProperties}, for an entity with an identity entity, big decimals,
+ * to-one associations and a collection, and for an entity with an embeddable.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DirtyCheckBenchmark {
+
+  private ConfigurableApplicationContext context;
+  private PlatformTransactionManager transactionManager;
+  private TransactionStatus transaction;
+  private EntityManager entityManager;
+  private org.hibernate.engine.spi.SessionImplementor session;
+  private VersioningInterceptor versioningInterceptor;
+  private VersioningContext versioningContext;
+
+  private Quality quality;
+  private org.hibernate.persister.entity.EntityPersister qualityPersister;
+  private Object[] qualitySnapshot;
+
+  private Shipment shipment;
+  private org.hibernate.persister.entity.EntityPersister shipmentPersister;
+  private Object[] shipmentSnapshot;
+
+  @Setup
+  public void setup() {
+    context = new SpringApplicationBuilder(TestConfiguration.class, BenchmarkConfiguration.class).profiles("test")
+        .run();
+    versioningInterceptor = context.getBean(VersioningInterceptor.class);
+    transactionManager = context.getBean(PlatformTransactionManager.class);
+    entityManager = SharedEntityManagerCreator.createSharedEntityManager(context.getBean(EntityManagerFactory.class));
+    Serializable[] ids = new TransactionTemplate(transactionManager).execute(status -> {
+      Quality q = new Quality();
+      q.setIdentity(new QualityIdentity());
+      q.setName("Quality");
+      q.setCode("Q");
+      q.setDescription("Description");
+      q.setAltitude(new BigDecimal("1200.50"));
+      q.setHumidity(new BigDecimal("11.5"));
+      q.setScreen("18");
+      Certification certification = new Certification();
+      entityManager.persist(certification);
+      q.getCertifications().add(certification);
+      entityManager.persist(q);
+      WeightUnit unit = new WeightUnit();
+      unit.setName("kg");
+      entityManager.persist(unit);
+      Shipment s = new Shipment();
+      s.setAmount(1);
+      s.setSumQualityAmount(new Amount(BigDecimal.TEN, unit));
+      entityManager.persist(s);
+      return new Serializable[] { q.getId(), s.getId() };
+    });
+    /* Keep a transaction open while measuring, which is rolled back in the end */
+    transaction = transactionManager.getTransaction(new DefaultTransactionDefinition());
+    session = entityManager.unwrap(org.hibernate.engine.spi.SessionImplementor.class);
+    quality = entityManager.find(Quality.class, ids[0]);
+    qualityPersister = session.getEntityPersister(null, quality);
+    qualitySnapshot = qualityPersister.getDatabaseSnapshot(quality.getId(), session);
+    shipment = entityManager.find(Shipment.class, ids[1]);
+    shipmentPersister = session.getEntityPersister(null, shipment);
+    shipmentSnapshot = shipmentPersister.getDatabaseSnapshot(shipment.getId(), session);
+    versioningContext = versioningInterceptor.versioningContextFor(session.getTransaction());
+  }
+
+  @TearDown
+  public void tearDown() {
+    transactionManager.rollback(transaction);
+    context.close();
+  }
+
+  @Benchmark
+  public boolean checkQuality() {
+    return check(quality, quality.getId(), qualityPersister, qualitySnapshot);
+  }
+
+  @Benchmark
+  public boolean checkShipment() {
+    return check(shipment, shipment.getId(), shipmentPersister, shipmentSnapshot);
+  }
+
+  private boolean check(Object entity, Serializable id, org.hibernate.persister.entity.EntityPersister persister,
+      Object[] snapshot) {
+    /* The snapshot is removed from the context by the check */
+    versioningContext.databaseSnapshots.put(entity, snapshot);
+    return versioningInterceptor.hasDirtyUpdatableScalarProperties(entity, id, persister, session, session,
+        versioningContext);
+  }
+}
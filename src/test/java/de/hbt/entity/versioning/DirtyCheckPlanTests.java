@@ -0,0 +1,84 @@
+package de.hbt.entity.versioning;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.*;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.extension.*;
+import org.springframework.beans.factory.annotation.*;
+import org.springframework.boot.test.context.*;
+import org.springframework.test.context.*;
+import org.springframework.test.context.junit.jupiter.*;
+
+import de.hbt.entity.versioning.DirtyCheckPlan.*;
+import test.de.hbt.entity.versioning.*;
+import test.de.hbt.entity.versioning.TestConfiguration;
+import test.de.hbt.entity.versioning.masterdata.entity.*;
+import test.de.hbt.entity.versioning.trade.entity.*;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(classes = TestConfiguration.class)
+@ActiveProfiles("test")
+class DirtyCheckPlanTests extends AbstractTest {
+
+  @Autowired
+  private MetaModel metaModel;
+
+  @Test
+  void shouldSkipCollectionsAndNonUpdatableProperties() {
+    DirtyCheckPlan plan = metaModel.getDirtyCheckPlan(Quality.class);
+    assertThat(kindOf(plan, "certifications")).isEqualTo(Kind.SKIP);
+    assertThat(kindOf(plan, "archived")).isEqualTo(Kind.SKIP);
+    assertThat(kindOf(plan, "version")).isEqualTo(Kind.SKIP);
+    assertThat(kindOf(plan, "createdBy")).isEqualTo(Kind.SKIP);
+    assertThat(kindOf(plan, "contractType")).isEqualTo(Kind.SKIP);
+    assertThat(kindOf(metaModel.getDirtyCheckPlan(Contract.class), "shipments")).isEqualTo(Kind.SKIP);
+  }
+
+  @Test
+  void shouldSkipContentHash() {
+    DirtyCheckPlan plan = metaModel.getDirtyCheckPlan(Region.class);
+    assertThat(kindOf(plan, "contentHash")).isEqualTo(Kind.SKIP);
+    assertThat(kindOf(plan, "name")).isEqualTo(Kind.EQUALS);
+    assertThat(kindOf(plan, "identity")).isEqualTo(Kind.IDENTITY);
+    assertThat(plan.identityType).isEqualTo(Long.class);
+  }
+
+  @Test
+  void shouldClassifyScalarPropertiesAndAssociations() {
+    DirtyCheckPlan plan = metaModel.getDirtyCheckPlan(Quality.class);
+    assertThat(kindOf(plan, "identity")).isEqualTo(Kind.IDENTITY);
+    assertThat(plan.identityType).isEqualTo(QualityIdentity.class);
+    assertThat(kindOf(plan, "name")).isEqualTo(Kind.EQUALS);
+    assertThat(kindOf(plan, "deleted")).isEqualTo(Kind.EQUALS);
+    assertThat(kindOf(plan, "altitude")).isEqualTo(Kind.BIG_DECIMAL);
+    assertThat(kindOf(plan, "futureMarket")).isEqualTo(Kind.ENTITY_FK);
+    assertThat(kindOf(plan, "origin")).isEqualTo(Kind.ENTITY_FK);
+    assertThat(plan.componentPlans).containsOnlyNulls();
+  }
+
+  @Test
+  void shouldPlanEmbeddablesWithNestedPlan() {
+    DirtyCheckPlan plan = metaModel.getDirtyCheckPlan(Shipment.class);
+    int index = indexOf(plan, "sumQualityAmount");
+    assertThat(plan.kinds[index]).isEqualTo(Kind.EMBEDDABLE);
+    assertThat(plan.componentTypes[index].getReturnedClass()).isEqualTo(Amount.class);
+    DirtyCheckPlan componentPlan = plan.componentPlans[index];
+    assertThat(componentPlan.propertyNames).containsExactlyInAnyOrder("value", "unit");
+    assertThat(kindOf(componentPlan, "value")).isEqualTo(Kind.BIG_DECIMAL);
+    assertThat(kindOf(componentPlan, "unit")).isEqualTo(Kind.ENTITY_FK);
+    assertThat(componentPlan.identityType).isNull();
+    assertThat(kindOf(plan, "amount")).isEqualTo(Kind.EQUALS);
+  }
+
+  private static Kind kindOf(DirtyCheckPlan plan, String propertyName) {
+    return plan.kinds[indexOf(plan, propertyName)];
+  }
+
+  private static int indexOf(DirtyCheckPlan plan, String propertyName) {
+    int index = Arrays.asList(plan.propertyNames).indexOf(propertyName);
+    assertThat(index).as("index of property [%s]", propertyName).isNotNegative();
+    return index;
+  }
+}
@@ -0,0 +1,78 @@
+package de.hbt.entity.versioning;
+
+import java.util.concurrent.*;
+
+import javax.persistence.*;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.*;
+import org.springframework.context.*;
+import org.springframework.orm.jpa.*;
+import org.springframework.transaction.support.*;
+
+import test.de.hbt.entity.versioning.TestConfiguration;
+import test.de.hbt.entity.versioning.enhanced.*;
+import test.de.hbt.entity.versioning.masterdata.entity.*;
+
+/**
+ * Compares the flush of loaded, unmodified entities which are bytecode-enhanced for dirty tracking with the flush of
+ * the same entities without enhancement, whose properties are compared with their database snapshots. Skipping
+ * unmodified entities via Hibernate's in-memory dirty check is disabled, so that every entity is checked by the
+ * {@link VersioningInterceptor}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class DirtyTrackingBenchmark {
+
+  private static final int ENTITIES = 100;
+
+  private ConfigurableApplicationContext context;
+  private TransactionTemplate transactionTemplate;
+  private EntityManager entityManager;
+
+  @Setup
+  public void setup() {
+    context = new SpringApplicationBuilder(TestConfiguration.class, BenchmarkConfiguration.class).profiles("test")
+        .properties("entity-versioning.skip-unmodified-entities=false").run();
+    transactionTemplate = context.getBean(TransactionTemplate.class);
+    entityManager = SharedEntityManagerCreator.createSharedEntityManager(context.getBean(EntityManagerFactory.class));
+    transactionTemplate.execute(status -> {
+      for (int i = 0; i < ENTITIES; i++) {
+        TrackedItem trackedItem = new TrackedItem();
+        trackedItem.setName("Item " + i);
+        entityManager.persist(trackedItem);
+        UntrackedItem untrackedItem = new UntrackedItem();
+        untrackedItem.setName("Item " + i);
+        entityManager.persist(untrackedItem);
+      }
+      return null;
+    });
+  }
+
+  @TearDown
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  public void flushTrackedItems() {
+    loadAndFlush(TrackedItem.class);
+  }
+
+  @Benchmark
+  public void flushUntrackedItems() {
+    loadAndFlush(UntrackedItem.class);
+  }
+
+  private void loadAndFlush(Class<?> type) {
+    transactionTemplate.execute(status -> {
+      entityManager.createQuery("SELECT e FROM " + type.getName() + " e", type).getResultList();
+      entityManager.flush();
+      return null;
+    });
+  }
+}
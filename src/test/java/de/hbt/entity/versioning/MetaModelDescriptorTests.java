@@ -0,0 +1,152 @@
+package de.hbt.entity.versioning;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+import java.util.function.*;
+
+import javax.persistence.metamodel.*;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.extension.*;
+import org.springframework.beans.factory.annotation.*;
+import org.springframework.boot.builder.*;
+import org.springframework.boot.test.context.*;
+import org.springframework.context.*;
+import org.springframework.context.annotation.*;
+import org.springframework.core.io.*;
+import org.springframework.test.context.*;
+import org.springframework.test.context.junit.jupiter.*;
+
+import de.hbt.entity.versioning.processor.*;
+import test.de.hbt.entity.versioning.*;
+import test.de.hbt.entity.versioning.TestConfiguration;
+import test.de.hbt.entity.versioning.trade.entity.*;
+
+/**
+ * Compares the meta-model built from the descriptor written by the {@link VersioningMetaModelProcessor} during the test
+ * compilation with the meta-model built by reflectively scanning the entities, in application contexts whose class
+ * loader hides the descriptor or replaces it.
+ */
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(classes = TestConfiguration.class)
+@ActiveProfiles("test")
+class MetaModelDescriptorTests extends AbstractTest {
+
+  @Configuration
+  static class SupplierConfiguration {
+    @Bean
+    Supplier<Instant> nowSupplier() {
+      return Instant::now;
+    }
+
+    @Bean
+    Supplier<Principal> userSupplier() {
+      return () -> () -> "testuser";
+    }
+  }
+
+  /**
+   * Loads all classes and resources via its parent, except for the descriptor, which is replaced by the given one.
+   */
+  static class DescriptorClassLoader extends ClassLoader {
+    private final URL descriptor;
+
+    DescriptorClassLoader(ClassLoader parent, URL descriptor) {
+      super(parent);
+      this.descriptor = descriptor;
+    }
+
+    @Override
+    public URL getResource(String name) {
+      return VersioningMetaModelProcessor.DESCRIPTOR_LOCATION.equals(name) ? descriptor : super.getResource(name);
+    }
+
+    @Override
+    public Enumeration<URL> getResources(String name) throws IOException {
+      if (!VersioningMetaModelProcessor.DESCRIPTOR_LOCATION.equals(name))
+        return super.getResources(name);
+      return descriptor != null ? Collections.enumeration(Collections.singletonList(descriptor))
+          : Collections.emptyEnumeration();
+    }
+  }
+
+  @Autowired
+  private MetaModel metaModel;
+
+  @Test
+  void shouldBuildSameMetaModelWithoutDescriptor() {
+    ClassLoader classLoader = new DescriptorClassLoader(getClass().getClassLoader(), null);
+    assertThat(MetaModelDescriptor.load(getClass().getClassLoader())).isNotNull();
+    assertThat(MetaModelDescriptor.load(classLoader)).isNull();
+    try (ConfigurableApplicationContext context = run(classLoader)) {
+      assertThat(describe(context.getBean(MetaModel.class))).isEqualTo(describe(metaModel));
+    }
+  }
+
+  @Test
+  void shouldScanEntitiesWithStaleDescriptor() throws IOException {
+    /* A descriptor compiled before the target entity and the cascade of an association were changed */
+    Properties properties = new Properties();
+    try (InputStream is = getClass().getClassLoader()
+        .getResourceAsStream(VersioningMetaModelProcessor.DESCRIPTOR_LOCATION)) {
+      properties.load(is);
+    }
+    String key = Contract.class.getName() + ".association.agent";
+    assertThat(properties.getProperty(key)).startsWith("false,false,");
+    properties.setProperty(key, "true,true,java.lang.Object,false");
+    Path descriptor = Files.createTempFile("metamodel", ".properties");
+    try {
+      try (OutputStream os = Files.newOutputStream(descriptor)) {
+        properties.store(os, null);
+      }
+      try (ConfigurableApplicationContext context = run(
+          new DescriptorClassLoader(getClass().getClassLoader(), descriptor.toUri().toURL()))) {
+        MetaModel staleMetaModel = context.getBean(MetaModel.class);
+        assertThat(staleMetaModel.findOutgoingAssociation(Contract.class, "agent")).isNull();
+        assertThat(describe(staleMetaModel)).isEqualTo(describe(metaModel));
+      }
+    } finally {
+      Files.delete(descriptor);
+    }
+  }
+
+  private static ConfigurableApplicationContext run(ClassLoader classLoader) {
+    return new SpringApplicationBuilder(TestConfiguration.class, SupplierConfiguration.class)
+        .resourceLoader(new DefaultResourceLoader(classLoader)).profiles("test")
+        .properties("spring.datasource.generate-unique-name=true").run();
+  }
+
+  /**
+   * Render everything the meta-model knows about each entity class, so that two meta-models can be compared.
+   */
+  private Map<Class<?>, String> describe(MetaModel metaModel) {
+    Map<Class<?>, String> descriptions = new HashMap<>();
+    for (EntityType<?> entity : entityManager.getMetamodel().getEntities()) {
+      Class<?> clazz = entity.getJavaType();
+      DirtyCheckPlan plan = metaModel.getDirtyCheckPlan(clazz);
+      StringBuilder sb = new StringBuilder();
+      sb.append("versioned=").append(metaModel.isVersioned(clazz));
+      sb.append(", archived=").append(metaModel.getArchivedFieldName(clazz));
+      sb.append(", contentHash=").append(metaModel.getContentHashIndex(clazz));
+      int[] collectionIndexes = metaModel.getCollectionIndexes(clazz).clone();
+      Arrays.sort(collectionIndexes);
+      sb.append(", collections=").append(Arrays.toString(collectionIndexes));
+      sb.append(", kinds=").append(Arrays.toString(plan.kinds));
+      sb.append(", identityType=").append(plan.identityType);
+      List<String> associations = new ArrayList<>();
+      for (Association association : metaModel.getIncomingAssociations(clazz))
+        associations.add(association.getOwner().getName() + "." + association.getName() + "="
+            + association.getKind() + "," + association.isShouldCascadeNewVersion() + ","
+            + association.isShouldCascadeDelete() + "," + association.isCascadeDeferred());
+      Collections.sort(associations);
+      sb.append(", incoming=").append(associations);
+      descriptions.put(clazz, sb.toString());
+    }
+    return descriptions;
+  }
+}
@@ -0,0 +1,101 @@
+package de.hbt.entity.versioning;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.time.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.config.*;
+import org.springframework.boot.autoconfigure.*;
+import org.springframework.boot.autoconfigure.data.web.*;
+import org.springframework.boot.autoconfigure.domain.*;
+import org.springframework.boot.autoconfigure.h2.*;
+import org.springframework.boot.autoconfigure.jmx.*;
+import org.springframework.boot.builder.*;
+import org.springframework.context.*;
+import org.springframework.context.annotation.*;
+import org.springframework.test.util.*;
+
+import de.hbt.entity.versioning.exception.*;
+import test.de.hbt.entity.versioning.TestConfiguration;
+import test.de.hbt.entity.versioning.invalid.*;
+import test.de.hbt.entity.versioning.trade.entity.*;
+
+/**
+ * Starts application contexts to check what the meta-model contains and that it is built while the context is
+ * refreshed, and not only when the first flush needs it.
+ */
+class MetaModelTests {
+
+  @Configuration
+  static class SupplierConfiguration {
+    @Bean
+    Supplier<Instant> nowSupplier() {
+      return Instant::now;
+    }
+
+    @Bean
+    Supplier<Principal> userSupplier() {
+      return () -> () -> "testuser";
+    }
+  }
+
+  @Configuration
+  @EnableAutoConfiguration(exclude = { SpringDataWebAutoConfiguration.class, JmxAutoConfiguration.class,
+      H2ConsoleAutoConfiguration.class })
+  @Import({ VersioningSpringConfiguration.class, SupplierConfiguration.class })
+  @EntityScan(basePackageClasses = UnarchivedEntity.class)
+  static class InvalidConfiguration {
+  }
+
+  @Test
+  void shouldBuildMetaModelAtStartup() {
+    try (ConfigurableApplicationContext context = new SpringApplicationBuilder(TestConfiguration.class,
+        SupplierConfiguration.class).profiles("test").properties("spring.datasource.generate-unique-name=true")
+            .run()) {
+      /* Nothing was flushed yet */
+      assertThat(ReflectionTestUtils.getField(context.getBean(MetaModel.class), "snapshot")).isNotNull();
+    }
+  }
+
+  @Test
+  void shouldClassifyCollectionRolesOfSameElementTypeIndependently() {
+    try (ConfigurableApplicationContext context = new SpringApplicationBuilder(TestConfiguration.class,
+        SupplierConfiguration.class).profiles("test").properties("spring.datasource.generate-unique-name=true")
+            .run()) {
+      MetaModel metaModel = context.getBean(MetaModel.class);
+      assertThat(metaModel.isAssociationComposite(Contract.class.getName() + ".shipments")).isTrue();
+      assertThat(metaModel.isAssociationComposite(ShipmentSchedule.class.getName() + ".shipments")).isFalse();
+      assertThat(metaModel.isVersionedCollectionRole(ShipmentSchedule.class.getName() + ".shipments")).isTrue();
+    }
+  }
+
+  @Test
+  void shouldFailStartupAndRethrowCachedInvalidMapping() {
+    AtomicReference<MetaModel> metaModel = new AtomicReference<>();
+    Throwable failure = catchThrowable(() -> {
+      try (ConfigurableApplicationContext context = new SpringApplicationBuilder(InvalidConfiguration.class)
+          .profiles("test").properties("spring.datasource.generate-unique-name=true")
+          .initializers(c -> c.getBeanFactory().addBeanPostProcessor(new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+              if (bean instanceof MetaModel)
+                metaModel.set((MetaModel) bean);
+              return bean;
+            }
+          })).run()) {
+        fail("The application context must not start");
+      }
+    });
+    /* The refresh fails with the eager build, and not with the first flush */
+    assertThat(failure).isInstanceOf(InvalidMappingException.class);
+    assertThat(failure.getStackTrace()).anyMatch(e -> e.getClassName().equals(MetaModel.class.getName())
+        && e.getMethodName().equals("afterSingletonsInstantiated"));
+    /* Every later request rethrows the same exception instead of building the meta-model again */
+    assertThat(metaModel.get()).isNotNull();
+    assertThat(catchThrowable(metaModel.get()::getClasses)).isSameAs(failure);
+    assertThat(catchThrowable(() -> metaModel.get().isVersioned(UnarchivedEntity.class))).isSameAs(failure);
+  }
+}
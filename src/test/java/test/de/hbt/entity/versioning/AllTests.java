@@ -25,6 +25,7 @@ import org.springframework.transaction.support.*;
 
 import de.hbt.entity.versioning.*;
 import de.hbt.entity.versioning.exception.*;
+import test.de.hbt.entity.versioning.enhanced.*;
 import test.de.hbt.entity.versioning.masterdata.*;
 import test.de.hbt.entity.versioning.masterdata.entity.*;
 import test.de.hbt.entity.versioning.trade.*;
@@ -45,6 +46,9 @@ class AllTests extends AbstractTest {
   @Autowired
   private VersioningComponent versioningComponent;
 
+  @Autowired
+  private VersioningProperties versioningProperties;
+
   @ParameterizedTest
   @CsvSource({ "false", "true" })
   void shouldCreateIdentity(boolean shouldClearForAssertion) {
@@ -2225,6 +2229,65 @@ class AllTests extends AbstractTest {
     });
   }
 
+  @Test
+  void collectionRolesOfSameElementTypeAreClassifiedIndependently() {
+    /* Initial test data: the same shipment in a composite and a non-composite collection */
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        Contract c = new Contract();
+        c.setKey("S1");
+        Shipment shipment = new Shipment();
+        c.getShipments().add(shipment);
+        entityManager.persist(c);
+        ShipmentSchedule schedule = new ShipmentSchedule();
+        schedule.getShipments().add(shipment);
+        entityManager.persist(schedule);
+        put("contractId", c.getId(), "shipmentId", shipment.getId(), "scheduleId", schedule.getId());
+      }
+    });
+    long contractId = getId("contractId");
+    long scheduleId = getId("scheduleId");
+
+    /* Modification: removing the shipment from the schedule does not delete it */
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        entityManager.find(ShipmentSchedule.class, scheduleId).getShipments().remove(0);
+      }
+    });
+
+    /* Assertion */
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        status.setRollbackOnly();
+        assertThat(entityManager
+            .createQuery("SELECT COUNT(e) FROM " + Shipment.class.getSimpleName() + " e WHERE deleted = true",
+                Long.class)
+            .getSingleResult()).isEqualTo(0L);
+        assertThat(entityManager.find(ShipmentSchedule.class, scheduleId).isArchived()).isTrue();
+        assertThat(entityManager.find(Contract.class, contractId).isArchived()).isFalse();
+      }
+    });
+
+    /* Modification: removing the shipment from the contract deletes it */
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        entityManager.find(Contract.class, contractId).getShipments().remove(0);
+      }
+    });
+
+    /* Assertion */
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        status.setRollbackOnly();
+        assertThat(entityManager
+            .createQuery("SELECT COUNT(e) FROM " + Shipment.class.getSimpleName() + " e WHERE deleted = true",
+                Long.class)
+            .getSingleResult()).isEqualTo(1L);
+        assertThat(entityManager.find(Contract.class, contractId).isArchived()).isTrue();
+      }
+    });
+  }
+
   @ParameterizedTest
   @CsvSource({ "false, false", "false, true", "true, false", "true, true" })
   void collectionModificationOnUnversionedEntity(boolean shouldClear, boolean shouldClearForAssertion) {
@@ -2528,4 +2591,901 @@ class AllTests extends AbstractTest {
       }
     });
   }
+
+  @Test
+  void shouldAnalyzeCascades() {
+    /* Initial test data */
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        long regionId = masterdataService.createNewRegion("Region");
+        long originId = masterdataService.createNewOrigin("Origin", regionId);
+        Quality quality = entityManager.find(Quality.class, masterdataService.createNewQuality("Quality", originId));
+        for (int i = 0; i < 3; i++) {
+          Contract contract = entityManager.find(Contract.class, masterdataService.createNewContract("C" + i));
+          contract.setQuality(quality);
+          if (i == 0)
+            contract.setLatestQuality(quality);
+        }
+      }
+    });
+
+    /* Assertion without row counts */
+    CascadeReport structure = versioningComponent.analyzeCascades(false);
+    CascadeReport.EntityCascade qualityCascade = structure.of(Quality.class);
+    assertThat(qualityCascade.getClosure()).contains(Contract.class, Quality.class);
+    assertThat(qualityCascade.isCyclic()).isTrue();
+    assertThat(qualityCascade.getLiveRows()).isEqualTo(-1L);
+    assertThat(qualityCascade.getWorstCaseFanOut()).isEqualTo(-1L);
+    assertThat(qualityCascade.getAssociations()).extracting(CascadeReport.AssociationFanOut::getName)
+        .contains("quality", "latestQuality", "referenceQuality");
+    assertThat(structure.getCycles()).anySatisfy(cycle -> assertThat(cycle).contains(Quality.class));
+
+    /* Assertion with row counts */
+    CascadeReport report = versioningComponent.analyzeCascades(true);
+    qualityCascade = report.of(Quality.class);
+    assertThat(qualityCascade.getLiveRows()).isEqualTo(1L);
+    assertThat(qualityCascade.getAssociations())
+        .filteredOn(a -> a.getOwner() == Contract.class && a.getName().equals("quality"))
+        .extracting(CascadeReport.AssociationFanOut::getMaxOwnersPerTarget).containsExactly(3L);
+    assertThat(qualityCascade.getAssociations())
+        .filteredOn(a -> a.getOwner() == Contract.class && a.getName().equals("latestQuality"))
+        .extracting(CascadeReport.AssociationFanOut::getMaxOwnersPerTarget).containsExactly(1L);
+    assertThat(qualityCascade.getWorstCaseFanOut()).isGreaterThanOrEqualTo(4L);
+    assertThat(report.format()).contains(Quality.class.getName());
+  }
+
+  @ParameterizedTest
+  @CsvSource({ "false", "true" })
+  void shouldDetectModificationsOfManyEntitiesInOneFlush(boolean shouldClear) {
+    /* Initial test data */
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        for (int i = 0; i < 5; i++)
+          put("regionId" + i, masterdataService.createNewRegion("Region " + i));
+      }
+    });
+    if (shouldClear)
+      entityManager.clear();
+
+    /* Modification of every other region, while all regions are part of the flush */
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        for (int i = 0; i < 5; i++) {
+          Region r = entityManager.find(Region.class, getId("regionId" + i));
+          if (i % 2 == 0)
+            r.setName("Region " + i + " (modified)");
+        }
+      }
+    });
+
+    /* Assertion */
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        status.setRollbackOnly();
+        assertThat(entityManager.createQuery("SELECT COUNT(e) FROM " + Region.class.getName() + " e", Long.class)
+            .getSingleResult()).isEqualTo(8L);
+        for (int i = 0; i < 5; i++) {
+          Region r = entityManager.find(Region.class, getId("regionId" + i));
+          assertThat(r.isArchived()).isEqualTo(i % 2 == 0);
+        }
+        assertThat(entityManager
+            .createQuery("SELECT e.name FROM " + Region.class.getName() + " e WHERE e.archived = FALSE", String.class)
+            .getResultList()).containsExactlyInAnyOrder("Region 0 (modified)", "Region 1", "Region 2 (modified)",
+                "Region 3", "Region 4 (modified)");
+      }
+    });
+  }
+
+  @ParameterizedTest
+  @CsvSource({ "false", "true" })
+  void shouldOnlyVersionModifiedEntitiesWhenSkippingUnmodifiedEntities(boolean skipUnmodifiedEntities) {
+    boolean previous = versioningProperties.isSkipUnmodifiedEntities();
+    versioningProperties.setSkipUnmodifiedEntities(skipUnmodifiedEntities);
+    try {
+      /* Initial test data */
+      transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+        protected void doInTransactionWithoutResult(TransactionStatus status) {
+          put("regionId", masterdataService.createNewRegion("Region"), "otherRegionId",
+              masterdataService.createNewRegion("Other Region"));
+        }
+      });
+
+      /* Read both regions, modify one of them and flush before a query */
+      transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+        protected void doInTransactionWithoutResult(TransactionStatus status) {
+          entityManager.find(Region.class, getId("otherRegionId"));
+          entityManager.find(Region.class, getId("regionId")).setName("Region (modified)");
+          entityManager.flush();
+          assertThat(entityManager
+              .createQuery("SELECT e.name FROM " + Region.class.getName() + " e WHERE e.archived = FALSE",
+                  String.class)
+              .getResultList()).containsExactlyInAnyOrder("Region (modified)", "Other Region");
+        }
+      });
+
+      /* Assertion */
+      transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+        protected void doInTransactionWithoutResult(TransactionStatus status) {
+          status.setRollbackOnly();
+          assertThat(entityManager.find(Region.class, getId("regionId")).isArchived()).isTrue();
+          assertThat(entityManager.find(Region.class, getId("otherRegionId")).isArchived()).isFalse();
+        }
+      });
+    } finally {
+      versioningProperties.setSkipUnmodifiedEntities(previous);
+    }
+  }
+
+  @Test
+  void shouldCascadeNewVersionsOfManyEntitiesToAllOwners() {
+    int previous = versioningProperties.getCascadeBatchSize();
+    versioningProperties.setCascadeBatchSize(2);
+    try {
+      /* Initial test data */
+      transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+        protected void doInTransactionWithoutResult(TransactionStatus status) {
+          for (int i = 0; i < 3; i++) {
+            long regionId = masterdataService.createNewRegion("Cascaded Region " + i);
+            long originId = masterdataService.createNewOrigin("Cascaded Origin " + i, regionId);
+            masterdataService.createNewQuality("Cascaded Quality " + i, originId);
+            put("regionId" + i, regionId);
+          }
+        }
+      });
+
+      /* Modify all regions in one flush */
+      transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+        protected void doInTransactionWithoutResult(TransactionStatus status) {
+          for (int i = 0; i < 3; i++)
+            entityManager.find(Region.class, getId("regionId" + i)).setName("Cascaded Region " + i + " (modified)");
+        }
+      });
+
+      /* Assertion */
+      transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+        protected void doInTransactionWithoutResult(TransactionStatus status) {
+          status.setRollbackOnly();
+          List<Quality> qualities = entityManager.createQuery(
+              "FROM " + Quality.class.getName() + " e WHERE e.archived = FALSE AND e.name LIKE 'Cascaded %'",
+              Quality.class).getResultList();
+          assertThat(qualities).hasSize(3);
+          for (Quality q : qualities) {
+            assertThat(q.getVersion()).isEqualTo(2L);
+            assertThat(q.getOrigin().isArchived()).isFalse();
+            assertThat(q.getOrigin().getVersion()).isEqualTo(2L);
+            assertThat(q.getOrigin().getRegions()).hasSize(1);
+            assertThat(q.getOrigin().getRegions().get(0).isArchived()).isFalse();
+            assertThat(q.getOrigin().getRegions().get(0).getName()).endsWith("(modified)");
+          }
+        }
+      });
+    } finally {
+      versioningProperties.setCascadeBatchSize(previous);
+    }
+  }
+
+  @Test
+  void shouldCreateOneNewVersionOfOwnerReachedOnSeveralPaths() {
+    /* Initial test data: the quality references the region directly and via its origin */
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        long regionId = masterdataService.createNewRegion("Diamond Region");
+        long originId = masterdataService.createNewOrigin("Diamond Origin", regionId);
+        long qualityId = masterdataService.createNewQuality("Diamond Quality", originId);
+        entityManager.find(Quality.class, qualityId).setRegion(entityManager.find(Region.class, regionId));
+        put("regionId", regionId);
+      }
+    });
+
+    /* Modification */
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        entityManager.find(Region.class, getId("regionId")).setName("Diamond Region (modified)");
+      }
+    });
+
+    /* Assertion */
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        status.setRollbackOnly();
+        List<Quality> qualities = entityManager
+            .createQuery("FROM " + Quality.class.getName() + " e WHERE e.name = 'Diamond Quality'", Quality.class)
+            .getResultList();
+        assertThat(qualities).extracting(Quality::getVersion).containsExactlyInAnyOrder(1L, 2L);
+        Quality quality = qualities.stream().filter(q -> !q.isArchived()).findFirst().get();
+        assertThat(quality.getRegion().getName()).isEqualTo("Diamond Region (modified)");
+        assertThat(quality.getOrigin().isArchived()).isFalse();
+        assertThat(quality.getOrigin().getRegions()).extracting(Region::getId)
+            .containsExactly(quality.getRegion().getId());
+      }
+    });
+  }
+
+  @ParameterizedTest
+  @EnumSource(value = VersioningProperties.CascadeBudgetAction.class, names = { "FAIL", "CONTINUE" })
+  void shouldEnforceCascadeBudgetOfEntityType(VersioningProperties.CascadeBudgetAction action) {
+    VersioningProperties.CascadeBudget budget = new VersioningProperties.CascadeBudget();
+    budget.setMaxNewVersions(1);
+    budget.setOnExceeded(action);
+    versioningProperties.getCascadeBudgets().put(Origin.class.getSimpleName(), budget);
+    try {
+      /* Initial test data */
+      transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+        protected void doInTransactionWithoutResult(TransactionStatus status) {
+          for (int i = 0; i < 2; i++) {
+            long regionId = masterdataService.createNewRegion("Budget Region " + i);
+            masterdataService.createNewOrigin("Budget Origin " + i, regionId);
+            put("regionId" + i, regionId);
+          }
+        }
+      });
+
+      /* Modification cascading to two origins */
+      transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+        protected void doInTransactionWithoutResult(TransactionStatus status) {
+          status.setRollbackOnly();
+          for (int i = 0; i < 2; i++)
+            entityManager.find(Region.class, getId("regionId" + i)).setName("Budget Region " + i + " (modified)");
+          /* Assertion */
+          if (action == VersioningProperties.CascadeBudgetAction.FAIL) {
+            assertThrows(CascadeBudgetExceededException.class, () -> entityManager.flush());
+          } else {
+            entityManager.flush();
+            assertThat(entityManager
+                .createQuery("SELECT e.version FROM " + Origin.class.getName()
+                    + " e WHERE e.archived = FALSE AND e.name LIKE 'Budget Origin %'", Long.class)
+                .getResultList()).containsExactly(2L, 2L);
+          }
+        }
+      });
+    } finally {
+      versioningProperties.getCascadeBudgets().remove(Origin.class.getSimpleName());
+    }
+  }
+
+  @Test
+  void shouldDeferCascadesOverCascadeBudget() {
+    VersioningProperties.CascadeBudget budget = new VersioningProperties.CascadeBudget();
+    budget.setMaxNewVersions(1);
+    budget.setOnExceeded(VersioningProperties.CascadeBudgetAction.DEFER);
+    versioningProperties.getCascadeBudgets().put(Origin.class.getSimpleName(), budget);
+    try {
+      /* Initial test data */
+      transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+        protected void doInTransactionWithoutResult(TransactionStatus status) {
+          for (int i = 0; i < 2; i++) {
+            long regionId = masterdataService.createNewRegion("Budget Region " + i);
+            masterdataService.createNewOrigin("Budget Origin " + i, regionId);
+            put("regionId" + i, regionId);
+          }
+        }
+      });
+
+      /* Modification cascading to two origins, only one of which fits into the budget */
+      transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+        protected void doInTransactionWithoutResult(TransactionStatus status) {
+          for (int i = 0; i < 2; i++)
+            entityManager.find(Region.class, getId("regionId" + i)).setName("Budget Region " + i + " (modified)");
+        }
+      });
+      transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+        protected void doInTransactionWithoutResult(TransactionStatus status) {
+          status.setRollbackOnly();
+          assertThat(entityManager
+              .createQuery("SELECT e.version FROM " + Origin.class.getName()
+                  + " e WHERE e.archived = FALSE AND e.name LIKE 'Budget Origin %'", Long.class)
+              .getResultList()).containsExactlyInAnyOrder(1L, 2L);
+          Origin deferredOrigin = entityManager.createQuery("FROM " + Origin.class.getName()
+              + " e WHERE e.archived = FALSE AND e.version = 1 AND e.name LIKE 'Budget Origin %'", Origin.class)
+              .getSingleResult();
+          assertThat(deferredOrigin.getRegions()).extracting(Region::isArchived).containsExactly(true);
+          assertThat(entityManager.createNativeQuery("SELECT old_id FROM entity_versioning_deferred_cascade")
+              .getResultList()).extracting(id -> ((Number) id).longValue())
+              .containsExactly(deferredOrigin.getRegions().get(0).getId());
+        }
+      });
+
+      /* Applying the queued cascades */
+      assertThat(versioningComponent.applyDeferredCascades()).isEqualTo(1);
+
+      /* Assertion */
+      transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+        protected void doInTransactionWithoutResult(TransactionStatus status) {
+          status.setRollbackOnly();
+          List<Origin> origins = entityManager.createQuery("FROM " + Origin.class.getName()
+              + " e WHERE e.archived = FALSE AND e.name LIKE 'Budget Origin %'", Origin.class).getResultList();
+          assertThat(origins).extracting(Origin::getVersion).containsExactly(2L, 2L);
+          assertThat(origins).flatExtracting(Origin::getRegions).extracting(Region::getName)
+              .containsExactlyInAnyOrder("Budget Region 0 (modified)", "Budget Region 1 (modified)");
+          assertThat(entityManager.createNativeQuery("SELECT COUNT(*) FROM entity_versioning_deferred_cascade")
+              .getSingleResult()).extracting(count -> ((Number) count).longValue()).isEqualTo(0L);
+        }
+      });
+    } finally {
+      versioningProperties.getCascadeBudgets().remove(Origin.class.getSimpleName());
+    }
+  }
+
+  @Test
+  void shouldCascadeNewVersionsViaReferenceIndex() {
+    /* Initial test data, created before the reference index is enabled */
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        long regionId = masterdataService.createNewRegion("Indexed Region");
+        long originId = masterdataService.createNewOrigin("Indexed Origin", regionId);
+        masterdataService.createNewQuality("Indexed Quality", originId);
+      }
+    });
+    boolean previous = versioningProperties.isReferenceIndex();
+    versioningProperties.setReferenceIndex(true);
+    try {
+      transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+        protected void doInTransactionWithoutResult(TransactionStatus status) {
+          versioningComponent.rebuildReferenceIndex();
+        }
+      });
+
+      /* Two modifications, the second one finding the owners via the references of the new versions */
+      for (int i = 1; i <= 2; i++) {
+        String oldName = i == 1 ? "Indexed Region" : "Indexed Region " + (i - 1);
+        String newName = "Indexed Region " + i;
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+          protected void doInTransactionWithoutResult(TransactionStatus status) {
+            entityManager.createQuery("FROM " + Region.class.getName() + " e WHERE e.name = :name", Region.class)
+                .setParameter("name", oldName).getSingleResult().setName(newName);
+          }
+        });
+      }
+
+      /* Assertion */
+      transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+        protected void doInTransactionWithoutResult(TransactionStatus status) {
+          status.setRollbackOnly();
+          Quality quality = entityManager.createQuery("FROM " + Quality.class.getName()
+              + " e WHERE e.name = 'Indexed Quality' AND e.archived = FALSE", Quality.class).getSingleResult();
+          assertThat(quality.getVersion()).isEqualTo(3L);
+          assertThat(quality.getOrigin().getVersion()).isEqualTo(3L);
+          assertThat(quality.getOrigin().getRegions()).extracting(Region::getName).containsExactly("Indexed Region 2");
+          /* Only the live versions are indexed */
+          assertThat(entityManager
+              .createNativeQuery("SELECT target_id FROM entity_versioning_reference"
+                  + " WHERE owner_id = :id AND association = 'origin'")
+              .setParameter("id", quality.getId()).getResultList()).extracting(id -> ((Number) id).longValue())
+              .containsExactly(quality.getOrigin().getId());
+          assertThat(entityManager
+              .createNativeQuery("SELECT COUNT(*) FROM entity_versioning_reference"
+                  + " WHERE target_type = :type AND target_id = :id")
+              .setParameter("type", Region.class.getName())
+              .setParameter("id", quality.getOrigin().getRegions().get(0).getId()).getSingleResult())
+              .extracting(count -> ((Number) count).longValue()).isEqualTo(1L);
+        }
+      });
+    } finally {
+      versioningProperties.setReferenceIndex(previous);
+    }
+  }
+
+  @Test
+  void shouldRebuildReferenceIndexInBatches() {
+    /* Initial test data */
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        for (int i = 0; i < 3; i++) {
+          long regionId = masterdataService.createNewRegion("Rebuilt Region " + i);
+          long originId = masterdataService.createNewOrigin("Rebuilt Origin " + i, regionId);
+          masterdataService.createNewQuality("Rebuilt Quality " + i, originId);
+        }
+      }
+    });
+    int previous = versioningProperties.getCascadeBatchSize();
+    versioningProperties.setCascadeBatchSize(1);
+    try {
+      /* Rebuilding twice replaces the references instead of adding them again */
+      for (int i = 0; i < 2; i++) {
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+          protected void doInTransactionWithoutResult(TransactionStatus status) {
+            versioningComponent.rebuildReferenceIndex();
+          }
+        });
+      }
+
+      /* Assertion */
+      transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+        protected void doInTransactionWithoutResult(TransactionStatus status) {
+          status.setRollbackOnly();
+          for (int i = 0; i < 3; i++) {
+            Quality quality = entityManager
+                .createQuery("FROM " + Quality.class.getName() + " e WHERE e.name = :name", Quality.class)
+                .setParameter("name", "Rebuilt Quality " + i).getSingleResult();
+            assertThat(entityManager
+                .createNativeQuery("SELECT target_id FROM entity_versioning_reference"
+                    + " WHERE owner_id = :id AND association = 'origin'")
+                .setParameter("id", quality.getId()).getResultList()).extracting(id -> ((Number) id).longValue())
+                .containsExactly(quality.getOrigin().getId());
+            assertThat(entityManager
+                .createNativeQuery("SELECT owner_id FROM entity_versioning_reference"
+                    + " WHERE target_type = :type AND target_id = :id")
+                .setParameter("type", Region.class.getName())
+                .setParameter("id", quality.getOrigin().getRegions().get(0).getId()).getResultList())
+                .extracting(id -> ((Number) id).longValue()).containsExactly(quality.getOrigin().getId());
+          }
+        }
+      });
+    } finally {
+      versioningProperties.setCascadeBatchSize(previous);
+    }
+  }
+
+  @Test
+  void shouldCascadeNewVersionsOverDeferredAssociationLater() {
+    /* Initial test data */
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        long regionId = masterdataService.createNewRegion("Deferred Region");
+        long originId = masterdataService.createNewOrigin("Deferred Origin", regionId);
+        long qualityId = masterdataService.createNewQuality("Deferred Quality", originId);
+        QualityRating rating = new QualityRating();
+        rating.setQuality(entityManager.find(Quality.class, qualityId));
+        rating.setRating("Deferred Rating");
+        entityManager.persist(rating);
+      }
+    });
+
+    /* Two modifications, which only queue the cascade to the rating */
+    for (int i = 1; i <= 2; i++) {
+      String description = "Deferred " + i;
+      transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+        protected void doInTransactionWithoutResult(TransactionStatus status) {
+          entityManager
+              .createQuery("FROM " + Quality.class.getName()
+                  + " e WHERE e.name = 'Deferred Quality' AND e.archived = FALSE", Quality.class)
+              .getSingleResult().setDescription(description);
+        }
+      });
+    }
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        status.setRollbackOnly();
+        QualityRating rating = entityManager.createQuery("FROM " + QualityRating.class.getName()
+            + " e WHERE e.rating = 'Deferred Rating' AND e.archived = FALSE", QualityRating.class).getSingleResult();
+        assertThat(rating.getVersion()).isEqualTo(1L);
+        assertThat(rating.getQuality().isArchived()).isTrue();
+      }
+    });
+
+    /* Applying the queued cascades */
+    assertThat(versioningComponent.applyDeferredCascades()).isEqualTo(2);
+
+    /* Assertion */
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        status.setRollbackOnly();
+        QualityRating rating = entityManager.createQuery("FROM " + QualityRating.class.getName()
+            + " e WHERE e.rating = 'Deferred Rating' AND e.archived = FALSE", QualityRating.class).getSingleResult();
+        assertThat(rating.getVersion()).isEqualTo(2L);
+        assertThat(rating.getQuality().isArchived()).isFalse();
+        assertThat(rating.getQuality().getDescription()).isEqualTo("Deferred 2");
+        assertThat(entityManager.createNativeQuery("SELECT COUNT(*) FROM entity_versioning_deferred_cascade")
+            .getSingleResult()).extracting(count -> ((Number) count).longValue()).isEqualTo(0L);
+      }
+    });
+  }
+
+  @Test
+  void shouldCompareCollectionsRegardlessOfOrderButWithDuplicates() {
+    /* Initial test data */
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        long regionId = masterdataService.createNewRegion("Region A");
+        long originId = masterdataService.createNewOrigin("Origin", regionId);
+        long regionId2 = masterdataService.createNewRegion("Region B");
+        entityManager.find(Origin.class, originId).getRegions().add(entityManager.find(Region.class, regionId2));
+        put("regionId", regionId, "originId", originId, "regionId2", regionId2);
+      }
+    });
+    long originId = getId("originId");
+
+    /* Reordering the elements creates no new version */
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        Origin o = entityManager.find(Origin.class, originId);
+        Collections.reverse(o.getRegions());
+        entityManager.flush();
+        assertThat(o.getId()).isEqualTo(originId);
+      }
+    });
+
+    /* Adding an already contained element again does */
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        Origin o = entityManager.find(Origin.class, originId);
+        o.getRegions().add(entityManager.find(Region.class, getId("regionId")));
+        entityManager.flush();
+        assertThat(o.getId()).isEqualTo(originId + 1L);
+      }
+    });
+
+    /* Assertion */
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        status.setRollbackOnly();
+        Region regionA = entityManager.find(Region.class, getId("regionId"));
+        Region regionB = entityManager.find(Region.class, getId("regionId2"));
+        assertThat(entityManager.find(Origin.class, originId).getRegions()).containsExactlyInAnyOrder(regionA,
+            regionB);
+        assertThat(entityManager.find(Origin.class, originId + 1L).getRegions())
+            .containsExactlyInAnyOrder(regionA, regionB, regionA);
+      }
+    });
+  }
+
+  @Test
+  void shouldDetectUnmodifiedEntityByContentHash() {
+    /* Initial test data */
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        put("regionId", masterdataService.createNewRegion("Region"));
+      }
+    });
+    long regionId = getId("regionId");
+
+    /* Saving the same content again creates no new version */
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        Region r = entityManager.find(Region.class, regionId);
+        assertThat(r.getContentHash()).hasSize(64);
+        assertThat(versioningComponent.contentHashOf(r)).isEqualTo(r.getContentHash());
+        r.setName(new String("Region"));
+        entityManager.flush();
+        assertThat(r.getId()).isEqualTo(regionId);
+        r.setName("Region (modified)");
+        assertThat(versioningComponent.contentHashOf(r)).isNotEqualTo(r.getContentHash());
+      }
+    });
+
+    /* Assertion */
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        status.setRollbackOnly();
+        Region oldRegion = entityManager.find(Region.class, regionId);
+        Region newRegion = entityManager.find(Region.class, regionId + 1L);
+        assertThat(oldRegion.isArchived()).isTrue();
+        assertThat(newRegion.getName()).isEqualTo("Region (modified)");
+        assertThat(newRegion.getContentHash()).isEqualTo(versioningComponent.contentHashOf(newRegion))
+            .isNotEqualTo(oldRegion.getContentHash());
+        /* The same content in a new, detached entity has the same hash as the latest version */
+        Region sameContent = new Region();
+        sameContent.setIdentity(newRegion.getIdentity());
+        sameContent.setName("Region (modified)");
+        assertThat(versioningComponent.contentHashOf(sameContent)).isEqualTo(newRegion.getContentHash());
+      }
+    });
+  }
+
+  @ParameterizedTest
+  @CsvSource({ "DATABASE", "LOADED_STATE" })
+  void shouldDetectModificationsWithDirtyCheckMode(VersioningProperties.DirtyCheckMode mode) {
+    VersioningProperties.DirtyCheckMode previousMode = versioningProperties.getDirtyCheckMode();
+    versioningProperties.setDirtyCheckMode(mode);
+    try {
+      /* Initial test data */
+      transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+        protected void doInTransactionWithoutResult(TransactionStatus status) {
+          long regionId = masterdataService.createNewRegion("Region");
+          long originId = masterdataService.createNewOrigin("Origin", regionId);
+          put("regionId", regionId, "originId", originId, "qualityId",
+              masterdataService.createNewQuality("Quality", originId), "otherQualityId",
+              masterdataService.createNewQuality("Other Quality", originId));
+        }
+      });
+
+      /* Modification of the region (cascading to all) and of the name of one quality */
+      transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+        protected void doInTransactionWithoutResult(TransactionStatus status) {
+          masterdataService.updateRegionAndOriginAndQuality(getId("regionId"), getId("originId"), getId("qualityId"),
+              "Region (modified)", "Origin", "Quality (modified)");
+          entityManager.find(Quality.class, getId("otherQualityId"));
+        }
+      });
+
+      /* Assertion */
+      transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+        protected void doInTransactionWithoutResult(TransactionStatus status) {
+          status.setRollbackOnly();
+          assertThat(entityManager.find(Region.class, getId("regionId")).isArchived()).isTrue();
+          assertThat(entityManager.find(Origin.class, getId("originId")).isArchived()).isTrue();
+          assertThat(entityManager.find(Quality.class, getId("qualityId")).isArchived()).isTrue();
+          assertThat(entityManager.find(Quality.class, getId("otherQualityId")).isArchived()).isTrue();
+          assertThat(entityManager
+              .createQuery("SELECT e.name FROM " + Quality.class.getName() + " e WHERE e.archived = FALSE",
+                  String.class)
+              .getResultList()).containsExactlyInAnyOrder("Quality (modified)", "Other Quality");
+          assertThat(entityManager
+              .createQuery("SELECT e.name FROM " + Region.class.getName() + " e WHERE e.archived = FALSE",
+                  String.class)
+              .getResultList()).containsExactly("Region (modified)");
+        }
+      });
+    } finally {
+      versioningProperties.setDirtyCheckMode(previousMode);
+    }
+  }
+
+  @ParameterizedTest
+  @CsvSource({ "false", "true" })
+  void shouldUseDirtyTrackingOfEnhancedEntities(boolean skipUnmodifiedEntities) {
+    boolean previous = versioningProperties.isSkipUnmodifiedEntities();
+    versioningProperties.setSkipUnmodifiedEntities(skipUnmodifiedEntities);
+    org.hibernate.stat.Statistics statistics = entityManager.getEntityManagerFactory()
+        .unwrap(org.hibernate.SessionFactory.class).getStatistics();
+    statistics.setStatisticsEnabled(true);
+    try {
+      /* Initial test data */
+      transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+        protected void doInTransactionWithoutResult(TransactionStatus status) {
+          TrackedItem item = new TrackedItem();
+          item.setName("Item");
+          entityManager.persist(item);
+          put("itemId", item.getId());
+        }
+      });
+
+      /* Setting the same value leaves the entity clean, which needs no snapshot to tell */
+      transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+        protected void doInTransactionWithoutResult(TransactionStatus status) {
+          TrackedItem item = entityManager.find(TrackedItem.class, getId("itemId"));
+          assertThat(item).isInstanceOf(org.hibernate.engine.spi.SelfDirtinessTracker.class);
+          item.setName("Item");
+          assertThat(((org.hibernate.engine.spi.SelfDirtinessTracker) item).$$_hibernate_hasDirtyAttributes())
+              .isFalse();
+          statistics.clear();
+          entityManager.flush();
+          assertThat(statistics.getPrepareStatementCount()).isZero();
+        }
+      });
+
+      /* Setting another value makes the entity dirty */
+      transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+        protected void doInTransactionWithoutResult(TransactionStatus status) {
+          TrackedItem item = entityManager.find(TrackedItem.class, getId("itemId"));
+          item.setName("Item (modified)");
+          assertThat(((org.hibernate.engine.spi.SelfDirtinessTracker) item).$$_hibernate_getDirtyAttributes())
+              .containsExactly("name");
+        }
+      });
+
+      /* Assertion */
+      transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+        protected void doInTransactionWithoutResult(TransactionStatus status) {
+          status.setRollbackOnly();
+          TrackedItem oldItem = entityManager.find(TrackedItem.class, getId("itemId"));
+          assertThat(oldItem.isArchived()).isTrue();
+          assertThat(oldItem.getName()).isEqualTo("Item");
+          List<TrackedItem> liveItems = entityManager
+              .createQuery("SELECT e FROM " + TrackedItem.class.getName() + " e WHERE e.archived = FALSE",
+                  TrackedItem.class)
+              .getResultList();
+          assertThat(liveItems).hasSize(1);
+          assertThat(liveItems.get(0).getName()).isEqualTo("Item (modified)");
+          assertThat(liveItems.get(0).getIdentity()).isEqualTo(oldItem.getIdentity());
+          assertThat(liveItems.get(0).getVersion()).isEqualTo(oldItem.getVersion() + 1);
+        }
+      });
+    } finally {
+      statistics.setStatisticsEnabled(false);
+      versioningProperties.setSkipUnmodifiedEntities(previous);
+    }
+  }
+
+  @Test
+  void shouldNotReloadOldVersionWhenLoadedStateSuffices() {
+    org.hibernate.stat.Statistics statistics = entityManager.getEntityManagerFactory()
+        .unwrap(org.hibernate.SessionFactory.class).getStatistics();
+    statistics.setStatisticsEnabled(true);
+    try {
+      /* Initial test data of an entity without collections, which no collection references */
+      transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+        protected void doInTransactionWithoutResult(TransactionStatus status) {
+          WeightUnit wu = new WeightUnit();
+          wu.setName("kg");
+          wu.setAbbreviation("kg");
+          wu.setKgConversion(BigDecimal.ONE);
+          wu.setGlobal(true);
+          entityManager.persist(wu);
+          put("weightUnitId", wu.getId());
+        }
+      });
+      when(userSupplier.get()).thenReturn(() -> "otheruser");
+
+      /* Modification, which creates the new version from the loaded state of the old one */
+      transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+        protected void doInTransactionWithoutResult(TransactionStatus status) {
+          WeightUnit wu = entityManager.find(WeightUnit.class, getId("weightUnitId"));
+          wu.setName("kilogram");
+          statistics.clear();
+          entityManager.flush();
+          assertThat(wu.getId()).isNotEqualTo(getId("weightUnitId"));
+          assertThat(statistics.getEntityLoadCount()).isZero();
+          Object oldVersion = entityManager.getReference(WeightUnit.class, getId("weightUnitId"));
+          assertThat(oldVersion).isInstanceOf(org.hibernate.proxy.HibernateProxy.class);
+          assertThat(org.hibernate.Hibernate.isInitialized(oldVersion)).isFalse();
+          put("newWeightUnitId", wu.getId());
+        }
+      });
+
+      /* Assertion */
+      transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+        protected void doInTransactionWithoutResult(TransactionStatus status) {
+          status.setRollbackOnly();
+          WeightUnit oldVersion = entityManager.find(WeightUnit.class, getId("weightUnitId"));
+          WeightUnit newVersion = entityManager.find(WeightUnit.class, getId("newWeightUnitId"));
+          assertThat(oldVersion.isArchived()).isTrue();
+          assertThat(oldVersion.getName()).isEqualTo("kg");
+          assertThat(oldVersion.getVersion()).isEqualTo(1L);
+          assertThat(oldVersion.getCreatedByOrig()).isEqualTo("testuser");
+          assertThat(newVersion.isArchived()).isFalse();
+          assertThat(newVersion.getName()).isEqualTo("kilogram");
+          assertThat(newVersion.getAbbreviation()).isEqualTo("kg");
+          assertThat(newVersion.getVersion()).isEqualTo(2L);
+          assertThat(newVersion.getIdentity()).isEqualTo(oldVersion.getIdentity());
+          assertThat(newVersion.getCreatedByOrig()).isEqualTo("testuser");
+          assertThat(newVersion.getCreatedBy()).isEqualTo("otheruser");
+        }
+      });
+    } finally {
+      statistics.setStatisticsEnabled(false);
+    }
+  }
+
+  private void createQualityWithCertification() {
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        long originId = masterdataService.createNewOrigin("Origin", masterdataService.createNewRegion("Region"));
+        long qualityId = masterdataService.createNewQuality("Quality", originId);
+        long certificationId = masterdataService.createNewCertification("Certification");
+        entityManager.find(Quality.class, qualityId).getCertifications()
+            .add(entityManager.find(Certification.class, certificationId));
+        put("originId", originId, "qualityId", qualityId, "certificationId", certificationId,
+            "otherCertificationId", masterdataService.createNewCertification("Other Certification"));
+      }
+    });
+  }
+
+  private List<Quality> liveQualities() {
+    return entityManager
+        .createQuery("SELECT e FROM " + Quality.class.getName() + " e WHERE e.archived = FALSE", Quality.class)
+        .getResultList();
+  }
+
+  @Test
+  void shouldSkipUntouchedLoadedCollections() {
+    createQualityWithCertification();
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        put("otherQualityId", masterdataService.createNewQuality("Other Quality", getId("originId")));
+      }
+    });
+    org.hibernate.stat.Statistics statistics = entityManager.getEntityManagerFactory()
+        .unwrap(org.hibernate.SessionFactory.class).getStatistics();
+    statistics.setStatisticsEnabled(true);
+    try {
+      /* Initialize one collection and leave the other one uninitialized, modifying neither */
+      transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+        protected void doInTransactionWithoutResult(TransactionStatus status) {
+          Quality q = entityManager.find(Quality.class, getId("qualityId"));
+          assertThat(q.getCertifications()).extracting(Certification::getName).containsExactly("Certification");
+          Quality otherQuality = entityManager.find(Quality.class, getId("otherQualityId"));
+          statistics.clear();
+          entityManager.flush();
+          assertThat(statistics.getPrepareStatementCount()).isZero();
+          assertThat(org.hibernate.Hibernate.isInitialized(otherQuality.getCertifications())).isFalse();
+        }
+      });
+    } finally {
+      statistics.setStatisticsEnabled(false);
+    }
+
+    /* Assertion */
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        status.setRollbackOnly();
+        assertThat(liveQualities()).extracting(Quality::getId).containsExactlyInAnyOrder(getId("qualityId"),
+            getId("otherQualityId"));
+      }
+    });
+  }
+
+  @Test
+  void shouldNotCreateNewVersionForRevertedCollectionModification() {
+    createQualityWithCertification();
+
+    /* Add an element and remove it again, which leaves the collection marked as dirty */
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        Quality q = entityManager.find(Quality.class, getId("qualityId"));
+        Certification otherCertification = entityManager.find(Certification.class, getId("otherCertificationId"));
+        q.getCertifications().add(otherCertification);
+        q.getCertifications().remove(otherCertification);
+        assertThat(((org.hibernate.collection.spi.PersistentCollection) q.getCertifications()).isDirty()).isTrue();
+      }
+    });
+
+    /* Assertion */
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        status.setRollbackOnly();
+        List<Quality> qualities = liveQualities();
+        assertThat(qualities).extracting(Quality::getId).containsExactly(getId("qualityId"));
+        assertThat(qualities.get(0).getCertifications()).extracting(Certification::getName)
+            .containsExactly("Certification");
+      }
+    });
+  }
+
+  @Test
+  void shouldCreateNewVersionForReplacedCollection() {
+    createQualityWithCertification();
+
+    /* Replace the PersistentCollection by a plain list with an additional element */
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        Quality q = entityManager.find(Quality.class, getId("qualityId"));
+        List<Certification> certifications = new ArrayList<>(q.getCertifications());
+        certifications.add(entityManager.find(Certification.class, getId("otherCertificationId")));
+        q.setCertifications(certifications);
+      }
+    });
+
+    /* Assertion */
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        status.setRollbackOnly();
+        Quality oldQuality = entityManager.find(Quality.class, getId("qualityId"));
+        assertThat(oldQuality.isArchived()).isTrue();
+        assertThat(oldQuality.getCertifications()).extracting(Certification::getName)
+            .containsExactly("Certification");
+        List<Quality> qualities = liveQualities();
+        assertThat(qualities).hasSize(1);
+        assertThat(qualities.get(0).getIdentity()).isEqualTo(oldQuality.getIdentity());
+        assertThat(qualities.get(0).getCertifications()).extracting(Certification::getName)
+            .containsExactlyInAnyOrder("Certification", "Other Certification");
+      }
+    });
+  }
+
+  @Test
+  void shouldCreateIdentityOfPropertyAccessEntity() {
+    /* Initial test data */
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        PropertyAccessItem item = new PropertyAccessItem();
+        item.setName("Property Item");
+        entityManager.persist(item);
+        entityManager.flush();
+        assertThat(item.getIdentity()).isNotNull();
+        put("itemId", item.getId(), "identityId", item.getIdentity().getId());
+      }
+    });
+
+    /* Modification */
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        entityManager.find(PropertyAccessItem.class, getId("itemId")).setName("Property Item (modified)");
+      }
+    });
+
+    /* Assertion */
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        status.setRollbackOnly();
+        assertThat(entityManager.find(PropertyAccessItem.class, getId("itemId")).isArchived()).isTrue();
+        PropertyAccessItem item = entityManager.createQuery(
+            "FROM " + PropertyAccessItem.class.getName() + " e WHERE e.archived = FALSE", PropertyAccessItem.class)
+            .getSingleResult();
+        assertThat(item.getName()).isEqualTo("Property Item (modified)");
+        assertThat(item.getVersion()).isEqualTo(2L);
+        assertThat(item.getIdentity().getId()).isEqualTo(getId("identityId"));
+      }
+    });
+  }
 }
@@ -0,0 +1,74 @@
+package test.de.hbt.entity.versioning;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.extension.*;
+import org.springframework.beans.factory.annotation.*;
+import org.springframework.boot.test.context.*;
+import org.springframework.boot.test.mock.mockito.*;
+import org.springframework.test.context.*;
+import org.springframework.test.context.junit.jupiter.*;
+import org.springframework.transaction.*;
+import org.springframework.transaction.support.*;
+
+import de.hbt.entity.versioning.*;
+
+/**
+ * Runs with a {@link VersioningListener}, which is notified about the deferred cascades given up by the background
+ * worker. It has its own application context, since a listener keeps the versioning framework from creating new
+ * versions from the loaded state of the old version.
+ */
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(classes = TestConfiguration.class, properties = "spring.datasource.generate-unique-name=true")
+@ActiveProfiles("test")
+class DeferredCascadeTests extends AbstractTest {
+
+  @Autowired
+  private VersioningComponent versioningComponent;
+
+  @Autowired
+  private VersioningProperties versioningProperties;
+
+  @MockBean
+  private VersioningListener versioningListener;
+
+  @Test
+  void shouldAbandonDeferredCascadeAfterMaxAttempts() {
+    /* Initial test data: a queued cascade of an unknown entity type, which always fails */
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        entityManager.createNativeQuery(
+            "INSERT INTO entity_versioning_deferred_cascade (entity_type, old_id, new_id) VALUES ('Unknown', 1, 2)")
+            .executeUpdate();
+      }
+    });
+    int previous = versioningProperties.getDeferredCascadeMaxAttempts();
+    versioningProperties.setDeferredCascadeMaxAttempts(2);
+    try {
+      /* The first failure is retried in the next run, the second one abandons the cascade */
+      assertThat(versioningComponent.applyDeferredCascades()).isEqualTo(0);
+      verify(versioningListener, never()).onDeferredCascadeAbandoned(any(), any());
+      assertThat(versioningComponent.applyDeferredCascades()).isEqualTo(0);
+      verify(versioningListener).onDeferredCascadeAbandoned(eq(new DeferredCascade("Unknown", 1L, 2L, 2)),
+          any(RuntimeException.class));
+      assertThat(versioningComponent.applyDeferredCascades()).isEqualTo(0);
+      verifyNoMoreInteractions(versioningListener);
+
+      /* Assertion */
+      transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+        protected void doInTransactionWithoutResult(TransactionStatus status) {
+          assertThat(versioningComponent.getAbandonedDeferredCascades())
+              .containsExactly(new DeferredCascade("Unknown", 1L, 2L, 2));
+          assertThat(versioningComponent.purgeAbandonedDeferredCascades()).isEqualTo(1);
+          assertThat(versioningComponent.getAbandonedDeferredCascades()).isEmpty();
+          assertThat(entityManager.createNativeQuery("SELECT COUNT(*) FROM entity_versioning_deferred_cascade")
+              .getSingleResult()).extracting(count -> ((Number) count).longValue()).isEqualTo(0L);
+        }
+      });
+    } finally {
+      versioningProperties.setDeferredCascadeMaxAttempts(previous);
+    }
+  }
+}
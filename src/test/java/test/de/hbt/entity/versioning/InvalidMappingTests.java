@@ -0,0 +1,69 @@
+package test.de.hbt.entity.versioning;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.time.*;
+import java.util.function.*;
+
+import org.junit.jupiter.api.*;
+import org.springframework.boot.autoconfigure.*;
+import org.springframework.boot.autoconfigure.data.web.*;
+import org.springframework.boot.autoconfigure.domain.*;
+import org.springframework.boot.autoconfigure.h2.*;
+import org.springframework.boot.autoconfigure.jmx.*;
+import org.springframework.boot.builder.*;
+import org.springframework.context.*;
+import org.springframework.context.annotation.*;
+
+import de.hbt.entity.versioning.*;
+import de.hbt.entity.versioning.exception.*;
+import test.de.hbt.entity.versioning.invalid.*;
+
+/**
+ * Starts application contexts with invalid versioning mappings, which must fail at startup.
+ */
+class InvalidMappingTests {
+
+  @Configuration
+  @EnableAutoConfiguration(exclude = { SpringDataWebAutoConfiguration.class, JmxAutoConfiguration.class,
+      H2ConsoleAutoConfiguration.class })
+  @Import(VersioningSpringConfiguration.class)
+  @EntityScan(basePackageClasses = UnarchivedEntity.class)
+  static class InvalidConfiguration {
+    @Bean
+    Supplier<Instant> nowSupplier() {
+      return Instant::now;
+    }
+
+    @Bean
+    Supplier<Principal> userSupplier() {
+      return () -> () -> "testuser";
+    }
+  }
+
+  @Test
+  void shouldFailStartupOnInvalidMapping() {
+    Throwable failure = catchThrowable(() -> {
+      try (ConfigurableApplicationContext context = new SpringApplicationBuilder(InvalidConfiguration.class)
+          .profiles("test").properties("spring.datasource.generate-unique-name=true").run()) {
+        fail("The application context must not start");
+      }
+    });
+    InvalidMappingException invalidMapping = findCause(failure, InvalidMappingException.class);
+    assertThat(invalidMapping).isNotNull();
+    assertThat(invalidMapping.getMessage())
+        .contains("[" + UnarchivedEntity.class.getName() + "]: versioned entity has no @Archived field")
+        .contains("[" + TransientArchivedEntity.class.getName()
+            + "]: @Archived field [archived] is not a persistent property")
+        .contains("[" + StringIdentityEntity.class.getName()
+            + "]: @Identity field [identity] must be of type Long or an entity, but is [java.lang.String]");
+  }
+
+  private static <T extends Throwable> T findCause(Throwable t, Class<T> type) {
+    for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+      if (type.isInstance(cause))
+        return type.cast(cause);
+    }
+    return null;
+  }
+}
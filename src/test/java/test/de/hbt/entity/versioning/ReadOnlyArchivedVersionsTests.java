@@ -0,0 +1,113 @@
+package test.de.hbt.entity.versioning;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.*;
+
+import org.hibernate.boot.*;
+import org.hibernate.engine.spi.*;
+import org.hibernate.integrator.spi.*;
+import org.hibernate.jpa.boot.internal.*;
+import org.hibernate.jpa.boot.spi.*;
+import org.hibernate.service.spi.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.extension.*;
+import org.springframework.beans.factory.annotation.*;
+import org.springframework.boot.autoconfigure.orm.jpa.*;
+import org.springframework.boot.test.context.*;
+import org.springframework.context.annotation.*;
+import org.springframework.core.*;
+import org.springframework.core.annotation.Order;
+import org.springframework.test.context.*;
+import org.springframework.test.context.junit.jupiter.*;
+import org.springframework.transaction.*;
+import org.springframework.transaction.support.*;
+
+import test.de.hbt.entity.versioning.masterdata.*;
+import test.de.hbt.entity.versioning.masterdata.entity.*;
+
+/**
+ * Runs with {@link de.hbt.entity.versioning.VersioningProperties#isReadOnlyArchivedVersions()} enabled at startup, and
+ * with an {@link IntegratorProvider} configured before the versioning framework registers its own integrator.
+ */
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(classes = { TestConfiguration.class, ReadOnlyArchivedVersionsTests.IntegratorConfiguration.class },
+    properties = { "entity-versioning.read-only-archived-versions=true",
+        "spring.datasource.generate-unique-name=true" })
+@ActiveProfiles("test")
+@Import(MasterdataService.class)
+class ReadOnlyArchivedVersionsTests extends AbstractTest {
+
+  @Configuration
+  static class IntegratorConfiguration {
+    @Bean
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    HibernatePropertiesCustomizer existingIntegratorProviderCustomizer() {
+      return hibernateProperties -> hibernateProperties.put(EntityManagerFactoryBuilderImpl.INTEGRATOR_PROVIDER,
+          (IntegratorProvider) () -> Collections.singletonList(new RecordingIntegrator()));
+    }
+  }
+
+  static class RecordingIntegrator implements Integrator {
+    static volatile boolean integrated;
+
+    @Override
+    public void integrate(Metadata metadata, SessionFactoryImplementor sessionFactory,
+        SessionFactoryServiceRegistry serviceRegistry) {
+      integrated = true;
+    }
+
+    @Override
+    public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+    }
+  }
+
+  @Autowired
+  private MasterdataService masterdataService;
+
+  @Test
+  void shouldKeepExistingIntegrators() {
+    assertThat(RecordingIntegrator.integrated).isTrue();
+  }
+
+  @Test
+  void shouldLoadArchivedVersionsReadOnly() {
+    /* Initial test data */
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        long regionId = masterdataService.createNewRegion("Read-only Region");
+        put("regionId", regionId);
+      }
+    });
+    long regionId = getId("regionId");
+
+    /* Modification creating a new version */
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        entityManager.find(Region.class, regionId).setName("Read-only Region (modified)");
+      }
+    });
+
+    /* Modification of the archived version is discarded */
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        Region r = entityManager.find(Region.class, regionId);
+        assertThat(entityManager.unwrap(org.hibernate.Session.class).isReadOnly(r)).isTrue();
+        r.setName("Read-only Region (modified again)");
+        entityManager.flush();
+      }
+    });
+
+    /* Assertion */
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        status.setRollbackOnly();
+        assertThat(entityManager.find(Region.class, regionId).getName()).isEqualTo("Read-only Region");
+        assertThat(entityManager
+            .createQuery("SELECT e.name FROM " + Region.class.getName() + " e WHERE e.name LIKE 'Read-only Region%'",
+                String.class)
+            .getResultList()).containsExactlyInAnyOrder("Read-only Region", "Read-only Region (modified)");
+      }
+    });
+  }
+}
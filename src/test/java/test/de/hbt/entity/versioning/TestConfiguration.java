@@ -8,10 +8,14 @@ import org.springframework.boot.autoconfigure.jmx.*;
 import org.springframework.context.annotation.*;
 
 import de.hbt.entity.versioning.*;
+import test.de.hbt.entity.versioning.common.*;
+import test.de.hbt.entity.versioning.enhanced.*;
+import test.de.hbt.entity.versioning.masterdata.entity.*;
+import test.de.hbt.entity.versioning.trade.entity.*;
 
 @EnableAutoConfiguration(exclude = { SpringDataWebAutoConfiguration.class, JmxAutoConfiguration.class,
     H2ConsoleAutoConfiguration.class })
 @Import(VersioningSpringConfiguration.class)
-@EntityScan(basePackageClasses = TestConfiguration.class)
+@EntityScan(basePackageClasses = { AbstractEntity.class, Region.class, Contract.class, TrackedItem.class })
 public class TestConfiguration {
 }
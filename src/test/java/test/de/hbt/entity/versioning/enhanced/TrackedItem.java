@@ -0,0 +1,43 @@
+package test.de.hbt.entity.versioning.enhanced;
+
+import javax.persistence.*;
+
+import org.hibernate.annotations.*;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.*;
+
+import de.hbt.entity.versioning.annotations.*;
+import de.hbt.entity.versioning.annotations.Version;
+import lombok.*;
+
+/**
+ * A versioned entity which is bytecode-enhanced for dirty tracking at build time (see the
+ * hibernate-enhance-maven-plugin in the pom.xml). It declares all of its fields itself, since only the classes of this
+ * package are enhanced.
+ */
+@javax.persistence.Entity
+@Getter
+@Setter
+@ToString
+public class TrackedItem {
+
+  @Id
+  @GeneratedValue(generator = "SequencePerEntityGenerator")
+  @GenericGenerator(name = "SequencePerEntityGenerator", strategy = "org.hibernate.id.enhanced.SequenceStyleGenerator", parameters = {
+      @Parameter(name = SequenceStyleGenerator.CONFIG_PREFER_SEQUENCE_PER_ENTITY, value = "true"),
+      @Parameter(name = SequenceStyleGenerator.CONFIG_SEQUENCE_PER_ENTITY_SUFFIX, value = "_id_seq") })
+  private Long id;
+
+  @Identity
+  private Long identity;
+
+  @Archived
+  @Column(updatable = false)
+  private boolean archived;
+
+  @Version
+  @Column(updatable = false)
+  private long version;
+
+  private String name;
+}
@@ -0,0 +1,17 @@
+package test.de.hbt.entity.versioning.invalid;
+
+import javax.persistence.*;
+
+import de.hbt.entity.versioning.annotations.*;
+import lombok.*;
+import test.de.hbt.entity.versioning.common.*;
+
+/** A versioned entity whose identity is neither a Long nor an entity. */
+@Entity
+@ToString(callSuper = true)
+@EqualsAndHashCode(of = {}, callSuper = true)
+public @Data class StringIdentityEntity extends AbstractVersionedEntity {
+
+  @Identity
+  private String identity;
+}
@@ -0,0 +1,24 @@
+package test.de.hbt.entity.versioning.invalid;
+
+import javax.persistence.*;
+
+import de.hbt.entity.versioning.annotations.*;
+import de.hbt.entity.versioning.annotations.Version;
+import lombok.*;
+
+/** A versioned entity whose archived field is not mapped to a column. */
+@Entity
+public @Data class TransientArchivedEntity {
+
+  @Id
+  @GeneratedValue
+  private Long id;
+
+  @Archived
+  @Transient
+  private boolean archived;
+
+  @Version
+  @Column(updatable = false)
+  private long version;
+}
@@ -0,0 +1,19 @@
+package test.de.hbt.entity.versioning.invalid;
+
+import javax.persistence.*;
+
+import de.hbt.entity.versioning.annotations.Version;
+import lombok.*;
+
+/** A versioned entity without an archived column. */
+@Entity
+public @Data class UnarchivedEntity {
+
+  @Id
+  @GeneratedValue
+  private Long id;
+
+  @Version
+  @Column(updatable = false)
+  private long version;
+}
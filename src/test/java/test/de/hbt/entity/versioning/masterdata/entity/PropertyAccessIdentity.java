@@ -0,0 +1,12 @@
+package test.de.hbt.entity.versioning.masterdata.entity;
+
+import javax.persistence.*;
+
+import lombok.*;
+import test.de.hbt.entity.versioning.common.*;
+
+@Entity
+@ToString(callSuper = true)
+@EqualsAndHashCode(of = {}, callSuper = true)
+public class PropertyAccessIdentity extends AbstractEntity {
+}
@@ -0,0 +1,40 @@
+package test.de.hbt.entity.versioning.masterdata.entity;
+
+import javax.persistence.*;
+
+import de.hbt.entity.versioning.annotations.*;
+import lombok.*;
+import test.de.hbt.entity.versioning.common.*;
+
+/**
+ * A versioned entity whose own properties are mapped via their getters, so that the JPA metamodel exposes the getter
+ * methods instead of the fields.
+ */
+@Entity
+@Access(AccessType.PROPERTY)
+@ToString(callSuper = true)
+@EqualsAndHashCode(of = {}, callSuper = true)
+public class PropertyAccessItem extends AbstractVersionedEntity {
+
+  @Identity
+  private PropertyAccessIdentity identity;
+
+  private String name;
+
+  @ManyToOne
+  public PropertyAccessIdentity getIdentity() {
+    return identity;
+  }
+
+  public void setIdentity(PropertyAccessIdentity identity) {
+    this.identity = identity;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public void setName(String name) {
+    this.name = name;
+  }
+}
@@ -15,4 +15,7 @@ public @Data class Region extends AbstractVersionedEntity {
   private Long identity;
 
   private String name;
+
+  @ContentHash
+  private String contentHash;
 }
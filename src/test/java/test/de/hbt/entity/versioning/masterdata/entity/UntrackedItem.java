@@ -0,0 +1,41 @@
+package test.de.hbt.entity.versioning.masterdata.entity;
+
+import javax.persistence.*;
+
+import org.hibernate.annotations.*;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.*;
+
+import de.hbt.entity.versioning.annotations.*;
+import de.hbt.entity.versioning.annotations.Version;
+import lombok.*;
+
+/**
+ * The same as {@link test.de.hbt.entity.versioning.enhanced.TrackedItem}, but without bytecode enhancement.
+ */
+@javax.persistence.Entity
+@Getter
+@Setter
+@ToString
+public class UntrackedItem {
+
+  @Id
+  @GeneratedValue(generator = "SequencePerEntityGenerator")
+  @GenericGenerator(name = "SequencePerEntityGenerator", strategy = "org.hibernate.id.enhanced.SequenceStyleGenerator", parameters = {
+      @Parameter(name = SequenceStyleGenerator.CONFIG_PREFER_SEQUENCE_PER_ENTITY, value = "true"),
+      @Parameter(name = SequenceStyleGenerator.CONFIG_SEQUENCE_PER_ENTITY_SUFFIX, value = "_id_seq") })
+  private Long id;
+
+  @Identity
+  private Long identity;
+
+  @Archived
+  @Column(updatable = false)
+  private boolean archived;
+
+  @Version
+  @Column(updatable = false)
+  private long version;
+
+  private String name;
+}
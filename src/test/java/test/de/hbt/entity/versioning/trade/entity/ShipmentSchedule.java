@@ -0,0 +1,26 @@
+package test.de.hbt.entity.versioning.trade.entity;
+
+import java.util.*;
+
+import javax.persistence.*;
+
+import de.hbt.entity.versioning.annotations.*;
+import lombok.*;
+import test.de.hbt.entity.versioning.common.*;
+
+/**
+ * References the same {@link Shipment}s as a {@link Contract}, but via an association over which no new versions are
+ * cascaded.
+ */
+@Entity
+@ToString(callSuper = true)
+@EqualsAndHashCode(of = {}, callSuper = true)
+public @Data class ShipmentSchedule extends AbstractVersionedEntity {
+
+  @Identity
+  private Long identity;
+
+  @ManyToMany
+  @CascadeNewVersion(false)
+  private List<Shipment> shipments = new ArrayList<>();
+}
@@ -1,3 +1,19 @@
 -- We have to generate our identity sequence manually.
 -- For everything else we use Hibernate's schema generation.
 CREATE SEQUENCE IF NOT EXISTS identity_seq;
+CREATE TABLE IF NOT EXISTS entity_versioning_reference (
+  target_type VARCHAR(255) NOT NULL,
+  target_id BIGINT NOT NULL,
+  owner_type VARCHAR(255) NOT NULL,
+  owner_id BIGINT NOT NULL,
+  association VARCHAR(255) NOT NULL
+);
+CREATE INDEX IF NOT EXISTS entity_versioning_reference_target ON entity_versioning_reference (target_type, target_id);
+CREATE INDEX IF NOT EXISTS entity_versioning_reference_owner ON entity_versioning_reference (owner_type, owner_id);
+CREATE TABLE IF NOT EXISTS entity_versioning_deferred_cascade (
+  entity_type VARCHAR(255) NOT NULL,
+  old_id BIGINT NOT NULL,
+  new_id BIGINT NOT NULL,
+  attempts INT DEFAULT 0 NOT NULL,
+  PRIMARY KEY (entity_type, old_id)
+);